@@ -1,3 +1,4 @@
 javac -d classes -classpath lib -sourcepath src src/QueryMain.java
 javac -d classes -classpath lib -sourcepath src src/ConvertTxtToTbl.java
+javac -d classes -classpath lib -sourcepath src src/ConvertTblFormat.java
 javac -d classes -classpath lib -sourcepath src src/RandomDB.java
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+  builds the B+-tree index of an attribute of a table from <tablename>.tbl
+  and stores it in <tablename>.<attribute>.idx. the schema is read from
+  <tablename>.md. the index has to be built again whenever the table file
+  is written again, older indexes are ignored by the optimizer.
+*/
+
+import qp.utils.BPlusTree;
+import qp.utils.Schema;
+
+import java.io.*;
+
+public class BuildIndex {
+
+    public static void main(String[] args) throws IOException {
+        // check the arguments
+        if (args.length != 2) {
+            System.out.println("usage: java BuildIndex <tablename> <attribute> \n creates <tablename>.<attribute>.idx");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        String colname = args[1];
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+
+        /** the attribute may be given with or without its table name **/
+        if (colname.startsWith(tblname + ".")) {
+            colname = colname.substring(tblname.length() + 1);
+        }
+        int column = -1;
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            if (schema.getAttribute(i).getColName().equals(colname)) {
+                column = i;
+            }
+        }
+        if (column == -1) {
+            System.out.println("no attribute " + colname + " in " + mdfile);
+            System.exit(1);
+        }
+
+        String idxfile = BPlusTree.indexFile(tblname, colname);
+        if (!BPlusTree.build(tblfile, column, idxfile)) {
+            System.exit(1);
+        }
+        BPlusTree index = new BPlusTree(idxfile);
+        if (!index.open()) {
+            System.exit(1);
+        }
+        System.out.println("built " + idxfile + ": " + index.getNumEntries() + " entries, "
+                + index.getNumKeys() + " distinct keys, " + index.getNumLeaves() + " leaves, height " + index.getHeight());
+        index.close();
+    }
+
+}
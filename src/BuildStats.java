@@ -0,0 +1,87 @@
+/*
+  collects the statistics of a table from <tablename>.tbl and stores them in
+  <tablename>.stat: the number of tuples, the number of distinct values of
+  each attribute, and the most common values and the equi-depth histogram of
+  each attribute. the schema is read from <tablename>.md. the statistics have
+  to be collected again whenever the table file is written again.
+*/
+
+import qp.optimizer.ColumnStatistics;
+import qp.optimizer.TableStatistics;
+import qp.utils.Batch;
+import qp.utils.PageCodec;
+import qp.utils.Schema;
+
+import java.io.*;
+import java.util.ArrayList;
+
+public class BuildStats {
+
+    public static void main(String[] args) throws IOException {
+        // check the arguments
+        if (args.length != 1 && args.length != 3) {
+            System.out.println("usage: java BuildStats <tablename> [<mcvs> <buckets>] \n creates <tablename>.stat");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+        String statfile = tblname + ".stat";
+        int numMcvs = args.length == 3 ? Integer.parseInt(args[1]) : ColumnStatistics.DEFAULT_MCVS;
+        int numBuckets = args.length == 3 ? Integer.parseInt(args[2]) : ColumnStatistics.DEFAULT_BUCKETS;
+
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+
+        /** the values of each column, read page by page **/
+        int numCols = schema.getNumCols();
+        ArrayList<ArrayList<Object>> values = new ArrayList<>();
+        for (int i = 0; i < numCols; i++) {
+            values.add(new ArrayList<>());
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tblfile)));
+        PageCodec codec = PageCodec.readHeader(in);
+        if (!codec.matches(schema)) {
+            System.out.println("schema of " + tblfile + " does not match " + mdfile);
+            System.exit(1);
+        }
+        long numtuples = 0;
+        while (true) {
+            Batch page;
+            try {
+                page = codec.readPage(in);
+            } catch (EOFException eof) {
+                break;
+            }
+            for (int t = 0; t < page.size(); t++) {
+                for (int i = 0; i < numCols; i++) {
+                    values.get(i).add(page.get(t).dataAt(i));
+                }
+            }
+            numtuples += page.size();
+        }
+        in.close();
+
+        ColumnStatistics[] columns = new ColumnStatistics[numCols];
+        long[] distinct = new long[numCols];
+        for (int i = 0; i < numCols; i++) {
+            columns[i] = ColumnStatistics.build(values.get(i), numMcvs, numBuckets);
+            distinct[i] = columns[i].getNumDistinct();
+            values.set(i, null);
+        }
+        TableStatistics stats = new TableStatistics(numtuples, distinct);
+        for (int i = 0; i < numCols; i++) {
+            stats.setColumn(i, columns[i]);
+        }
+        stats.write(statfile);
+        System.out.println("built " + statfile + ": " + numtuples + " tuples, " + numCols + " attributes");
+    }
+
+}
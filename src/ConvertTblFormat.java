@@ -0,0 +1,121 @@
+/*
+  converts a <tablename>.tbl file written as a stream of serialized
+  Tuple objects (the format used before the binary page format), or
+  written in the packed binary page format, into the page aligned
+  binary format read by Scan. the schema is read from <tablename>.md
+  and the converted file replaces the original one. the zone map of
+  the table is written to <tablename>.zm, also for the tables already
+  in the page aligned format.
+*/
+
+import qp.utils.Batch;
+import qp.utils.PageCodec;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.ZoneMap;
+
+import java.io.*;
+
+public class ConvertTblFormat {
+
+    public static void main(String[] args) throws IOException {
+        // check the arguments
+        if (args.length != 1) {
+            System.out.println("usage: java ConvertTblFormat <tablename> \n converts <tablename>.tbl to the page aligned binary format");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+        String tmpfile = tblname + ".tbl.tmp";
+
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+
+        /** Files in the binary format start with one of the PageCodec magic numbers **/
+        DataInputStream check = new DataInputStream(new FileInputStream(tblfile));
+        int magic = check.readInt();
+        check.close();
+        if (magic == PageCodec.MAGIC_ALIGNED) {
+            System.out.println(tblfile + " is already in the page aligned binary format");
+            ZoneMap.build(tblfile, ZoneMap.zoneMapFile(tblname));
+            return;
+        }
+        boolean packed = (magic == PageCodec.MAGIC);
+
+        ObjectInputStream in = null;
+        DataInputStream inpacked = null;
+        PageCodec incodec = null;
+        Batch inpage = null;
+        int inpagecurs = 0;
+        if (packed) {
+            inpacked = new DataInputStream(new BufferedInputStream(new FileInputStream(tblfile)));
+            incodec = PageCodec.readHeader(inpacked);
+        } else {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(tblfile)));
+        }
+        DataOutputStream outtbl = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpfile)));
+        PageCodec codec = new PageCodec(schema);
+        codec.setPageSize(PageCodec.DEFAULT_PAGE_SIZE);
+        codec.writeHeader(outtbl);
+        Batch page = new Batch(PageCodec.DEFAULT_PAGE_SIZE);
+        int pagebytes = PageCodec.PAGE_HEADER_SIZE;
+        int numtuples = 0;
+
+        while (true) {
+            Tuple tuple;
+            try {
+                if (packed) {
+                    while (inpage == null || inpagecurs == inpage.size()) {
+                        inpage = incodec.readPage(inpacked);
+                        inpagecurs = 0;
+                    }
+                    tuple = inpage.get(inpagecurs++);
+                } else {
+                    tuple = (Tuple) in.readObject();
+                }
+            } catch (EOFException eof) {
+                break;
+            } catch (ClassNotFoundException ce) {
+                System.out.println("class not found exception --- error in table file");
+                System.exit(1);
+                return;
+            }
+            int tuplebytes = codec.encodedSize(tuple);
+            if (!page.isEmpty() && pagebytes + tuplebytes > PageCodec.DEFAULT_PAGE_SIZE) {
+                codec.writePage(outtbl, page);
+                page.clear();
+                pagebytes = PageCodec.PAGE_HEADER_SIZE;
+            }
+            page.add(tuple);
+            pagebytes += tuplebytes;
+            numtuples++;
+        }
+        if (!page.isEmpty()) {
+            codec.writePage(outtbl, page);
+        }
+        outtbl.close();
+        if (packed) {
+            inpacked.close();
+        } else {
+            in.close();
+        }
+
+        File converted = new File(tmpfile);
+        File original = new File(tblfile);
+        if (!original.delete() || !converted.renameTo(original)) {
+            System.out.println("error in replacing " + tblfile);
+            System.exit(1);
+        }
+        ZoneMap.build(tblfile, ZoneMap.zoneMapFile(tblname));
+        System.out.println("converted " + numtuples + " tuples of " + tblfile);
+    }
+
+}
@@ -2,12 +2,16 @@
   assume that the first line of the file contain the names of the
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
-  is delimited by tabs ("\t")
+  is delimited by tabs ("\t"). the smallest and largest values of
+  every column in every page are written to <tablename>.zm
 */
 
 import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.PageCodec;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.ZoneMap;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -29,7 +33,7 @@ public class ConvertTxtToTbl {
 
         /** open the input and output streams **/
         BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
+        DataOutputStream outtbl = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tblfile)));
 
         /** First Line is METADATA **/
         int linenum = 0;
@@ -43,6 +47,17 @@ public class ConvertTxtToTbl {
             System.exit(1);
         }
 
+        /** tuples are written in pages of at most PageCodec.DEFAULT_PAGE_SIZE bytes,
+         ** each page starting at a page boundary of the file
+         **/
+        PageCodec codec = new PageCodec(schema);
+        codec.setPageSize(PageCodec.DEFAULT_PAGE_SIZE);
+        codec.writeHeader(outtbl);
+        Batch page = new Batch(PageCodec.DEFAULT_PAGE_SIZE);
+        int pagebytes = PageCodec.PAGE_HEADER_SIZE;
+        ZoneMap zonemap = new ZoneMap(PageCodec.typesOf(schema));
+        long offset = codec.headerSize();
+
         boolean flag = false;
         StringTokenizer tokenizer;
         while ((line = in.readLine()) != null) {
@@ -70,10 +85,24 @@ public class ConvertTxtToTbl {
                 attrIndex++;
             }
             Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            int tuplebytes = codec.encodedSize(tuple);
+            if (!page.isEmpty() && pagebytes + tuplebytes > PageCodec.DEFAULT_PAGE_SIZE) {
+                int length = codec.writePage(outtbl, page);
+                zonemap.addPage(offset, length, page);
+                offset += length;
+                page.clear();
+                pagebytes = PageCodec.PAGE_HEADER_SIZE;
+            }
+            page.add(tuple);
+            pagebytes += tuplebytes;
+        }
+        if (!page.isEmpty()) {
+            int length = codec.writePage(outtbl, page);
+            zonemap.addPage(offset, length, page);
         }
         outtbl.close();
         in.close();
+        zonemap.write(ZoneMap.zoneMapFile(tblname));
     }
 
 }
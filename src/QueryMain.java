@@ -4,9 +4,15 @@
 
 import qp.operators.Debug;
 import qp.operators.Operator;
+import qp.operators.Sort;
 import qp.optimizer.BufferManager;
+import qp.optimizer.ClockPolicy;
+import qp.optimizer.DPOptimizer;
+import qp.optimizer.LRUKPolicy;
+import qp.optimizer.LRUPolicy;
 import qp.optimizer.PlanCost;
 import qp.optimizer.RandomOptimizer;
+import qp.optimizer.ReplacementPolicy;
 import qp.parser.Scaner;
 import qp.parser.parser;
 import qp.utils.*;
@@ -20,7 +26,7 @@ public class QueryMain {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer>");
+            System.out.println("usage: java QueryMain <queryfilename> <resultfile> <pagesize> <numbuffer> [<flag> <poolsize> <lru|clock|lruk> <workers> <dp|random|ii|sa|2po> <budgetms>]");
             System.exit(1);
         }
 
@@ -29,8 +35,10 @@ public class QueryMain {
 
         SQLQuery sqlquery = getSQLQuery(args[0]);
         configureBufferManager(sqlquery, args, in);
+        configureBufferPool(args);
+        configureWorkers(args);
 
-        Operator root = getQueryPlan(sqlquery);
+        Operator root = getQueryPlan(sqlquery, useDPOptimizer(sqlquery, args));
         printFinalPlan(root, args, in);
         executeQuery(root, args[1]);
     }
@@ -113,14 +121,84 @@ public class QueryMain {
         }
     }
 
+    /**
+     * Creates the buffer pool through which the tables and the temporary files are read and written.
+     * The pool size and the replacement policy are optional arguments, a pool size of 0 disables it.
+     **/
+    private static void configureBufferPool(String[] args) {
+        int poolSize = BufferManager.DEFAULT_POOL_SIZE;
+        if (args.length > 5) {
+            poolSize = Integer.parseInt(args[5]);
+        }
+        ReplacementPolicy policy = new LRUPolicy();
+        if (args.length > 6) {
+            if (args[6].equalsIgnoreCase("clock")) {
+                policy = new ClockPolicy();
+            } else if (args[6].equalsIgnoreCase("lruk")) {
+                policy = new LRUKPolicy();
+            } else if (!args[6].equalsIgnoreCase("lru")) {
+                System.out.println("Unknown replacement policy " + args[6] + ", expected lru, clock or lruk");
+                System.exit(1);
+            }
+        }
+        if (poolSize > 0) {
+            BufferManager.createBufferPool(poolSize, policy);
+        }
+    }
+
+    /**
+     * Number of workers of the external sorts and of the randomized optimizer,
+     * * 1 by default to run on the calling thread
+     **/
+    private static void configureWorkers(String[] args) {
+        if (args.length > 7) {
+            int numWorkers = Integer.parseInt(args[7]);
+            Sort.setParallelism(numWorkers);
+            RandomOptimizer.setParallelism(numWorkers);
+        }
+    }
+
+    /**
+     * Whether to enumerate the join orders, the default when the query has few enough
+     * * tables, or to search them randomly. The randomized search uses two-phase
+     * * optimization unless iterative improvement or simulated annealing is asked for,
+     * * within the time budget given in milliseconds if any.
+     **/
+    private static boolean useDPOptimizer(SQLQuery sqlquery, String[] args) {
+        if (args.length > 9) {
+            RandomOptimizer.setTimeBudget(Long.parseLong(args[9]));
+        }
+        if (args.length > 8) {
+            String optimizer = args[8];
+            if (optimizer.equalsIgnoreCase("dp")) {
+                return true;
+            } else if (optimizer.equalsIgnoreCase("ii")) {
+                RandomOptimizer.setStrategy(RandomOptimizer.ITERATIVE_IMPROVEMENT);
+            } else if (optimizer.equalsIgnoreCase("sa")) {
+                RandomOptimizer.setStrategy(RandomOptimizer.SIMULATED_ANNEALING);
+            } else if (optimizer.equalsIgnoreCase("2po")) {
+                RandomOptimizer.setStrategy(RandomOptimizer.TWO_PHASE);
+            } else if (!optimizer.equalsIgnoreCase("random")) {
+                System.out.println("Unknown optimizer " + optimizer + ", expected dp, random, ii, sa or 2po");
+                System.exit(1);
+            }
+            return false;
+        }
+        return DPOptimizer.canOptimize(sqlquery);
+    }
+
     /**
      * Run optimiser and get the final query plan as an Operator
      **/
-    public static Operator getQueryPlan(SQLQuery sqlquery) {
+    public static Operator getQueryPlan(SQLQuery sqlquery, boolean useDP) {
         Operator root = null;
 
-        RandomOptimizer optimizer = new RandomOptimizer(sqlquery);
-        Operator planroot = optimizer.getOptimizedPlan();
+        Operator planroot;
+        if (useDP) {
+            planroot = new DPOptimizer(sqlquery).getOptimizedPlan();
+        } else {
+            planroot = new RandomOptimizer(sqlquery).getOptimizedPlan();
+        }
 
         if (planroot == null) {
             System.out.println("DPOptimizer: query plan is null");
@@ -189,6 +267,11 @@ public class QueryMain {
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime) / 1000.0;
         System.out.println("Execution time = " + executiontime);
+        if (BufferManager.hasBufferPool()) {
+            System.out.printf("Buffer pool: %d hits, %d misses, %d writes, hit ratio = %.3f\n",
+                    BufferManager.getNumHits(), BufferManager.getNumMisses(),
+                    BufferManager.getNumWrites(), BufferManager.getHitRatio());
+        }
         return executiontime;
     }
 
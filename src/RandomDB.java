@@ -1,3 +1,5 @@
+import qp.optimizer.ColumnStatistics;
+import qp.optimizer.TableStatistics;
 import qp.utils.Attribute;
 import qp.utils.Schema;
 
@@ -117,17 +119,26 @@ public class RandomDB {
             outmd.writeObject(schema);
             outmd.close();
 
+            /** values of each column, for their distributions **/
+            ArrayList<ArrayList<Object>> values = new ArrayList<>();
+            for (int j = 0; j < numCol; ++j) {
+                values.add(new ArrayList<>());
+            }
+
             for (i = 0; i < numtuple; ++i) {
                 for (int j = 0; j < numCol; ++j) {
                     if (datatype[j].equals("STRING")) {
                         String temp = rdb.randString(range[j]);
                         outtbl.print(temp + "\t");
+                        values.get(j).add(temp);
                     } else if (datatype[j].equals("FLOAT")) {
                         float value = range[j] * random.nextFloat();
                         outtbl.print(value + "\t");
+                        values.get(j).add(value);
                     } else if (datatype[j].equals("TIME")) {
                         Time time = rdb.randomTime(range[j]);
                         outtbl.print(time + "\t");
+                        values.get(j).add(time.toString());
                     } else if (datatype[j].equals("INTEGER")) {
                         if (keytype[j].equals("PK")) {
                             int numb = random.nextInt(range[0]);
@@ -136,9 +147,11 @@ public class RandomDB {
                             }
                             pk[numb] = true;
                             outtbl.print(numb + "\t");
+                            values.get(j).add(numb);
                         } else {
                             int value = random.nextInt(range[j]);
                             outtbl.print(value + "\t");
+                            values.get(j).add(value);
                             if (keytype[j].equals("FK")) {
                                 fk.get(j).add(value);
                             }
@@ -175,6 +188,15 @@ public class RandomDB {
                     }
                 }
             }
+
+            /** most common values and equi-depth histogram of each column **/
+            outstat.println();
+            for (i = 0; i < numCol; ++i) {
+                if (!values.get(i).isEmpty()) {
+                    ColumnStatistics column = ColumnStatistics.build(values.get(i), ColumnStatistics.DEFAULT_MCVS, ColumnStatistics.DEFAULT_BUCKETS);
+                    TableStatistics.writeColumn(outstat, i, column);
+                }
+            }
             outstat.close();
             in.close();
         } catch (IOException io) {
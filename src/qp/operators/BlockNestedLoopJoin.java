@@ -2,11 +2,17 @@ package qp.operators;
 
 /**
  * Block Nested Loop Join algorithm
+ * * With equality conditions, the keys of the right input are collected in a
+ * * Bloom filter while it is materialized, and the filter is pushed down to the
+ * * scan of the left input, so that most left tuples without a match are never read into a block
  **/
 
+import qp.optimizer.BufferManager;
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
+import qp.utils.PageCodec;
 import qp.utils.Tuple;
 
 import java.io.*;
@@ -18,11 +24,13 @@ public class BlockNestedLoopJoin extends Join {
     int batchSize;                  // Number of tuples per out batch
     ArrayList<Integer> leftIndex;   // Indices of the join attributes in left table
     ArrayList<Integer> rightIndex;  // Indices of the join attributes in right table
+    ArrayList<Integer> exprTypes;   // Comparison operator of each join condition
     String rfName;                  // The file name where the right table is materialized
     Batch outBatch;                 // Buffer page for output
     ArrayList<Batch> leftBlock;     // Buffer block for left input stream
     Batch rightBatch;               // Buffer page for right input stream
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    DataInputStream in;             // File pointer to the right hand materialized file
+    PageCodec codec;                // Encodes the pages of the materialized file
 
     int leftBlockCurs;              // Cursor for left side block
     int rightCurs;                  // Cursor for right side buffer
@@ -58,11 +66,13 @@ public class BlockNestedLoopJoin extends Join {
         /** find indices attributes of join conditions **/
         leftIndex = new ArrayList<>();
         rightIndex = new ArrayList<>();
+        exprTypes = new ArrayList<>();
         for (Condition con : conditionList) {
             Attribute leftAttr = con.getLhs();
             Attribute rightAttr = (Attribute) con.getRhs();
             leftIndex.add(left.getSchema().indexOf(leftAttr));
             rightIndex.add(right.getSchema().indexOf(rightAttr));
+            exprTypes.add(con.getExprType());
         }
         Batch rightPage;
 
@@ -89,10 +99,23 @@ public class BlockNestedLoopJoin extends Join {
          **/
         fileNum++;
         rfName = String.format("BNLJtemp-%s-%d", uuid, fileNum);
+
+        /** The keys of the right tuples are collected in a Bloom filter while they
+         ** are materialized, and the filter is pushed down to the left input
+         **/
+        ArrayList<Attribute> leftKeys = equalityKeys(true);
+        Scan target = bloomTarget(left, leftKeys);
+        BloomFilter filter = target == null ? null : new BloomFilter(estimateTuples(right));
+        int[] rightKeys = columnsOf(right.getSchema(), equalityKeys(false));
         try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfName));
+            codec = new PageCodec(right.getSchema());
+            DataOutputStream out = new DataOutputStream(BufferManager.openOutputStream(rfName));
+            codec.writeHeader(out);
             while ((rightPage = right.next()) != null) {
-                out.writeObject(rightPage);
+                codec.writePage(out, rightPage);
+                if (filter != null) {
+                    filter.addAll(rightPage, rightKeys);
+                }
             }
             out.close();
         } catch (IOException io) {
@@ -103,6 +126,9 @@ public class BlockNestedLoopJoin extends Join {
         if (!right.close())
             return false;
 
+        if (target != null) {
+            target.setBloomFilter(this, filter, leftKeys);
+        }
         return left.open();
     }
 
@@ -132,7 +158,7 @@ public class BlockNestedLoopJoin extends Join {
             while (!eosRight) {
                 try {
                     if (leftBlockCurs == 0 && rightCurs == 0 && leftCurs == 0) {
-                        rightBatch = (Batch) in.readObject();
+                        rightBatch = codec.readPage(in);
                     }
 
                     for (i = leftBlockCurs; i < leftBlock.size(); ++i) {
@@ -143,7 +169,7 @@ public class BlockNestedLoopJoin extends Join {
                             Tuple leftTuple = leftBatch.get(j);
                             for (k = rightCurs; k < rightBatch.size(); ++k) {
                                 Tuple rightTuple = rightBatch.get(k);
-                                if (leftTuple.checkJoin(rightTuple, leftIndex, rightIndex)) {
+                                if (leftTuple.checkJoin(rightTuple, leftIndex, rightIndex, exprTypes)) {
                                     Tuple outTuple = leftTuple.joinWith(rightTuple);
                                     outBatch.add(outTuple);
                                     numOfTuplesWrite++;
@@ -179,9 +205,6 @@ public class BlockNestedLoopJoin extends Join {
                         System.err.println("BlockNestedLoopJoin: Error in reading temporary file");
                     }
                     eosRight = true;
-                } catch (ClassNotFoundException c) {
-                    System.err.println("BlockNestedLoopJoin: Error in deserializing temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.err.println("BlockNestedLoopJoin: Error in reading temporary file");
                     System.exit(1);
@@ -194,7 +217,7 @@ public class BlockNestedLoopJoin extends Join {
 
     private void fetchLeftBlock() {
         leftBlock = new ArrayList<>();
-        for (int b = 0; b < getNumBuff() - 2; b++) {
+        for (int b = 0; b < Math.max(1, getNumBuff() - 2); b++) {
             Batch leftBatch = left.next();
             leftBlock.add(leftBatch);
             if (leftBatch == null) break;
@@ -204,7 +227,8 @@ public class BlockNestedLoopJoin extends Join {
          ** scanning of right table
          **/
         try {
-            in = new ObjectInputStream(new FileInputStream(rfName));
+            in = new DataInputStream(BufferManager.openInputStream(rfName));
+            PageCodec.readHeader(in);
             eosRight = false;
         } catch (IOException io) {
             System.err.println("BlockNestedLoopJoin:error in reading the file");
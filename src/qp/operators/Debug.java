@@ -95,6 +95,9 @@ public class Debug {
                 case JoinType.HASHJOIN:
                     System.out.print("HashJoin(");
                     break;
+                case JoinType.INDEXNESTED:
+                    System.out.print("IndexNested(");
+                    break;
             }
             PPrint(((Join) node).getLeft());
             System.out.print("  [");
@@ -107,7 +110,14 @@ public class Debug {
             System.out.print("Select(");
             PPrint(((Select) node).getBase());
             System.out.print("  '");
-            PPrint(((Select) node).getCondition());
+            boolean first = true;
+            for (Condition con : ((Select) node).getConditionList()) {
+                if (!first) {
+                    System.out.print(" AND ");
+                }
+                PPrint(con);
+                first = false;
+            }
             System.out.print(")");
 
         } else if (optype == OpType.PROJECT) {
@@ -115,6 +125,50 @@ public class Debug {
             PPrint(((Project) node).getBase());
             System.out.print(")");
 
+        } else if (optype == OpType.DISTINCT) {
+            if (((Distinct) node).getDistinctType() == Distinct.HASHBASED) {
+                System.out.print("HashDistinct(");
+            } else {
+                System.out.print("SortDistinct(");
+            }
+            PPrint(((Distinct) node).getBase());
+            System.out.print(")");
+
+        } else if (optype == OpType.GROUPBY) {
+            if (((GroupBy) node).getGroupByType() == GroupBy.HASHBASED) {
+                System.out.print("HashGroupBy(");
+            } else {
+                System.out.print("SortGroupBy(");
+            }
+            PPrint(((GroupBy) node).getBase());
+            System.out.print(")");
+
+        } else if (optype == OpType.ORDERBY) {
+            if (((OrderBy) node).getLimit() >= 0) {
+                System.out.print("TopN(");
+            } else {
+                System.out.print("OrderBy(");
+            }
+            PPrint(((OrderBy) node).getBase());
+            System.out.print(")");
+
+        } else if (optype == OpType.LIMIT) {
+            System.out.print("Limit(");
+            PPrint(((Limit) node).getBase());
+            System.out.print(")");
+
+        } else if (optype == OpType.SCAN && node instanceof IndexScan) {
+            System.out.print("IndexScan(" + ((Scan) node).getTabName() + "  '");
+            boolean first = true;
+            for (Condition con : ((IndexScan) node).getConditionList()) {
+                if (!first) {
+                    System.out.print(" AND ");
+                }
+                PPrint(con);
+                first = false;
+            }
+            System.out.print(")");
+
         } else if (optype == OpType.SCAN) {
             System.out.print(((Scan) node).getTabName());
         }
@@ -125,7 +179,7 @@ public class Debug {
      * print a tuple
      **/
     public static void PPrint(Tuple t) {
-        for (int i = 0; i < t.data().size(); i++) {
+        for (int i = 0; i < t.getNumCols(); i++) {
             Object data = t.dataAt(i);
             if (data instanceof Integer) {
                 System.out.print((Integer) data + "\t");
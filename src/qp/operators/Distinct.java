@@ -5,16 +5,34 @@
 package qp.operators;
 
 import qp.utils.*;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 
+/**
+ * Removes the duplicate tuples either by sorting them, or by hashing them.
+ * The hash based Distinct keeps the distinct tuples seen in a hash table of
+ * (B - 1) pages and outputs each tuple the first time it is seen, so the order
+ * of the input is kept. Once the table is full, the tuples which are not in it
+ * are partitioned into (B - 1) temporary files, and every partition is made
+ * distinct in turn, partitioning it again with another hash function if needed.
+ * Under an ORDER BY the sort based Distinct is used, sorting on the ORDER BY
+ * attributes in its direction first so that the order of the query is kept.
+ */
 public class Distinct extends Operator {
 
+    public static final int SORTBASED = 0;  // Sort the tuples and drop adjacent duplicates
+    public static final int HASHBASED = 1;  // Drop the tuples already in a hash table
+
     ArrayList<Attribute> attributes;
     ArrayList<Integer> attributeIndexes;
     Operator base;
     String tabname;
     int numOfBuffer;
     int batchsize;
+    int distinctType = SORTBASED;           // Algorithm used, chosen by the plan cost
+    ArrayList<Attribute> orderAttributes = new ArrayList<>();   // Attributes of the ORDER BY below, none if any order
+    boolean isAsc = true;                   // Direction of the ORDER BY
 
     boolean eos;     // Indicate whether end of stream is reached or not
     Batch inbatch;   // This is the current input buffer
@@ -23,6 +41,15 @@ public class Distinct extends Operator {
 
     Sort sortBase;
 
+    /** Hash based Distinct **/
+    HashMap<Integer, ArrayList<Tuple>> hashTable;   // Distinct tuples by hash of their attributes
+    int tableSize;                          // Number of tuples in the hash table
+    int capacity;                           // Number of tuples that fit into (B - 1) buffers
+    HashPartitioner partitioner;            // Partitions of the tuples which did not fit
+    int level;                              // Partitioning level of the input being read, 0 for the base operator
+    boolean eosBase;                        // Whether the base operator is exhausted
+    TupleReader reader;                     // Reader of the partition being made distinct
+
     /**
      * Constructor for Distinct operator.
      * @param numOfBuffer The number of buffers available.
@@ -54,6 +81,36 @@ public class Distinct extends Operator {
         this.base = base;
     }
 
+    public int getDistinctType() {
+        return distinctType;
+    }
+
+    public void setDistinctType(int type) {
+        this.distinctType = type;
+    }
+
+    public ArrayList<Attribute> getOrderAttributes() {
+        return orderAttributes;
+    }
+
+    /**
+     * Sets the ORDER BY of the query, whose order the output has to keep
+     **/
+    public void setOrder(ArrayList<Attribute> orderAttributes, boolean isAsc) {
+        this.orderAttributes = orderAttributes;
+        this.isAsc = isAsc;
+    }
+
+    /**
+     * The attributes compared, all the attributes if none were given
+     **/
+    public ArrayList<Attribute> getDistinctAttributes() {
+        if (!attributes.isEmpty()) {
+            return attributes;
+        }
+        return schema.getAttList();
+    }
+
     /**
      * Opens the connection to the base operator
      **/
@@ -65,21 +122,50 @@ public class Distinct extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
-        for (Attribute attribute : attributes) {
+        attributeIndexes = new ArrayList<>();
+        for (Attribute attribute : getDistinctAttributes()) {
             Integer idx = schema.indexOf(attribute);
             this.attributeIndexes.add(idx);
         }
 
-        sortBase = new Sort(base, numOfBuffer, attributes, true, true);
+        if (distinctType == HASHBASED) {
+            return openHash();
+        }
+
+        sortBase = new Sort(base, numOfBuffer, sortAttributes(), isAsc, true);
         return sortBase.open();
     }
 
+    /**
+     * The ORDER BY attributes still in the tuples, followed by the other distinct attributes
+     **/
+    private ArrayList<Attribute> sortAttributes() {
+        ArrayList<Attribute> distinct = getDistinctAttributes();
+        ArrayList<Attribute> sortAttributes = new ArrayList<>();
+        for (Attribute attribute : orderAttributes) {
+            if (!distinct.contains(attribute)) {
+                break;
+            }
+            sortAttributes.add(attribute);
+        }
+        for (Attribute attribute : distinct) {
+            if (!sortAttributes.contains(attribute)) {
+                sortAttributes.add(attribute);
+            }
+        }
+        return sortAttributes;
+    }
+
     /**
      * returns a batch of tuples that satisfies the
      * * condition specified on the tuples coming from base operator
      * * NOTE: This operation is performed on the fly
      **/
     public Batch next() {
+        if (distinctType == HASHBASED) {
+            return nextHash();
+        }
+
         if (eos) {
             close();
             return null;
@@ -116,9 +202,136 @@ public class Distinct extends Operator {
      * Close the operator
      */
     public boolean close() {
+        if (distinctType == HASHBASED) {
+            closeHash();
+            return base.close();
+        }
         return sortBase.close();
     }
 
+    private boolean openHash() {
+        /** one buffer for input, the rest hold the hash table **/
+        capacity = Math.max(1, numOfBuffer - 1) * Math.max(1, batchsize);
+        partitioner = new HashPartitioner("DST", Math.max(2, numOfBuffer - 1), batchsize, schema);
+        hashTable = new HashMap<>();
+        tableSize = 0;
+        level = 0;
+        eosBase = false;
+        inbatch = null;
+        reader = null;
+        return base.open();
+    }
+
+    /**
+     * Outputs the tuples not seen before, moving on to the next partition
+     * * once the current input is exhausted
+     **/
+    private Batch nextHash() {
+        if (eos) {
+            close();
+            return null;
+        }
+
+        outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            Tuple t = nextInput();
+            if (t == null) {
+                if (!nextPartition()) {
+                    eos = true;
+                    break;
+                }
+                continue;
+            }
+            if (insert(t)) {
+                outbatch.add(t);
+            }
+        }
+
+        if (outbatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Returns the next tuple of the current input, null once it is exhausted
+     **/
+    private Tuple nextInput() {
+        if (reader != null) {
+            return reader.isEOF() ? null : reader.next();
+        }
+        while (!eosBase && (inbatch == null || start >= inbatch.size())) {
+            inbatch = base.next();
+            start = 0;
+            if (inbatch == null) {
+                eosBase = true;
+            }
+        }
+        return eosBase ? null : inbatch.get(start++);
+    }
+
+    /**
+     * Adds the tuple to the hash table if it was not seen before. When the table
+     * * is full the tuple is spilled to its partition instead.
+     * @return true if the tuple is new and was added to the table.
+     */
+    private boolean insert(Tuple t) {
+        int hash = HashPartitioner.keyHash(t, attributeIndexes);
+        ArrayList<Tuple> bucket = hashTable.get(hash);
+        if (bucket != null) {
+            for (Tuple seen : bucket) {
+                if (t.checkJoin(seen, attributeIndexes, attributeIndexes)) {
+                    return false;
+                }
+            }
+        }
+        if (tableSize >= capacity && level < HashPartitioner.MAX_DEPTH) {
+            partitioner.write(0, t, hash, level);
+            return false;
+        }
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            hashTable.put(hash, bucket);
+        }
+        bucket.add(t);
+        tableSize++;
+        return true;
+    }
+
+    /**
+     * Ends the current input and starts reading the next partition with an empty table
+     * @return false if there is no partition left.
+     */
+    private boolean nextPartition() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        hashTable.clear();
+        tableSize = 0;
+
+        HashPartitioner.Partition partition = partitioner.nextPartition();
+        if (partition == null) {
+            return false;
+        }
+        level = partition.getLevel();
+        reader = new TupleReader(partition.getFile(0), batchsize);
+        reader.open();
+        return true;
+    }
+
+    private void closeHash() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (partitioner != null) {
+            partitioner.close();
+        }
+        hashTable = null;
+    }
+
     public Object clone() {
         Operator newbase = (Operator) base.clone();
         ArrayList<Attribute> newattr = new ArrayList<>();
@@ -126,6 +339,11 @@ public class Distinct extends Operator {
             newattr.add((Attribute) attributes.get(i).clone());
         Distinct newDistinct = new Distinct(newbase, numOfBuffer, newattr, tabname);
         newDistinct.setSchema((Schema) newbase.getSchema().clone());
+        newDistinct.setDistinctType(distinctType);
+        ArrayList<Attribute> neworder = new ArrayList<>();
+        for (Attribute attribute : orderAttributes)
+            neworder.add((Attribute) attribute.clone());
+        newDistinct.setOrder(neworder, isAsc);
         return newDistinct;
     }
 }
@@ -4,21 +4,91 @@
 
 package qp.operators;
 
-import qp.optimizer.BufferManager;
 import qp.utils.*;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 
-public class GroupBy extends Sort {
+/**
+ * Groups the tuples on the group by attributes and computes the MAX, MIN, SUM,
+ * COUNT and AVG aggregates of every group. The output tuples hold the group by
+ * attributes followed by the aggregates.
+ * * The hash based GroupBy keeps one accumulator per group in a hash table of
+ * * (B - 1) pages. Once the table is full, the tuples of the groups which are not
+ * * in it are partitioned into (B - 1) temporary files, and every partition is
+ * * aggregated in turn, partitioning it again with another hash function if needed.
+ * * The sort based GroupBy sorts the tuples on the group by attributes and
+ * * aggregates every run of adjacent tuples of the same group.
+ */
+public class GroupBy extends Operator {
+
+    public static final int SORTBASED = 0;  // Sort the tuples and aggregate adjacent groups
+    public static final int HASHBASED = 1;  // Aggregate the groups in a hash table
+
+    Operator base;
+    int numOfBuff;
+    ArrayList<Attribute> attributes;        // Attributes to group by
+    ArrayList<Attribute> aggregates;        // Aggregates computed for every group
+    int groupByType = HASHBASED;            // Algorithm used, chosen by the plan cost
+    int batchsize;                          // Number of output tuples per page
+    int inbatchsize;                        // Number of input tuples per page
+
+    ArrayList<Integer> groupIndexes;        // Index of the group by attributes in the input
+    int[] aggIndexes;                       // Index of the aggregated attributes in the input
+    int[] aggFunctions;                     // Aggregate function of each aggregate
+    int[] aggInTypes;                       // Type of each aggregated attribute
+    int[] outTypes;                         // Types of the output tuples
+
+    boolean eos;     // Indicate whether end of stream is reached or not
+    Batch inbatch;   // This is the current input buffer
+    Batch outbatch;  // This is the current output buffer
+    int start;       // Cursor position in the input buffer
+
+    /** Sort based GroupBy **/
+    Sort sortBase;
+    Group current;                          // Group of the last tuples read
+
+    /** Hash based GroupBy **/
+    HashMap<Integer, ArrayList<Group>> hashTable;   // Groups by hash of their group by attributes
+    ArrayList<Group> groups;                // Groups of the hash table, in the order they were created
+    int outCursor;                          // Next group to output, -1 while the input is aggregated
+    int capacity;                           // Number of groups that fit into (B - 1) buffers
+    HashPartitioner partitioner;            // Partitions of the tuples which did not fit
+    int level;                              // Partitioning level of the input being read, 0 for the base operator
+    boolean eosBase;                        // Whether the base operator is exhausted
+    TupleReader reader;                     // Reader of the partition being aggregated
+
+    /**
+     * Accumulators of a group
+     **/
+    static class Group {
+        final Tuple first;      // First tuple of the group, holds the group by attributes
+        final long[] counts;    // Number of values aggregated
+        final double[] sums;    // Sum of the INT and REAL values
+        final int[] bests;      // MAX or MIN of the INT values, and of the REAL values as float bits
+        final String[] bestStrings; // MAX or MIN of the STRING values
+
+        Group(Tuple first, int numAggregates) {
+            this.first = first;
+            counts = new long[numAggregates];
+            sums = new double[numAggregates];
+            bests = new int[numAggregates];
+            bestStrings = new String[numAggregates];
+        }
+    }
 
     /**
      * Constructor for GroupBy operation.
      * @param numOfBuff The number of buffers available.
      * @param attributeList The attributes to group by.
+     * @param aggregates The aggregates to compute for every group.
      */
-    public GroupBy(Operator base, int numOfBuff, ArrayList<Attribute> attributeList) {
-        super(base, numOfBuff, attributeList);
-        this.optype = OpType.GROUPBY;
+    public GroupBy(Operator base, int numOfBuff, ArrayList<Attribute> attributeList, ArrayList<Attribute> aggregates) {
+        super(OpType.GROUPBY);
+        this.base = base;
+        this.numOfBuff = numOfBuff;
+        this.attributes = attributeList;
+        this.aggregates = aggregates;
     }
 
     public Operator getBase() {
@@ -29,16 +99,354 @@ public class GroupBy extends Sort {
         this.base = base;
     }
 
+    public ArrayList<Attribute> getGroupByAttributes() {
+        return attributes;
+    }
+
+    public ArrayList<Attribute> getAggregates() {
+        return aggregates;
+    }
+
+    public int getGroupByType() {
+        return groupByType;
+    }
+
+    public void setGroupByType(int type) {
+        this.groupByType = type;
+    }
+
+    /**
+     * Resolves the attributes in the input and opens the base operator
+     **/
+    public boolean open() {
+        eos = false;
+        start = 0;
+        inbatch = null;
+        current = null;
+
+        batchsize = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+        Schema baseSchema = base.getSchema();
+        inbatchsize = Math.max(1, Batch.getPageSize() / baseSchema.getTupleSize());
+
+        groupIndexes = new ArrayList<>();
+        for (Attribute attr : attributes) {
+            groupIndexes.add(baseSchema.indexOf(attr));
+        }
+        int numAggregates = aggregates.size();
+        aggIndexes = new int[numAggregates];
+        aggFunctions = new int[numAggregates];
+        aggInTypes = new int[numAggregates];
+        for (int i = 0; i < numAggregates; i++) {
+            Attribute attr = aggregates.get(i);
+            aggIndexes[i] = baseSchema.indexOf(attr.getBaseAttribute());
+            aggFunctions[i] = attr.getAggType();
+            aggInTypes[i] = baseSchema.typeOf(aggIndexes[i]) == Attribute.TIME ? Attribute.STRING : baseSchema.typeOf(aggIndexes[i]);
+            if (aggInTypes[i] == Attribute.STRING && (aggFunctions[i] == Attribute.SUM || aggFunctions[i] == Attribute.AVG)) {
+                System.out.println("GroupBy: Cannot compute " + attr + " of a string attribute");
+                System.exit(1);
+            }
+        }
+        outTypes = PageCodec.typesOf(schema);
+
+        if (groupByType == HASHBASED) {
+            return openHash();
+        }
+        sortBase = new Sort(base, numOfBuff, attributes, true, false);
+        return sortBase.open();
+    }
+
+    /**
+     * Returns the next batch of groups
+     **/
+    public Batch next() {
+        if (groupByType == HASHBASED) {
+            return nextHash();
+        }
+        if (eos) {
+            close();
+            return null;
+        }
+
+        outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            Tuple t = nextSorted();
+            if (t == null) {
+                if (current != null) {
+                    outbatch.add(result(current));
+                    current = null;
+                }
+                eos = true;
+                break;
+            }
+            if (current != null && t.checkJoin(current.first, groupIndexes, groupIndexes)) {
+                accumulate(current, t);
+            } else {
+                if (current != null) {
+                    outbatch.add(result(current));
+                }
+                current = newGroup(t);
+            }
+        }
+
+        if (outbatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (groupByType == HASHBASED) {
+            closeHash();
+            return base.close();
+        }
+        return sortBase.close();
+    }
+
+    /**
+     * Returns the next tuple of the sorted input, null once it is exhausted
+     **/
+    private Tuple nextSorted() {
+        while (inbatch == null || start >= inbatch.size()) {
+            inbatch = sortBase.next();
+            start = 0;
+            if (inbatch == null) {
+                return null;
+            }
+        }
+        return inbatch.get(start++);
+    }
+
+    private Group newGroup(Tuple t) {
+        Group group = new Group(t, aggIndexes.length);
+        accumulate(group, t);
+        return group;
+    }
+
+    /**
+     * Adds the values of the tuple to the accumulators of its group
+     **/
+    private void accumulate(Group group, Tuple t) {
+        for (int i = 0; i < aggIndexes.length; i++) {
+            int index = aggIndexes[i];
+            boolean first = group.counts[i] == 0;
+            switch (aggInTypes[i]) {
+                case Attribute.INT: {
+                    int value = t.getInt(index);
+                    group.sums[i] += value;
+                    if (first || (aggFunctions[i] == Attribute.MAX ? value > group.bests[i] : value < group.bests[i])) {
+                        group.bests[i] = value;
+                    }
+                    break;
+                }
+                case Attribute.REAL: {
+                    float value = t.getFloat(index);
+                    group.sums[i] += value;
+                    float best = Float.intBitsToFloat(group.bests[i]);
+                    if (first || (aggFunctions[i] == Attribute.MAX ? value > best : value < best)) {
+                        group.bests[i] = Float.floatToRawIntBits(value);
+                    }
+                    break;
+                }
+                default: {
+                    String value = t.getString(index);
+                    if (value == null) {
+                        continue;
+                    }
+                    String best = group.bestStrings[i];
+                    if (first || (aggFunctions[i] == Attribute.MAX ? value.compareTo(best) > 0 : value.compareTo(best) < 0)) {
+                        group.bestStrings[i] = value;
+                    }
+                }
+            }
+            group.counts[i]++;
+        }
+    }
+
+    /**
+     * Output tuple of the group
+     **/
+    private Tuple result(Group group) {
+        int numGroupBy = groupIndexes.size();
+        int[] values = new int[outTypes.length];
+        String[] strings = new String[outTypes.length];
+        for (int i = 0; i < numGroupBy; i++) {
+            int index = groupIndexes.get(i);
+            if (outTypes[i] == Attribute.STRING) {
+                strings[i] = group.first.getString(index);
+            } else {
+                values[i] = group.first.getInt(index);
+            }
+        }
+        for (int i = 0; i < aggIndexes.length; i++) {
+            int col = numGroupBy + i;
+            switch (aggFunctions[i]) {
+                case Attribute.COUNT:
+                    values[col] = (int) group.counts[i];
+                    break;
+                case Attribute.AVG:
+                    values[col] = Float.floatToRawIntBits(group.counts[i] == 0 ? 0 : (float) (group.sums[i] / group.counts[i]));
+                    break;
+                case Attribute.SUM:
+                    values[col] = aggInTypes[i] == Attribute.INT ? (int) group.sums[i] : Float.floatToRawIntBits((float) group.sums[i]);
+                    break;
+                default:
+                    if (aggInTypes[i] == Attribute.STRING) {
+                        strings[col] = group.bestStrings[i];
+                    } else {
+                        values[col] = group.bests[i];
+                    }
+            }
+        }
+        return new Tuple(outTypes, values, strings);
+    }
+
+    private boolean openHash() {
+        /** one buffer for input, the rest hold the accumulators of the groups **/
+        capacity = Math.max(1, numOfBuff - 1) * batchsize;
+        partitioner = new HashPartitioner("GB", Math.max(2, numOfBuff - 1), inbatchsize, base.getSchema());
+        hashTable = new HashMap<>();
+        groups = new ArrayList<>();
+        outCursor = -1;
+        level = 0;
+        eosBase = false;
+        reader = null;
+        return base.open();
+    }
+
+    /**
+     * Aggregates the whole current input, then outputs its groups and
+     * * moves on to the next partition
+     **/
+    private Batch nextHash() {
+        if (eos) {
+            close();
+            return null;
+        }
+
+        outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (outCursor == -1) {
+                Tuple t;
+                while ((t = nextInput()) != null) {
+                    insert(t);
+                }
+                outCursor = 0;
+            }
+            if (outCursor < groups.size()) {
+                outbatch.add(result(groups.get(outCursor++)));
+                continue;
+            }
+            if (!nextPartition()) {
+                eos = true;
+                break;
+            }
+            outCursor = -1;
+        }
+
+        if (outbatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outbatch;
+    }
+
+    /**
+     * Returns the next tuple of the current input, null once it is exhausted
+     **/
+    private Tuple nextInput() {
+        if (reader != null) {
+            return reader.isEOF() ? null : reader.next();
+        }
+        while (!eosBase && (inbatch == null || start >= inbatch.size())) {
+            inbatch = base.next();
+            start = 0;
+            if (inbatch == null) {
+                eosBase = true;
+            }
+        }
+        return eosBase ? null : inbatch.get(start++);
+    }
+
+    /**
+     * Adds the tuple to its group, creating the group if there is room in the
+     * * hash table and spilling the tuple to its partition otherwise
+     **/
+    private void insert(Tuple t) {
+        int hash = HashPartitioner.keyHash(t, groupIndexes);
+        ArrayList<Group> bucket = hashTable.get(hash);
+        if (bucket != null) {
+            for (Group group : bucket) {
+                if (t.checkJoin(group.first, groupIndexes, groupIndexes)) {
+                    accumulate(group, t);
+                    return;
+                }
+            }
+        }
+        if (groups.size() >= capacity && level < HashPartitioner.MAX_DEPTH) {
+            partitioner.write(0, t, hash, level);
+            return;
+        }
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            hashTable.put(hash, bucket);
+        }
+        Group group = newGroup(t);
+        bucket.add(group);
+        groups.add(group);
+    }
+
+    /**
+     * Ends the current input and starts reading the next partition with an empty table
+     * @return false if there is no partition left.
+     */
+    private boolean nextPartition() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        hashTable.clear();
+        groups.clear();
+
+        HashPartitioner.Partition partition = partitioner.nextPartition();
+        if (partition == null) {
+            return false;
+        }
+        level = partition.getLevel();
+        reader = new TupleReader(partition.getFile(0), inbatchsize);
+        reader.open();
+        return true;
+    }
+
+    private void closeHash() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (partitioner != null) {
+            partitioner.close();
+        }
+        hashTable = null;
+        groups = null;
+    }
+
     public Object clone() {
         Operator newbase = (Operator) base.clone();
-        int numOfBuff = BufferManager.getBuffersPerJoin();
         ArrayList<Attribute> newattr = new ArrayList<>();
         for (Attribute attribute : attributes) {
             newattr.add((Attribute) attribute.clone());
         }
-        GroupBy newGroupBy = new GroupBy(newbase, numOfBuff, newattr);
-        newGroupBy.setSchema((Schema) newbase.getSchema().clone());
+        ArrayList<Attribute> newaggr = new ArrayList<>();
+        for (Attribute attribute : aggregates) {
+            newaggr.add((Attribute) attribute.clone());
+        }
+        GroupBy newGroupBy = new GroupBy(newbase, numOfBuff, newattr, newaggr);
+        newGroupBy.setSchema(newbase.getSchema().groupSchema(newattr, newaggr));
+        newGroupBy.setGroupByType(groupByType);
         return newGroupBy;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,425 @@
+/**
+ * Hash Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.ColumnBatch;
+import qp.utils.Condition;
+import qp.utils.HashPartitioner;
+import qp.utils.Schema;
+import qp.utils.Tuple;
+import qp.utils.TupleReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Grace hash join with a hybrid first pass.
+ * The right input is the build side. If it fits into (B - 2) buffers the hash table
+ * is built in memory and the left input is probed directly from its operator.
+ * Otherwise both inputs are partitioned into (B - 1) temporary files and every pair
+ * of partitions is joined separately, partitioning again with a different hash function
+ * when the build partition is still larger than the available buffers.
+ */
+public class HashJoin extends Join {
+
+    static final int PROBE = 0;             // Input of the partitions holding the left tuples
+    static final int BUILD = 1;             // Input of the partitions holding the right tuples
+
+    int batchSize;                          // Number of tuples per out batch
+    int leftBatchSize;                      // Number of tuples per page of the left input
+    int rightBatchSize;                     // Number of tuples per page of the right input
+    int buildCapacity;                      // Number of build tuples that fit into (B - 2) buffers
+    ArrayList<Integer> leftIndex;           // Indices of the equality join attributes in left table, hashed
+    ArrayList<Integer> rightIndex;          // Indices of the equality join attributes in right table, hashed
+    ArrayList<Integer> condLeftIndex;       // Indices of the attributes of every join condition in left table
+    ArrayList<Integer> condRightIndex;      // Indices of the attributes of every join condition in right table
+    ArrayList<Integer> exprTypes;           // Comparison operator of every join condition
+
+    HashMap<Integer, ArrayList<Tuple>> hashTable;  // Build tuples by hash of their join key, collisions included
+    HashPartitioner partitioner;            // Partitions of both inputs, (B - 1) per pass
+    HashPartitioner.Partition currPartition;    // Partition pair being joined, null if joined in memory
+
+    Batch leftBatch;                        // Buffer page for left input stream (in memory case)
+    ColumnBatch leftColumns;                // Buffer page for left input stream when vectorized (in memory case)
+    int[] leftHashes;                       // Hash of the join key of each selected row of leftColumns
+    int leftCurs;                           // Cursor for left side buffer page
+    boolean eosProbe;                       // Whether the left operator is exhausted (in memory case)
+    TupleReader leftReader;                 // Reader of the current left partition
+    TupleReader rightReader;                // Reader of the current right partition
+    Tuple leftTuple;                        // The left tuple being probed
+    ArrayList<Tuple> matches;               // Build tuples matching the left tuple
+    int matchCurs;                          // Cursor within the matches
+    boolean eos;                            // Whether end of stream is reached
+
+    /**
+     * Constructor for Hash Join operator
+     */
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+    /**
+     * During open finds the index of the join attributes
+     * * Builds the hash table or partitions both inputs
+     * * Opens the connections
+     **/
+    public boolean open() {
+        /** select number of tuples per batch **/
+        batchSize = Batch.getPageSize() / schema.getTupleSize();
+        leftBatchSize = Math.max(1, Batch.getPageSize() / left.getSchema().getTupleSize());
+        rightBatchSize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
+        if (batchSize < 1) {
+            System.err.println("Page Size must be larger than Tuple Size in join operation");
+            return false;
+        }
+
+        /** find indices attributes of join conditions **/
+        leftIndex = new ArrayList<>();
+        rightIndex = new ArrayList<>();
+        condLeftIndex = new ArrayList<>();
+        condRightIndex = new ArrayList<>();
+        exprTypes = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute leftAttr = con.getLhs();
+            Attribute rightAttr = (Attribute) con.getRhs();
+            condLeftIndex.add(left.getSchema().indexOf(leftAttr));
+            condRightIndex.add(right.getSchema().indexOf(rightAttr));
+            exprTypes.add(con.getExprType());
+            if (con.getExprType() == Condition.EQUAL) {
+                leftIndex.add(left.getSchema().indexOf(leftAttr));
+                rightIndex.add(right.getSchema().indexOf(rightAttr));
+            }
+        }
+        if (leftIndex.isEmpty()) {
+            System.err.println("HashJoin: An equality condition is needed to hash the tuples");
+            return false;
+        }
+
+        /** one buffer for input and one for output, the rest hold the hash table **/
+        buildCapacity = Math.max(1, numBuff - 2) * rightBatchSize;
+        partitioner = new HashPartitioner("HJ", Math.max(2, numBuff - 1), new int[]{leftBatchSize, rightBatchSize},
+                new Schema[]{left.getSchema(), right.getSchema()});
+
+        hashTable = new HashMap<>();
+        currPartition = null;
+        leftBatch = null;
+        leftColumns = null;
+        leftCurs = 0;
+        eosProbe = false;
+        leftTuple = null;
+        matches = null;
+        matchCurs = 0;
+        eos = false;
+
+        if (!right.open()) {
+            return false;
+        }
+
+        /** Read the build side until it either ends or overflows the buffers **/
+        ArrayList<Tuple> buffered = new ArrayList<>();
+        Batch rightPage = null;
+        while (buffered.size() <= buildCapacity && (rightPage = right.next()) != null) {
+            buffered.addAll(rightPage.getTuples());
+        }
+
+        if (buffered.size() <= buildCapacity) {
+            /** The whole build side fits in memory, no partitioning is needed **/
+            for (Tuple t : buffered) {
+                insert(t);
+            }
+            if (!right.close()) {
+                return false;
+            }
+            return left.open();
+        }
+
+        /** Partition the build side, starting with the tuples already read **/
+        for (Tuple t : buffered) {
+            partitioner.write(BUILD, t, HashPartitioner.keyHash(t, rightIndex), 0);
+        }
+        buffered = null;
+        while ((rightPage = right.next()) != null) {
+            for (Tuple t : rightPage.getTuples()) {
+                partitioner.write(BUILD, t, HashPartitioner.keyHash(t, rightIndex), 0);
+            }
+        }
+        if (!right.close()) {
+            return false;
+        }
+
+        /** Partition the probe side **/
+        if (!left.open()) {
+            return false;
+        }
+        Batch leftPage;
+        while ((leftPage = left.next()) != null) {
+            for (Tuple t : leftPage.getTuples()) {
+                partitioner.write(PROBE, t, HashPartitioner.keyHash(t, leftIndex), 0);
+            }
+        }
+        left.close();
+
+        partitioner.finish();
+        return true;
+    }
+
+    /**
+     * from input buffers selects the tuples satisfying join condition
+     * * And returns a page of output tuples
+     **/
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+
+        Batch outBatch = new Batch(batchSize);
+        while (!outBatch.isFull()) {
+            if (matches != null && matchCurs < matches.size()) {
+                Tuple rightTuple = matches.get(matchCurs++);
+                if (leftTuple.checkJoin(rightTuple, condLeftIndex, condRightIndex, exprTypes)) {
+                    outBatch.add(leftTuple.joinWith(rightTuple));
+                }
+                continue;
+            }
+
+            if (!nextProbe()) {
+                /** The probe side is exhausted for the current hash table **/
+                if (!nextBuild()) {
+                    eos = true;
+                    break;
+                }
+                continue;
+            }
+        }
+
+        if (outBatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outBatch;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (leftReader != null) {
+            leftReader.close();
+            leftReader = null;
+        }
+        if (rightReader != null) {
+            rightReader.close();
+            rightReader = null;
+        }
+        if (partitioner != null) {
+            partitioner.close();
+        }
+        currPartition = null;
+        hashTable = null;
+        matches = null;
+        leftColumns = null;
+        return true;
+    }
+
+    /**
+     * Moves to the next tuple of the probe side for the current hash table
+     * * and finds the bucket it has to be joined with
+     * @return false if the probe side is exhausted.
+     */
+    private boolean nextProbe() {
+        matchCurs = 0;
+        if (currPartition != null) {
+            if (leftReader.isEOF()) {
+                return false;
+            }
+            leftTuple = leftReader.next();
+            matches = hashTable.get(HashPartitioner.keyHash(leftTuple, leftIndex));
+            return true;
+        }
+        if (vectorized) {
+            return nextProbeColumns();
+        }
+
+        while (leftBatch == null || leftCurs >= leftBatch.size()) {
+            if (eosProbe) {
+                return false;
+            }
+            leftBatch = left.next();
+            leftCurs = 0;
+            if (leftBatch == null) {
+                eosProbe = true;
+                left.close();
+                return false;
+            }
+        }
+        leftTuple = leftBatch.get(leftCurs++);
+        matches = hashTable.get(HashPartitioner.keyHash(leftTuple, leftIndex));
+        return true;
+    }
+
+    /**
+     * Probes the left input a column batch at a time. The hashes of the whole
+     * * batch are computed column by column, and only the rows whose hash is
+     * * in the table are materialized as tuples.
+     */
+    private boolean nextProbeColumns() {
+        while (true) {
+            while (leftColumns == null || leftCurs >= leftColumns.getNumSelected()) {
+                if (eosProbe) {
+                    return false;
+                }
+                leftColumns = left.nextColumns();
+                leftCurs = 0;
+                if (leftColumns == null) {
+                    eosProbe = true;
+                    left.close();
+                    return false;
+                }
+                hashColumns(leftColumns);
+            }
+            int curs = leftCurs++;
+            ArrayList<Tuple> bucket = hashTable.get(leftHashes[curs]);
+            if (bucket != null) {
+                leftTuple = leftColumns.getTuple(leftColumns.getSelection()[curs]);
+                matches = bucket;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Computes into leftHashes the hash of the join key of every selected row,
+     * * the same as HashPartitioner.keyHash computes for a tuple
+     */
+    private void hashColumns(ColumnBatch columns) {
+        int[] sel = columns.getSelection();
+        int n = columns.getNumSelected();
+        if (leftHashes == null || leftHashes.length < n) {
+            leftHashes = new int[Math.max(n, leftBatchSize)];
+        }
+        int[] hashes = leftHashes;
+        for (int k = 0; k < n; k++) {
+            hashes[k] = 1;
+        }
+        for (int index : leftIndex) {
+            switch (columns.typeOf(index)) {
+                case Attribute.INT:
+                    int[] ints = columns.getIntColumn(index);
+                    for (int k = 0; k < n; k++) {
+                        hashes[k] = 31 * hashes[k] + ints[sel[k]];
+                    }
+                    break;
+                case Attribute.REAL:
+                    float[] floats = columns.getFloatColumn(index);
+                    for (int k = 0; k < n; k++) {
+                        hashes[k] = 31 * hashes[k] + Float.floatToRawIntBits(floats[sel[k]]);
+                    }
+                    break;
+                default:
+                    String[] strings = columns.getStringColumn(index);
+                    for (int k = 0; k < n; k++) {
+                        hashes[k] = 31 * hashes[k] + Objects.hashCode(strings[sel[k]]);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Prepares the next hash table to be probed.
+     * Either loads the next chunk of the current build partition,
+     * or moves on to the next pair of partitions.
+     * @return false if there is nothing left to join.
+     */
+    private boolean nextBuild() {
+        matches = null;
+        hashTable.clear();
+
+        /** The build partition did not fit, continue with its next chunk **/
+        if (currPartition != null && !rightReader.isEOF()) {
+            loadChunk();
+            leftReader.close();
+            leftReader = new TupleReader(currPartition.getFile(PROBE), leftBatchSize);
+            leftReader.open();
+            return true;
+        }
+
+        if (currPartition != null) {
+            leftReader.close();
+            rightReader.close();
+            leftReader = null;
+            rightReader = null;
+        }
+
+        /** The partitions with no tuples on either side were dropped when written **/
+        while ((currPartition = partitioner.nextPartition()) != null) {
+            if (currPartition.getNumTuples(BUILD) > buildCapacity && currPartition.getLevel() < HashPartitioner.MAX_DEPTH) {
+                repartition(currPartition);
+                continue;
+            }
+
+            rightReader = new TupleReader(currPartition.getFile(BUILD), rightBatchSize);
+            rightReader.open();
+            loadChunk();
+            leftReader = new TupleReader(currPartition.getFile(PROBE), leftBatchSize);
+            leftReader.open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fills the hash table with as many build tuples as the buffers allow
+     */
+    private void loadChunk() {
+        int loaded = 0;
+        while (loaded < buildCapacity && !rightReader.isEOF()) {
+            insert(rightReader.next());
+            loaded++;
+        }
+    }
+
+    /**
+     * Splits a pair of partitions again using the hash function of the next level,
+     * * the sub-partitions are joined before the remaining partitions of the previous level
+     */
+    private void repartition(HashPartitioner.Partition p) {
+        int level = p.getLevel();
+        TupleReader reader = new TupleReader(p.getFile(BUILD), rightBatchSize);
+        reader.open();
+        while (!reader.isEOF()) {
+            Tuple t = reader.next();
+            partitioner.write(BUILD, t, HashPartitioner.keyHash(t, rightIndex), level);
+        }
+        reader.close();
+
+        reader = new TupleReader(p.getFile(PROBE), leftBatchSize);
+        reader.open();
+        while (!reader.isEOF()) {
+            Tuple t = reader.next();
+            partitioner.write(PROBE, t, HashPartitioner.keyHash(t, leftIndex), level);
+        }
+        reader.close();
+        partitioner.finish();
+    }
+
+    private void insert(Tuple t) {
+        int key = HashPartitioner.keyHash(t, rightIndex);
+        ArrayList<Tuple> bucket = hashTable.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            hashTable.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+}
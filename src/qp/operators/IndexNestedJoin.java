@@ -0,0 +1,189 @@
+/**
+ * Index Nested Loop Join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.util.ArrayList;
+
+/**
+ * For every tuple of the left input, the tuples of the right table with the same
+ * * value of the join attribute are looked up in the B+-tree index of that attribute
+ * * and fetched from the table file by their record id. The right input is never
+ * * scanned, so it must be a base table, possibly under selections which are then
+ * * checked on the tuples fetched, as are the conditions of an index scan. The
+ * * other join conditions are checked on every pair of tuples found.
+ */
+public class IndexNestedJoin extends Join {
+
+    int batchsize;                      // Number of tuples per out batch
+    int probeindex;                     // Index of the attribute of the left table looked up in the index
+    ArrayList<Integer> leftindex;       // Indices of the join attributes in left table
+    ArrayList<Integer> rightindex;      // Indices of the join attributes in right table
+    ArrayList<Integer> exprtypes;       // Comparison operator of each join condition
+    ArrayList<Predicate> innerPredicates;   // Selections of the right table
+    BPlusTree index;                    // Index of the join attribute of the right table
+    TableReader table;                  // Fetches the tuples of the right table
+
+    Batch leftbatch;                    // Buffer page for left input stream
+    int lcurs;                          // Cursor for left side buffer
+    boolean probing;                    // Whether the index cursor is on the matches of the left tuple
+    boolean eosl;                       // Whether end of stream (left table) is reached
+
+    public IndexNestedJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+    /**
+     * The base table of the right input, under any selections,
+     * * null if the right input is not a single table
+     **/
+    public static Scan innerTable(Operator right) {
+        Operator node = right;
+        while (node.getOpType() == OpType.SELECT) {
+            node = ((Select) node).getBase();
+        }
+        return node.getOpType() == OpType.SCAN ? (Scan) node : null;
+    }
+
+    /**
+     * The equality condition of the join whose right attribute has an index,
+     * * null if there is none
+     **/
+    public static Condition indexedCondition(Join join) {
+        Scan inner = innerTable(join.getRight());
+        if (inner == null) {
+            return null;
+        }
+        for (Condition con : join.getConditionList()) {
+            if (con.getExprType() != Condition.EQUAL) {
+                continue;
+            }
+            Attribute rightattr = (Attribute) con.getRhs();
+            if (BPlusTree.hasIndex(inner.getTabName(), rightattr.getColName())) {
+                return con;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the index and the right table file, and the left input
+     **/
+    public boolean open() {
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+
+        Condition indexed = indexedCondition(this);
+        if (indexed == null) {
+            System.out.println("IndexNestedJoin: No index on the join attribute of the right table");
+            return false;
+        }
+        Scan inner = innerTable(right);
+        probeindex = left.getSchema().indexOf(indexed.getLhs());
+
+        leftindex = new ArrayList<>();
+        rightindex = new ArrayList<>();
+        exprtypes = new ArrayList<>();
+        for (Condition con : conditionList) {
+            leftindex.add(left.getSchema().indexOf(con.getLhs()));
+            rightindex.add(right.getSchema().indexOf((Attribute) con.getRhs()));
+            exprtypes.add(con.getExprType());
+        }
+        innerPredicates = new ArrayList<>();
+        for (Operator node = right; node.getOpType() == OpType.SELECT; node = ((Select) node).getBase()) {
+            for (Condition con : ((Select) node).getConditionList()) {
+                innerPredicates.add(Predicate.compile(con, node.getSchema()));
+            }
+        }
+        if (inner instanceof IndexScan) {
+            for (Condition con : ((IndexScan) inner).getConditionList()) {
+                innerPredicates.add(Predicate.compile(con, inner.getSchema()));
+            }
+        }
+
+        Attribute indexedattr = (Attribute) indexed.getRhs();
+        index = new BPlusTree(BPlusTree.indexFile(inner.getTabName(), indexedattr.getColName()));
+        if (!index.open()) {
+            return false;
+        }
+        table = new TableReader(inner.getFileName());
+        if (!table.open(inner.getSchema())) {
+            index.close();
+            return false;
+        }
+
+        leftbatch = null;
+        lcurs = 0;
+        probing = false;
+        eosl = false;
+        return left.open();
+    }
+
+    /**
+     * Looks up the left tuples in the index one after the other and returns
+     * * a page of the joined tuples
+     **/
+    public Batch next() {
+        if (eosl) {
+            return null;
+        }
+        Batch outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (!probing) {
+                if (leftbatch == null || lcurs >= leftbatch.size()) {
+                    leftbatch = left.next();
+                    lcurs = 0;
+                    if (leftbatch == null) {
+                        eosl = true;
+                        break;
+                    }
+                    continue;
+                }
+                index.seek(leftbatch.get(lcurs), probeindex);
+                probing = true;
+            }
+
+            Tuple lefttuple = leftbatch.get(lcurs);
+            if (index.isEOF() || index.compareKey(lefttuple, probeindex) != 0) {
+                probing = false;
+                lcurs++;
+                continue;
+            }
+            Tuple righttuple = table.fetch(index.getPageOffset(), index.getSlot());
+            index.advance();
+            if (satisfiesInner(righttuple) && lefttuple.checkJoin(righttuple, leftindex, rightindex, exprtypes)) {
+                outbatch.add(lefttuple.joinWith(righttuple));
+            }
+        }
+        return outbatch.isEmpty() ? null : outbatch;
+    }
+
+    private boolean satisfiesInner(Tuple tuple) {
+        for (Predicate predicate : innerPredicates) {
+            if (!predicate.test(tuple)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close the operator
+     */
+    public boolean close() {
+        if (index != null) {
+            index.close();
+        }
+        if (table != null) {
+            table.close();
+        }
+        return left.close();
+    }
+
+}
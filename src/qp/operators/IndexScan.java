@@ -0,0 +1,193 @@
+/**
+ * Scans the tuples of a base table selected through an index
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Equality and range conditions on an indexed attribute are answered by the
+ * * B+-tree index of that attribute instead of reading the whole table. The
+ * * entries of the keys in range are read from the leaves, and their record ids
+ * * are sorted by page so that every page holding a matching tuple is read once,
+ * * in the order of the file.
+ */
+public class IndexScan extends Scan {
+
+    Attribute attr;                       // Indexed attribute
+    ArrayList<Condition> conditionList;   // Conditions on the indexed attribute
+    BPlusTree index;                      // Index of the attribute
+    TableReader table;                    // Fetches the tuples of the table
+    long[] offsets;                       // Page offsets of the matching tuples, sorted
+    int[] slots;                          // Positions of the matching tuples in their pages
+    int numMatches;                       // Number of matching tuples
+    int cursor;                           // Next matching tuple to fetch
+
+    public IndexScan(String tabname, Attribute attr, ArrayList<Condition> conditionList, int type) {
+        super(tabname, type);
+        this.attr = attr;
+        this.conditionList = conditionList;
+    }
+
+    public Attribute getAttribute() {
+        return attr;
+    }
+
+    public ArrayList<Condition> getConditionList() {
+        return conditionList;
+    }
+
+    /**
+     * Whether the select condition can be answered by an index on its attribute
+     **/
+    public static boolean isIndexable(Condition con) {
+        return con.getExprType() != Condition.NOTEQUAL && con.getRhs() instanceof String;
+    }
+
+    /**
+     * Reads the record ids of the tuples satisfying the conditions from the index
+     **/
+    public boolean open() {
+        batchsize = Batch.getPageSize() / schema.getTupleSize();
+        eos = false;
+
+        /** Constants of the conditions, as one column tuples compared with the keys **/
+        int datatype = schema.typeOf(attr);
+        Tuple[] bounds = new Tuple[conditionList.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            String constant = (String) conditionList.get(i).getRhs();
+            try {
+                bounds[i] = parseConstant(constant, datatype);
+            } catch (NumberFormatException e) {
+                System.out.println("IndexScan: Malformed constant " + constant);
+                return false;
+            }
+        }
+
+        index = new BPlusTree(BPlusTree.indexFile(tabname, attr.getColName()));
+        if (!index.open()) {
+            return false;
+        }
+
+        /** Starts from the largest lower bound, or the first key if there is none **/
+        Tuple lowest = null;
+        for (int i = 0; i < bounds.length; i++) {
+            int exprtype = conditionList.get(i).getExprType();
+            boolean isLowerBound = exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE || exprtype == Condition.EQUAL;
+            if (isLowerBound && (lowest == null || Tuple.compareTuples(bounds[i], lowest, 0) > 0)) {
+                lowest = bounds[i];
+            }
+        }
+        if (lowest == null) {
+            index.seekFirst();
+        } else {
+            index.seek(lowest, 0);
+        }
+
+        offsets = new long[16];
+        slots = new int[16];
+        numMatches = 0;
+        while (!index.isEOF()) {
+            boolean matches = true;
+            boolean pastEnd = false;
+            for (int i = 0; i < bounds.length; i++) {
+                int exprtype = conditionList.get(i).getExprType();
+                if (!index.keySatisfies(bounds[i], 0, exprtype)) {
+                    matches = false;
+                    /** The keys only grow, so an upper bound failing fails for all the next keys **/
+                    pastEnd |= exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE || exprtype == Condition.EQUAL;
+                }
+            }
+            if (pastEnd) {
+                break;
+            }
+            if (matches) {
+                if (numMatches == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * numMatches);
+                    slots = Arrays.copyOf(slots, 2 * numMatches);
+                }
+                offsets[numMatches] = index.getPageOffset();
+                slots[numMatches] = index.getSlot();
+                numMatches++;
+            }
+            index.advance();
+        }
+        index.close();
+        sortRecordIds();
+        cursor = 0;
+
+        table = new TableReader(filename);
+        return table.open(schema);
+    }
+
+    /**
+     * Sorts the record ids by page offset, then by position in the page
+     **/
+    private void sortRecordIds() {
+        Integer[] order = new Integer[numMatches];
+        for (int i = 0; i < numMatches; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> offsets[a] != offsets[b] ? Long.compare(offsets[a], offsets[b]) : Integer.compare(slots[a], slots[b]));
+        long[] sortedOffsets = new long[numMatches];
+        int[] sortedSlots = new int[numMatches];
+        for (int i = 0; i < numMatches; i++) {
+            sortedOffsets[i] = offsets[order[i]];
+            sortedSlots[i] = slots[order[i]];
+        }
+        offsets = sortedOffsets;
+        slots = sortedSlots;
+    }
+
+    /**
+     * Fetches the next matching tuples
+     **/
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch tuples = new Batch(batchsize);
+        while (!tuples.isFull() && cursor < numMatches) {
+            tuples.add(table.fetch(offsets[cursor], slots[cursor]));
+            cursor++;
+        }
+        if (cursor >= numMatches) {
+            eos = true;
+        }
+        return tuples;
+    }
+
+    /**
+     * Index scans hand out whole tuples, the column batches are built from them
+     **/
+    public ColumnBatch nextColumns() {
+        Batch tuples = next();
+        return tuples == null ? null : ColumnBatch.fromBatch(tuples, schema);
+    }
+
+    public boolean close() {
+        offsets = null;
+        slots = null;
+        if (table != null) {
+            table.close();
+            table = null;
+        }
+        return true;
+    }
+
+    public Object clone() {
+        ArrayList<Condition> newcondlist = new ArrayList<>();
+        for (Condition cond : conditionList) {
+            newcondlist.add((Condition) cond.clone());
+        }
+        IndexScan newscan = new IndexScan(tabname, (Attribute) attr.clone(), newcondlist, optype);
+        newscan.setSchema((Schema) schema.clone());
+        return newscan;
+    }
+
+}
@@ -4,6 +4,8 @@
 
 package qp.operators;
 
+import qp.optimizer.PlanCost;
+import qp.utils.Attribute;
 import qp.utils.Condition;
 import qp.utils.Schema;
 
@@ -11,6 +13,8 @@ import java.util.ArrayList;
 
 public class Join extends Operator {
 
+    static boolean bloomFilters = true;  // Whether the joins push Bloom filters of their keys down to the other input
+
     Operator left;                       // Left child
     Operator right;                      // Right child
     ArrayList<Condition> conditionList;  // List of join conditions
@@ -40,6 +44,20 @@ public class Join extends Operator {
         this.conditionList = conditionList;
     }
 
+    /**
+     * The block nested loop and sort merge joins build a Bloom filter on the keys
+     * * of the equality conditions of one input, and push it down to the scan of
+     * * the table of these keys in the other input, which then drops the tuples
+     * * that have no match before they reach the join
+     **/
+    public static void setBloomFilters(boolean enabled) {
+        bloomFilters = enabled;
+    }
+
+    public static boolean isBloomFilters() {
+        return bloomFilters;
+    }
+
     public int getNumBuff() {
         return numBuff;
     }
@@ -102,6 +120,109 @@ public class Join extends Operator {
         conditionList.add(condition);
     }
 
+    /**
+     * Whether the join algorithm can evaluate the conditions of this join.
+     * * The hash join needs an equality condition, and the sort merge join
+     * * an equality or a range condition, the nested loop joins take any condition.
+     * * The index nested loop join needs an equality condition on an indexed
+     * * attribute of a base table on the right.
+     **/
+    public boolean canUseJoinType(int type) {
+        if (type == JoinType.NESTEDJOIN || type == JoinType.BLOCKNESTED) {
+            return true;
+        }
+        if (type == JoinType.INDEXNESTED) {
+            return IndexNestedJoin.indexedCondition(this) != null;
+        }
+        for (Condition con : conditionList) {
+            int exprtype = con.getExprType();
+            if (exprtype == Condition.EQUAL) {
+                return true;
+            }
+            if (type == JoinType.SORTMERGE && exprtype != Condition.NOTEQUAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Attributes of one side of the equality conditions whose attributes have the
+     * * same type on both sides, the left attributes if leftSide is true
+     **/
+    ArrayList<Attribute> equalityKeys(boolean leftSide) {
+        ArrayList<Attribute> keys = new ArrayList<>();
+        for (Condition con : conditionList) {
+            Attribute rightattr = (Attribute) con.getRhs();
+            if (con.getExprType() == Condition.EQUAL
+                    && left.getSchema().typeOf(con.getLhs()) == right.getSchema().typeOf(rightattr)) {
+                keys.add(leftSide ? con.getLhs() : rightattr);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The scan of the input reading the table of all the keys, through selections,
+     * * projections and joins, to which a Bloom filter on the keys can be pushed.
+     * * A tuple of that table whose key did not pass the filter has no match, nor
+     * * have the tuples built from it. Null if there is none or if the filters are off.
+     **/
+    static Scan bloomTarget(Operator input, ArrayList<Attribute> keys) {
+        if (!bloomFilters || keys.isEmpty()) {
+            return null;
+        }
+        Operator node = input;
+        while (hasAll(node, keys)) {
+            switch (node.getOpType()) {
+                case OpType.SELECT:
+                    node = ((Select) node).getBase();
+                    break;
+                case OpType.PROJECT:
+                    node = ((Project) node).getBase();
+                    break;
+                case OpType.JOIN:
+                    Join join = (Join) node;
+                    node = hasAll(join.getLeft(), keys) ? join.getLeft() : join.getRight();
+                    break;
+                case OpType.SCAN:
+                    return node instanceof IndexScan ? null : (Scan) node;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasAll(Operator node, ArrayList<Attribute> attrs) {
+        for (Attribute attr : attrs) {
+            if (node.getSchema().indexOf(attr) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Columns of the attributes in the schema
+     **/
+    static int[] columnsOf(Schema schema, ArrayList<Attribute> attrs) {
+        int[] columns = new int[attrs.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = schema.indexOf(attrs.get(i));
+        }
+        return columns;
+    }
+
+    /**
+     * Estimated number of tuples of an input, from the statistics of the tables
+     **/
+    static long estimateTuples(Operator input) {
+        PlanCost plancost = new PlanCost();
+        plancost.getCost(input);
+        return plancost.getNumTuples();
+    }
+
     public Object clone() {
         Operator newleft = (Operator) left.clone();
         Operator newright = (Operator) right.clone();
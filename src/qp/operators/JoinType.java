@@ -12,8 +12,9 @@ public class JoinType {
     public static final int BLOCKNESTED = 1;
     public static final int SORTMERGE = 2;
     public static final int HASHJOIN = 3;
+    public static final int INDEXNESTED = 4;
 
     public static int numJoinTypes() {
-        return 3;
+        return 5;
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Limit Operation
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.Schema;
+
+/**
+ * Outputs the first tuples of the base operator, and stops reading
+ * the base operator as soon as enough tuples were output.
+ */
+public class Limit extends Operator {
+
+    Operator base;
+    int limit;       // Number of tuples to output
+    int numOutput;   // Number of tuples output so far
+
+    public Limit(Operator base, int limit) {
+        super(OpType.LIMIT);
+        this.base = base;
+        this.limit = limit;
+    }
+
+    public Operator getBase() {
+        return base;
+    }
+
+    public void setBase(Operator base) {
+        this.base = base;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean open() {
+        numOutput = 0;
+        return base.open();
+    }
+
+    public Batch next() {
+        if (numOutput >= limit) {
+            return null;
+        }
+        Batch inbatch = base.next();
+        if (inbatch == null) {
+            return null;
+        }
+        if (numOutput + inbatch.size() <= limit) {
+            numOutput += inbatch.size();
+            return inbatch;
+        }
+
+        Batch outbatch = new Batch(limit - numOutput);
+        for (int i = 0; numOutput < limit; i++, numOutput++) {
+            outbatch.add(inbatch.get(i));
+        }
+        return outbatch;
+    }
+
+    public boolean close() {
+        return base.close();
+    }
+
+    public Object clone() {
+        Operator newbase = (Operator) base.clone();
+        Limit newLimit = new Limit(newbase, limit);
+        newLimit.setSchema((Schema) newbase.getSchema().clone());
+        return newLimit;
+    }
+
+}
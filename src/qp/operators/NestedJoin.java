@@ -4,9 +4,11 @@
 
 package qp.operators;
 
+import qp.optimizer.BufferManager;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.PageCodec;
 import qp.utils.Tuple;
 
 import java.io.*;
@@ -19,11 +21,13 @@ public class NestedJoin extends Join {
     int batchsize;                  // Number of tuples per out batch
     ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
     ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
+    ArrayList<Integer> exprtypes;   // Comparison operator of each join condition
     String rfname;                  // The file name where the right table is materialized
     Batch outbatch;                 // Buffer page for output
     Batch leftbatch;                // Buffer page for left input stream
     Batch rightbatch;               // Buffer page for right input stream
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    DataInputStream in;             // File pointer to the right hand materialized file
+    PageCodec codec;                // Encodes the pages of the materialized file
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -52,11 +56,13 @@ public class NestedJoin extends Join {
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
         rightindex = new ArrayList<>();
+        exprtypes = new ArrayList<>();
         for (Condition con : conditionList) {
             Attribute leftattr = con.getLhs();
             Attribute rightattr = (Attribute) con.getRhs();
             leftindex.add(left.getSchema().indexOf(leftattr));
             rightindex.add(right.getSchema().indexOf(rightattr));
+            exprtypes.add(con.getExprType());
         }
         Batch rightpage;
 
@@ -82,9 +88,11 @@ public class NestedJoin extends Join {
             filenum++;
             rfname = String.format("NJtemp-%s-%d", uuid, filenum);
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                codec = new PageCodec(right.getSchema());
+                DataOutputStream out = new DataOutputStream(BufferManager.openOutputStream(rfname));
+                codec.writeHeader(out);
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    codec.writePage(out, rightpage);
                 }
                 out.close();
             } catch (IOException io) {
@@ -122,7 +130,8 @@ public class NestedJoin extends Join {
                  ** scanning of right table
                  **/
                 try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
+                    in = new DataInputStream(BufferManager.openInputStream(rfname));
+                    PageCodec.readHeader(in);
                     eosr = false;
                 } catch (IOException io) {
                     System.err.println("NestedJoin:error in reading the file");
@@ -133,13 +142,13 @@ public class NestedJoin extends Join {
             while (eosr == false) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = codec.readPage(in);
                     }
                     for (i = lcurs; i < leftbatch.size(); ++i) {
                         for (j = rcurs; j < rightbatch.size(); ++j) {
                             Tuple lefttuple = leftbatch.get(i);
                             Tuple righttuple = rightbatch.get(j);
-                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
+                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex, exprtypes)) {
                                 Tuple outtuple = lefttuple.joinWith(righttuple);
                                 outbatch.add(outtuple);
                                 if (outbatch.isFull()) {
@@ -170,9 +179,6 @@ public class NestedJoin extends Join {
                         System.out.println("NestedJoin: Error in reading temporary file");
                     }
                     eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("NestedJoin: Error in reading temporary file");
                     System.exit(1);
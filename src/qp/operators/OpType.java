@@ -14,5 +14,6 @@ public class OpType {
     public static final int GROUPBY = 5;
     public static final int ORDERBY = 6;
     public static final int SORT = 7;
+    public static final int LIMIT = 8;
 
 }
@@ -4,10 +4,13 @@
 package qp.operators;
 
 import qp.utils.Batch;
+import qp.utils.ColumnBatch;
 import qp.utils.Schema;
 
 public class Operator {
 
+    static boolean vectorized = true;   // Whether Select, Project and HashJoin process column batches
+
     int optype;     // Whether it is OpType.SELECT/ Optype.PROJECT/OpType.JOIN
     Schema schema;  // Schema of the result at this operator
 
@@ -15,6 +18,14 @@ public class Operator {
         this.optype = type;
     }
 
+    public static void setVectorized(boolean flag) {
+        vectorized = flag;
+    }
+
+    public static boolean isVectorized() {
+        return vectorized;
+    }
+
     public Operator getBase() { return this; }
 
     public Schema getSchema() {
@@ -45,6 +56,15 @@ public class Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch column by column, or null at the end of the stream.
+     * * Operators that cannot produce columns directly convert their next batch.
+     **/
+    public ColumnBatch nextColumns() {
+        Batch batch = next();
+        return batch == null ? null : ColumnBatch.fromBatch(batch, schema);
+    }
+
     public boolean close() {
         return true;
     }
@@ -5,11 +5,29 @@
 package qp.operators;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
 import qp.optimizer.BufferManager;
 import qp.utils.*;
 
+/**
+ * Sorts the tuples on the order by attributes. When only the first N tuples
+ * are wanted and they fit into the buffers, the N first tuples seen so far are
+ * kept in a heap whose root is the last of them, so the input is read once and
+ * nothing is written to disk. Otherwise the input is sorted externally and the
+ * output stops after N tuples. An ascending order already given by a sort merge
+ * join below is kept without sorting.
+ */
 public class OrderBy extends Sort {
 
+    int limit = -1;             // Number of tuples wanted, -1 for all of them
+    boolean isTopN;             // Whether the first tuples are selected in memory
+    boolean isSorted;           // Whether the input is already in order
+    Tuple[] topTuples;          // The first tuples in order, when selected in memory
+    int outCursor;              // Next of these tuples to output
+    int numOutput;              // Number of tuples output
+
     /**
      * The constructor for OrderBy operator.
      * @param numOfBuff The number of buffers available.
@@ -21,6 +39,118 @@ public class OrderBy extends Sort {
         this.optype = OpType.ORDERBY;
     }
 
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Only the first tuples are output, -1 to output all of them
+     **/
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Whether the first tuples fit into the B buffers
+     **/
+    public static boolean fitsInBuffers(int limit, int numOfBuff, int tuplesPerPage) {
+        return limit >= 0 && limit <= (long) numOfBuff * tuplesPerPage;
+    }
+
+    /**
+     * Whether the input already comes in the order wanted
+     **/
+    public boolean isPresorted() {
+        return isAsc && SortMergeJoin.isSortedOn(base, attributes);
+    }
+
+    public boolean open() {
+        numOutput = 0;
+        batchSize = Batch.getPageSize() / schema.getTupleSize();
+        isSorted = isPresorted();
+        isTopN = !isSorted && batchSize > 0 && fitsInBuffers(limit, numOfBuff, batchSize);
+        if (isSorted) {
+            eos = false;
+            return base.open();
+        }
+        if (!isTopN) {
+            return super.open();
+        }
+        if (!base.open()) {
+            return false;
+        }
+        eos = false;
+
+        attributeIndexes = new ArrayList<>();
+        for (Attribute a : attributes) {
+            attributeIndexes.add(schema.indexOf(a));
+        }
+        comparator = new TupleComparator(schema, attributeIndexes);
+        Comparator<Tuple> order = isAsc ? comparator : comparator.reversed();
+
+        /** The root of the heap is the last of the tuples kept **/
+        PriorityQueue<Tuple> heap = new PriorityQueue<>(Math.max(1, limit), order.reversed());
+        Batch inbatch;
+        while ((inbatch = base.next()) != null) {
+            for (int i = 0; i < inbatch.size(); i++) {
+                Tuple t = inbatch.get(i);
+                totalInputSize++;
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (limit > 0 && order.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+        }
+        base.close();
+
+        topTuples = new Tuple[heap.size()];
+        for (int i = topTuples.length - 1; i >= 0; i--) {
+            topTuples[i] = heap.poll();
+        }
+        outCursor = 0;
+        return true;
+    }
+
+    public Batch next() {
+        if (isTopN) {
+            if (outCursor >= topTuples.length) {
+                return null;
+            }
+            outBatch = new Batch(batchSize);
+            while (!outBatch.isFull() && outCursor < topTuples.length) {
+                outBatch.add(topTuples[outCursor++]);
+            }
+            return outBatch;
+        }
+
+        if (limit >= 0 && numOutput >= limit) {
+            close();
+            return null;
+        }
+        Batch batch = isSorted ? base.next() : super.next();
+        if (batch == null || limit < 0) {
+            return batch;
+        }
+        Batch outbatch = new Batch(batchSize);
+        for (int i = 0; i < batch.size() && numOutput < limit; i++, numOutput++) {
+            outbatch.add(batch.get(i));
+        }
+        return outbatch;
+    }
+
+    public boolean close() {
+        if (isTopN) {
+            topTuples = null;
+            return true;
+        }
+        if (isSorted) {
+            return base.close();
+        }
+        return super.close();
+    }
+
     public Object clone() {
         Operator newbase = (Operator) base.clone();
         int numOfBuff = BufferManager.getBuffersPerJoin();
@@ -30,6 +160,7 @@ public class OrderBy extends Sort {
         }
         OrderBy newOrderBy = new OrderBy(newbase, numOfBuff, newattr, isAsc);
         newOrderBy.setSchema((Schema) newbase.getSchema().clone());
+        newOrderBy.setLimit(limit);
         return newOrderBy;
     }
 
@@ -41,4 +172,4 @@ public class OrderBy extends Sort {
         this.base = base;
     }
 
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.ColumnBatch;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 
@@ -69,12 +70,12 @@ public class Project extends Operator {
         for (int i = 0; i < attrset.size(); ++i) {
             Attribute attr = attrset.get(i);
 
-            if (attr.getAggType() != Attribute.NONE) {
-                System.err.println("Aggregation is not implemented.");
+            /** Aggregates are computed by the GroupBy below **/
+            int index = baseSchema.indexOf(attr);
+            if (index == -1) {
+                System.err.println("Project: Unknown attribute " + attr);
                 System.exit(1);
             }
-
-            int index = baseSchema.indexOf(attr.getBaseAttribute());
             attrIndex[i] = index;
         }
         return true;
@@ -84,6 +85,10 @@ public class Project extends Operator {
      * Read next tuple from operator
      */
     public Batch next() {
+        if (vectorized) {
+            ColumnBatch columns = nextColumns();
+            return columns == null ? null : columns.toBatch();
+        }
         outbatch = new Batch(batchsize);
         /** all the tuples in the inbuffer goes to the output buffer **/
         inbatch = base.next();
@@ -96,17 +101,20 @@ public class Project extends Operator {
             Tuple basetuple = inbatch.get(i);
             //Debug.PPrint(basetuple);
             //System.out.println();
-            ArrayList<Object> present = new ArrayList<>();
-            for (int j = 0; j < attrset.size(); j++) {
-                Object data = basetuple.dataAt(attrIndex[j]);
-                present.add(data);
-            }
-            Tuple outtuple = new Tuple(present);
+            Tuple outtuple = basetuple.project(attrIndex);
             outbatch.add(outtuple);
         }
         return outbatch;
     }
 
+    /**
+     * Projects the next batch of the base operator by sharing its column vectors
+     **/
+    public ColumnBatch nextColumns() {
+        ColumnBatch columns = base.nextColumns();
+        return columns == null ? null : columns.project(attrIndex);
+    }
+
     /**
      * Close the operator
      */
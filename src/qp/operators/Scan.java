@@ -4,25 +4,96 @@
 
 package qp.operators;
 
+import qp.optimizer.BufferManager;
+import qp.optimizer.Catalog;
+import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
+import qp.utils.ColumnBatch;
+import qp.utils.Condition;
+import qp.utils.PageCodec;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.ZoneMap;
 
+import java.io.DataInputStream;
 import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 
 /**
  * Scan operator - read data from a file
+ * * The file is read through the buffer pool when there is one. Otherwise it is
+ * * memory mapped by default and the tuples are decoded straight from the mapped
+ * * pages. The mapping is done in windows of MAP_WINDOW bytes so that files larger
+ * * than the address space of a single mapping can be read.
+ * * The conditions of a selection on the table can be pushed down to the scan.
+ * * When the table has a zone map, the pages whose smallest and largest values
+ * * cannot satisfy all these conditions are then skipped. The conditions are
+ * * still checked by the selection on the tuples of the pages read.
+ * * The joins above can push Bloom filters on the keys of the table down to
+ * * the scan, which then only returns the tuples whose keys pass all of them.
  */
 public class Scan extends Operator {
 
+    static final long MAP_WINDOW = 64L << 20;  // Bytes mapped at a time
+    static boolean memoryMapped = true;        // Whether the scans without buffer pool map the files
+    static boolean zoneMaps = true;            // Whether the scans skip pages using the zone maps
+
     String filename;       // Corresponding file name
     String tabname;        // Table name
     int batchsize;         // Number of tuples per out batch;
-    ObjectInputStream in;  // Input file being scanned
+    PageCodec codec;       // Decodes the pages of the file
     boolean eos;           // To indicate whether end of stream reached or not
+    ByteBuffer pageData;   // Payload of the current page, positioned at the next tuple
+    int pageRemaining;     // Tuples of the current page not yet decoded
+
+    /** Stream mode, through the buffer pool if any **/
+    DataInputStream in;    // Input file being scanned
+
+    /** Memory mapped mode **/
+    FileChannel channel;       // Channel of the file being scanned
+    MappedByteBuffer mapped;   // Window of the file currently mapped
+    long mappedStart;          // File offset of the start of the window
+    long fileSize;             // Size of the file in bytes
+    long pageOffset;           // File offset of the next page
+
+    /** Zone map mode **/
+    ArrayList<Condition> filter;   // Select conditions pushed down, null if none
+    ZoneMap zonemap;               // Bounds of the pages, null if no page is skipped
+    int[] filterColumns;           // Column of each condition with a constant
+    int[] filterTypes;             // Comparison operator of each condition with a constant
+    Tuple[] filterConstants;       // Constant of each condition, as a one column tuple
+    int zonePage;                  // Number of the next page of the zone map
+    long streamOffset;             // File offset of the next page in stream mode
+    int numPagesSkipped;           // Pages skipped since the scan was opened
+
+    /** Bloom filters pushed down by the joins, null if none **/
+    ArrayList<Join> bloomOwners;       // Join that pushed each filter
+    ArrayList<BloomFilter> blooms;     // Filters the keys of the tuples returned must pass
+    ArrayList<int[]> bloomKeys;        // Columns of the key of each filter
+
+    public static void setMemoryMapped(boolean mapped) {
+        memoryMapped = mapped;
+    }
+
+    public static boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public static void setZoneMaps(boolean enabled) {
+        zoneMaps = enabled;
+    }
+
+    public static boolean isZoneMaps() {
+        return zoneMaps;
+    }
 
     /**
      * Constructor - just save filename
@@ -37,6 +108,59 @@ public class Scan extends Operator {
         return tabname;
     }
 
+    public String getFileName() {
+        return filename;
+    }
+
+    /**
+     * Select conditions on the table the pages read must be able to satisfy
+     **/
+    public void setFilter(ArrayList<Condition> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the Bloom filter of the join on the key attributes, replacing the
+     * * filter the join pushed when it was last opened
+     **/
+    public void setBloomFilter(Join owner, BloomFilter filter, ArrayList<Attribute> keys) {
+        if (bloomOwners == null) {
+            bloomOwners = new ArrayList<>();
+            blooms = new ArrayList<>();
+            bloomKeys = new ArrayList<>();
+        }
+        int i = bloomOwners.indexOf(owner);
+        if (i == -1) {
+            bloomOwners.add(owner);
+            blooms.add(filter);
+            bloomKeys.add(Join.columnsOf(schema, keys));
+        } else {
+            blooms.set(i, filter);
+            bloomKeys.set(i, Join.columnsOf(schema, keys));
+        }
+    }
+
+    public int getNumPagesSkipped() {
+        return numPagesSkipped;
+    }
+
+    /**
+     * Parses the constant of a condition on an attribute of the given type
+     * * into a one column tuple, compared with the values of the attribute
+     * @throws NumberFormatException when the constant is not a number of that type
+     **/
+    static Tuple parseConstant(String constant, int datatype) {
+        ArrayList<Object> data = new ArrayList<>();
+        if (datatype == Attribute.INT) {
+            data.add(Integer.parseInt(constant));
+        } else if (datatype == Attribute.REAL) {
+            data.add(Float.parseFloat(constant));
+        } else {
+            data.add(constant);
+        }
+        return new Tuple(data);
+    }
+
     /**
      * Open file prepare a stream pointer to read input file
      */
@@ -45,12 +169,114 @@ public class Scan extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
         eos = false;
+        pageData = null;
+        in = null;
+        channel = null;
+        mapped = null;
+        pageRemaining = 0;
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            if (memoryMapped && !BufferManager.hasBufferPool()) {
+                channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+                fileSize = channel.size();
+                codec = PageCodec.readHeader(new DataInputStream(Channels.newInputStream(channel)));
+                pageOffset = codec.headerSize();
+            } else {
+                in = new DataInputStream(BufferManager.openInputStream(filename));
+                codec = PageCodec.readHeader(in);
+            }
         } catch (Exception e) {
-            System.err.println(" Error reading " + filename);
+            System.err.println(" Error reading " + filename + ": " + e.getMessage());
+            return false;
+        }
+        if (!codec.matches(schema)) {
+            System.err.println(" Schema of " + filename + " does not match " + tabname + ".md");
             return false;
         }
+        streamOffset = codec.headerSize();
+        numPagesSkipped = 0;
+        zonePage = 0;
+        loadZoneMap(filter);
+        return true;
+    }
+
+    /**
+     * Reads the zone map of the table if some of the conditions compare an
+     * * attribute with a constant, zonemap is left null otherwise
+     **/
+    private void loadZoneMap(ArrayList<Condition> conditions) {
+        zonemap = null;
+        if (conditions == null || !zoneMaps || !ZoneMap.hasZoneMap(tabname)) {
+            return;
+        }
+        ArrayList<Condition> usable = new ArrayList<>();
+        for (Condition con : conditions) {
+            if (con.getRhs() instanceof String && schema.indexOf(con.getLhs()) != -1) {
+                usable.add(con);
+            }
+        }
+        if (usable.isEmpty()) {
+            return;
+        }
+        filterColumns = new int[usable.size()];
+        filterTypes = new int[usable.size()];
+        filterConstants = new Tuple[usable.size()];
+        for (int i = 0; i < usable.size(); i++) {
+            Condition con = usable.get(i);
+            filterColumns[i] = schema.indexOf(con.getLhs());
+            filterTypes[i] = con.getExprType();
+            try {
+                filterConstants[i] = parseConstant((String) con.getRhs(), PageCodec.typesOf(schema)[filterColumns[i]]);
+            } catch (NumberFormatException e) {
+                /** The selection reports the malformed constant **/
+                return;
+            }
+        }
+        try {
+            zonemap = Catalog.getZoneMap(tabname);
+        } catch (IOException e) {
+            System.err.println("Scan: Error reading the zone map of " + tabname + ", no page is skipped");
+        }
+    }
+
+    /**
+     * Fraction of the pages of the table a scan filtered by the conditions reads
+     **/
+    public double fractionOfPagesRead(ArrayList<Condition> conditions) {
+        /** This scan may be open, the pages are counted by another one **/
+        Scan counter = new Scan(tabname, optype);
+        counter.setSchema(schema);
+        counter.loadZoneMap(conditions);
+        if (counter.zonemap == null || counter.zonemap.getNumPages() == 0) {
+            return 1;
+        }
+        int numRead = 0;
+        while (counter.nextZonePage() != -1) {
+            numRead++;
+        }
+        return (double) numRead / counter.zonemap.getNumPages();
+    }
+
+    /**
+     * Number of the next page of the zone map whose values may satisfy the
+     * * conditions, -1 if there is none
+     **/
+    private int nextZonePage() {
+        while (zonePage < zonemap.getNumPages()) {
+            int page = zonePage++;
+            if (zonemap.getNumTuples(page) > 0 && mayMatch(page)) {
+                return page;
+            }
+            numPagesSkipped++;
+        }
+        return -1;
+    }
+
+    private boolean mayMatch(int page) {
+        for (int i = 0; i < filterColumns.length; i++) {
+            if (!zonemap.mayMatch(page, filterColumns[i], filterTypes[i], filterConstants[i])) {
+                return false;
+            }
+        }
         return true;
     }
 
@@ -65,33 +291,141 @@ public class Scan extends Operator {
         }
         Batch tuples = new Batch(batchsize);
         while (!tuples.isFull()) {
-            try {
-                Tuple data = (Tuple) in.readObject();
-                tuples.add(data);
-            } catch (ClassNotFoundException cnf) {
-                System.err.println("Scan:Class not found for reading file  " + filename);
-                System.exit(1);
-            } catch (EOFException EOF) {
-                /** At this point incomplete page is sent and at next call it considered
-                 ** as end of file
-                 **/
-                eos = true;
-                return tuples;
-            } catch (IOException e) {
-                System.err.println("Scan:Error reading " + filename);
-                System.exit(1);
+            if (pageRemaining == 0) {
+                if (!nextPage()) {
+                    /** At this point incomplete page is sent and at next call it considered
+                     ** as end of file
+                     **/
+                    eos = true;
+                    return tuples;
+                }
+                continue;
+            }
+            Tuple tuple = codec.decode(pageData);
+            pageRemaining--;
+            if (blooms == null || passesBloomFilters(tuple)) {
+                tuples.add(tuple);
             }
         }
         return tuples;
     }
 
+    private boolean passesBloomFilters(Tuple tuple) {
+        for (int i = 0; i < blooms.size(); i++) {
+            if (!blooms.get(i).mightContain(tuple, bloomKeys.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the next batch straight into column vectors
+     **/
+    public ColumnBatch nextColumns() {
+        if (eos) {
+            close();
+            return null;
+        }
+        ColumnBatch columns = new ColumnBatch(schema, batchsize);
+        while (!columns.isFull()) {
+            if (pageRemaining == 0) {
+                if (!nextPage()) {
+                    eos = true;
+                    break;
+                }
+                continue;
+            }
+            codec.decodeInto(pageData, columns);
+            pageRemaining--;
+        }
+        if (blooms != null) {
+            for (int i = 0; i < blooms.size(); i++) {
+                blooms.get(i).filter(columns, bloomKeys.get(i));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Moves to the next page of the file, returns false at the end of the file
+     **/
+    private boolean nextPage() {
+        try {
+            if (zonemap != null) {
+                int page = nextZonePage();
+                if (page == -1) {
+                    return false;
+                }
+                if (channel != null) {
+                    pageOffset = zonemap.getOffset(page);
+                } else {
+                    in.skipNBytes(zonemap.getOffset(page) - streamOffset);
+                    streamOffset = zonemap.getOffset(page) + zonemap.getLength(page);
+                }
+            }
+            if (channel != null) {
+                return mapNextPage();
+            }
+            pageRemaining = codec.readPageData(in);
+            pageData = codec.pageData();
+            return true;
+        } catch (EOFException EOF) {
+            return false;
+        } catch (IOException e) {
+            System.err.println("Scan:Error reading " + filename);
+            System.exit(1);
+            return false;
+        }
+    }
+
+    /**
+     * Positions the mapped buffer at the payload of the next page,
+     * * remapping the window when the page is not entirely inside it
+     **/
+    private boolean mapNextPage() throws IOException {
+        while (pageOffset + PageCodec.PAGE_HEADER_SIZE <= fileSize) {
+            ensureMapped(pageOffset, PageCodec.PAGE_HEADER_SIZE);
+            int position = (int) (pageOffset - mappedStart);
+            int numTuples = mapped.getInt(position);
+            int length = mapped.getInt(position + 4);
+            int pagelength = codec.pageLength(length);
+            ensureMapped(pageOffset, PageCodec.PAGE_HEADER_SIZE + length);
+            mapped.position((int) (pageOffset - mappedStart) + PageCodec.PAGE_HEADER_SIZE);
+            pageOffset += pagelength;
+            if (numTuples > 0) {
+                pageRemaining = numTuples;
+                pageData = mapped;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureMapped(long offset, int length) throws IOException {
+        if (mapped != null && offset >= mappedStart && offset + length <= mappedStart + mapped.limit()) {
+            return;
+        }
+        mappedStart = offset;
+        long size = Math.min(fileSize - offset, Math.max(MAP_WINDOW, length));
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, mappedStart, size);
+    }
+
     /**
      * Close the file.. This routine is called when the end of filed
      * * is already reached
      **/
     public boolean close() {
         try {
-            in.close();
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                mapped = null;
+            }
         } catch (IOException e) {
             System.err.println("Scan: Error closing " + filename);
             return false;
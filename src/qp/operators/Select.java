@@ -6,11 +6,24 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Selects the tuples satisfying a conjunction of conditions on the same table
+ * * in a single pass. The conditions are given most selective first, from the
+ * * statistics, and are reordered while the operator runs by the fraction of
+ * * tuples observed to pass each of them, so that most tuples are rejected by
+ * * the first predicate they are tested against.
+ */
 public class Select extends Operator {
 
-    Operator base;  // Base operator
-    Condition con;  // Select condition
-    int batchsize;  // Number of tuples per outbatch
+    static final int REORDER_INTERVAL = 16;  // Number of input batches between reorderings of the predicates
+
+    Operator base;                          // Base operator
+    ArrayList<Condition> conditionList;     // Select conditions, all of them must hold
+    int batchsize;                          // Number of tuples per outbatch
 
     /**
      * The following fields are required during
@@ -20,6 +33,8 @@ public class Select extends Operator {
     Batch inbatch;   // This is the current input buffer
     Batch outbatch;  // This is the current output buffer
     int start;       // Cursor position in the input buffer
+    Predicate[] predicates;  // Conditions compiled for the schema at open, in evaluation order
+    int numBatches;          // Input batches since the predicates were last reordered
 
     /**
      * constructor
@@ -27,7 +42,13 @@ public class Select extends Operator {
     public Select(Operator base, Condition con, int type) {
         super(type);
         this.base = base;
-        this.con = con;
+        setCondition(con);
+    }
+
+    public Select(Operator base, ArrayList<Condition> conditionList, int type) {
+        super(type);
+        this.base = base;
+        this.conditionList = conditionList;
     }
 
     public Operator getBase() {
@@ -39,11 +60,21 @@ public class Select extends Operator {
     }
 
     public Condition getCondition() {
-        return con;
+        assert (conditionList.size() > 0);
+        return conditionList.get(0);
     }
 
     public void setCondition(Condition cn) {
-        this.con = cn;
+        conditionList = new ArrayList<>();
+        conditionList.add(cn);
+    }
+
+    public ArrayList<Condition> getConditionList() {
+        return conditionList;
+    }
+
+    public void setConditionList(ArrayList<Condition> conditionList) {
+        this.conditionList = conditionList;
     }
 
     /**
@@ -53,6 +84,10 @@ public class Select extends Operator {
      **/
     public Batch next() {
         int i = 0;
+        if (vectorized) {
+            ColumnBatch columns = nextColumns();
+            return columns == null ? null : columns.toBatch();
+        }
         if (eos) {
             close();
             return null;
@@ -72,6 +107,7 @@ public class Select extends Operator {
                     eos = true;
                     return outbatch;
                 }
+                countBatch();
             }
 
             /** Continue this for loop until this page is fully observed
@@ -108,12 +144,68 @@ public class Select extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        predicates = new Predicate[conditionList.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            predicates[i] = Predicate.compile(conditionList.get(i), schema);
+        }
+        numBatches = 0;
+
+        /** A scan of the table skips the pages where the conditions cannot hold **/
+        if (base.getOpType() == OpType.SCAN && !(base instanceof IndexScan)) {
+            ((Scan) base).setFilter(conditionList);
+        }
+
         if (base.open())
             return true;
         else
             return false;
     }
 
+    /**
+     * Returns the next non empty batch of the base operator with only the rows
+     * * satisfying the conditions left in its selection vector
+     **/
+    public ColumnBatch nextColumns() {
+        if (eos) {
+            close();
+            return null;
+        }
+        while (true) {
+            ColumnBatch columns = base.nextColumns();
+            if (columns == null) {
+                eos = true;
+                close();
+                return null;
+            }
+            countBatch();
+            for (Predicate predicate : predicates) {
+                int tested = columns.getNumSelected();
+                predicate.filter(columns);
+                predicate.count(tested, columns.getNumSelected());
+                if (columns.isEmpty()) {
+                    break;
+                }
+            }
+            if (!columns.isEmpty()) {
+                return columns;
+            }
+        }
+    }
+
+    /**
+     * Reorders the predicates every REORDER_INTERVAL input batches
+     **/
+    private void countBatch() {
+        if (++numBatches < REORDER_INTERVAL || predicates.length < 2) {
+            return;
+        }
+        numBatches = 0;
+        Arrays.sort(predicates, Comparator.comparingDouble(Predicate::getPassRate));
+        for (Predicate predicate : predicates) {
+            predicate.decayCounts();
+        }
+    }
+
     /**
      * closes the output connection
      * * i.e., no more pages to output
@@ -124,105 +216,27 @@ public class Select extends Operator {
     }
 
     /**
-     * To check whether the selection condition is satisfied for
-     * * the present tuple
+     * To check whether the selection conditions are satisfied for
+     * * the present tuple, stops at the first condition failing
      **/
     protected boolean checkCondition(Tuple tuple) {
-        Attribute attr = con.getLhs();
-        int index = schema.indexOf(attr);
-        int datatype = schema.typeOf(attr);
-        Object srcValue = tuple.dataAt(index);
-        int exprtype = con.getExprType();
-
-        if (datatype == Attribute.INT) {
-            int srcVal = ((Integer) srcValue).intValue();
-            int checkVal = 0;
-            if (con.getRhs() instanceof String) {
-                checkVal = Integer.parseInt((String) con.getRhs());
-            } else if (con.getRhs() instanceof Attribute) {
-                checkVal = ((Integer) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))).intValue();
-            } else {
-                System.out.println("Select: Malformed condition");
-            }
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal)
-                    return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal)
-                    return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal)
-                    return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal)
-                    return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal)
-                    return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal)
-                    return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
-            }
-        } else if (datatype == Attribute.STRING) {
-            String srcVal = (String) srcValue;
-            int flag = 0;
-            if (con.getRhs() instanceof String) {
-                flag = srcVal.compareTo((String) con.getRhs());
-            } else if (con.getRhs() instanceof Attribute) {
-                flag = srcVal.compareTo(((String) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))));
-            } else {
-                System.out.println("Select: Malformed condition");
-            }
-            if (exprtype == Condition.LESSTHAN) {
-                if (flag < 0) return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (flag > 0) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (flag <= 0) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (flag >= 0) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (flag == 0) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (flag != 0) return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
-            }
-        } else if (datatype == Attribute.REAL) {
-            float srcVal = ((Float) srcValue).floatValue();
-            float checkVal = 0;
-            if (con.getRhs() instanceof String) {
-                checkVal = Float.parseFloat((String) con.getRhs());
-            } else if (con.getRhs() instanceof Attribute) {
-                checkVal = ((Float) tuple.dataAt(schema.indexOf((Attribute) con.getRhs()))).floatValue();
-            } else {
-                System.out.println("Select: Malformed condition");
-            }
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal) return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal) return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
+        for (Predicate predicate : predicates) {
+            boolean passed = predicate.test(tuple);
+            predicate.count(1, passed ? 1 : 0);
+            if (!passed) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     public Object clone() {
         Operator newbase = (Operator) base.clone();
-        Condition newcon = (Condition) con.clone();
-        Select newsel = new Select(newbase, newcon, optype);
+        ArrayList<Condition> newcondlist = new ArrayList<>();
+        for (Condition cond : conditionList) {
+            newcondlist.add((Condition) cond.clone());
+        }
+        Select newsel = new Select(newbase, newcondlist, optype);
         newsel.setSchema((Schema) newbase.getSchema().clone());
         return newsel;
     }
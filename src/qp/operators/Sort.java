@@ -6,17 +6,28 @@ package qp.operators;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import qp.optimizer.BufferManager;
 import qp.utils.*;
 
 public class Sort extends Operator {
 
+    static int parallelism = 1;             // Number of workers sorting in parallel, 1 to sort on the calling thread
+    static ForkJoinPool workers;            // Workers shared by the parallel sorts
+
     int batchSize;                          // Number of tuples per outbatch
     Operator base;
     ArrayList<Attribute> attributes;        // Attributes used to determine the sorting
     ArrayList<Integer> attributeIndexes;    // The indexes of the attribute in the table sorted
+    TupleComparator comparator;             // Compares the tuples on the sorting attributes, ascending
+    BloomFilter keyFilter;                  // Gets the values of the sorting attributes of the input, null if none
+    int[] keyColumns;                       // Columns of the sorting attributes
 
     // Input and output
     String sortedFileName;                  // The final sorted run filename
@@ -65,6 +76,37 @@ public class Sort extends Operator {
         this.isDistinct = isDistinct;
     }
 
+    /**
+     * Sets the number of workers of the parallel sort. With more than one worker
+     * * the runs are sorted with a parallel sort, and the merges of a pass run
+     * * concurrently, sharing the buffers of the operator.
+     **/
+    public static synchronized void setParallelism(int numWorkers) {
+        parallelism = Math.max(1, numWorkers);
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    private static synchronized ForkJoinPool getWorkers() {
+        if (workers == null) {
+            workers = new ForkJoinPool(parallelism);
+        }
+        return workers;
+    }
+
+    /**
+     * Adds the values of the sorting attributes of every input tuple to the filter
+     **/
+    public void setKeyFilter(BloomFilter filter) {
+        keyFilter = filter;
+    }
+
     /**
      * Constructor for default Sort, ascending and not distinct.
      **/
@@ -97,8 +139,14 @@ public class Sort extends Operator {
         for (Attribute a : attributes) {
             attributeIndexes.add(schema.indexOf(a));
         }
+        comparator = new TupleComparator(schema, attributeIndexes);
+        keyColumns = Join.columnsOf(schema, attributes);
 
-        generateSortedRuns();
+        if (parallelism > 1) {
+            generateSortedRunsParallel();
+        } else {
+            generateSortedRuns();
+        }
 
         if (numSortedRuns == 0) {
             eos = true;
@@ -128,7 +176,8 @@ public class Sort extends Operator {
         // Read from final sorted file
         while (!outBatch.isFull() && !tupleReader.isEOF()) {
             Tuple currTuple = tupleReader.next();
-            if (!isDistinct || (numOfPasses == 0 && isDistinct(prevTuple, currTuple))) {
+            // Duplicates were already removed if the runs were merged
+            if (!isDistinct || numOfPasses > 0 || isDistinct(prevTuple, currTuple)) {
                 outBatch.add(currTuple);
                 totalOutputSize++;
             }
@@ -144,48 +193,149 @@ public class Sort extends Operator {
     }
 
     /**
-     * Write sorted runs into files for merging.
+     * A tuple waiting in the selection heap with the run it belongs to
+     */
+    static class HeapEntry {
+        final int run;
+        final Tuple tuple;
+
+        HeapEntry(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Write sorted runs into files for merging, using replacement selection.
+     * Besides the input and the output pages, the B - 2 buffers left hold a heap of
+     * tuples. The smallest tuple of the current run is written out and replaced by
+     * the next input tuple, which joins the current run if it does not come before
+     * the tuple just written, and the next run otherwise.
+     * Runs are 2(B - 2) pages long on average on random input, and a sorted input is a single run.
      */
     private void generateSortedRuns() {
 
         numSortedRuns = 0;
+        Comparator<Tuple> order = isAsc ? comparator : comparator.reversed();
+        PriorityQueue<HeapEntry> heap = new PriorityQueue<>((e1, e2) ->
+                e1.run != e2.run ? Integer.compare(e1.run, e2.run) : order.compare(e1.tuple, e2.tuple));
+        int heapCapacity = Math.max(1, numOfBuff - 2) * batchSize;
+
+        // Fill the heap
+        Batch inputBatch = nextInput();
+        int inputCursor = 0;
+        while (inputBatch != null && heap.size() < heapCapacity) {
+            if (inputCursor == inputBatch.size()) {
+                inputBatch = nextInput();
+                inputCursor = 0;
+                continue;
+            }
+            heap.add(new HeapEntry(0, inputBatch.get(inputCursor++)));
+        }
+
+        Tuple lastTuple = null;
+        int tuplesInSR = 0;
+        while (!heap.isEmpty()) {
+            HeapEntry smallest = heap.poll();
+
+            // The current run is over once all the tuples left belong to the next run
+            if (tupleWriter == null || smallest.run != numSortedRuns) {
+                if (tupleWriter != null) {
+                    tupleWriter.close();
+                    maxTuplesInSR = Math.max(maxTuplesInSR, tuplesInSR);
+                    numSortedRuns++;
+                }
+                tupleWriter = new TupleWriter(getFileName(0, numSortedRuns), batchSize, schema);
+                tupleWriter.open();
+                lastTuple = null;
+                tuplesInSR = 0;
+            }
+
+            if (!isDistinct || isDistinct(lastTuple, smallest.tuple)) {
+                tupleWriter.next(smallest.tuple);
+                tuplesInSR++;
+            }
+            totalInputSize++;
+            lastTuple = smallest.tuple;
+
+            // Replace the tuple written by the next input tuple
+            while (inputBatch != null && inputCursor == inputBatch.size()) {
+                inputBatch = nextInput();
+                inputCursor = 0;
+            }
+            if (inputBatch != null) {
+                Tuple next = inputBatch.get(inputCursor++);
+                int run = order.compare(next, lastTuple) < 0 ? numSortedRuns + 1 : numSortedRuns;
+                heap.add(new HeapEntry(run, next));
+            }
+        }
+
+        if (tupleWriter != null) {
+            tupleWriter.close();
+            tupleWriter = null;
+            maxTuplesInSR = Math.max(maxTuplesInSR, tuplesInSR);
+            numSortedRuns++;
+        }
+    }
+
+    /**
+     * Reads the next batch of the input, adding its keys to the key filter if any
+     **/
+    private Batch nextInput() {
+        Batch batch = base.next();
+        if (batch != null && keyFilter != null) {
+            keyFilter.addAll(batch, keyColumns);
+        }
+        return batch;
+    }
+
+    /**
+     * Write sorted runs of B pages into files for merging, each run being sorted
+     * by the workers. Replacement selection is sequential, so it is not used here.
+     */
+    private void generateSortedRunsParallel() {
+
+        numSortedRuns = 0;
+        Comparator<Tuple> order = isAsc ? comparator : comparator.reversed();
         Batch inputBatch;
 
-        // Generate sorted runs
-        while ((inputBatch = base.next()) != null) {
-            String filename = getFileName(0, numSortedRuns);
+        while ((inputBatch = nextInput()) != null) {
 
-            // Tuples in current sorted run
+            // Read-in the tuples of B pages
             ArrayList<Tuple> tuples = new ArrayList<>();
-
-            // Read-in tuples
             for (int i = 0; i < numOfBuff; i++) {
                 tuples.addAll(inputBatch.getTuples());
 
                 if (i < numOfBuff - 1) {
-                    inputBatch = base.next();
+                    inputBatch = nextInput();
                     if (inputBatch == null) {
                         break;
                     }
                 }
             }
+            if (tuples.isEmpty()) {
+                continue;
+            }
 
-            // Sort the tuples
-            tuples.sort(isAsc
-                    ? (x, y) -> compareTuples(x, y, attributeIndexes)
-                    : (x, y) -> compareTuples(y, x, attributeIndexes));
+            // Sort the tuples on the workers
+            Tuple[] run = tuples.toArray(new Tuple[0]);
+            getWorkers().submit(() -> Arrays.parallelSort(run, order)).join();
 
             // Write sorted runs
-            tupleWriter = new TupleWriter(filename, batchSize);
+            tupleWriter = new TupleWriter(getFileName(0, numSortedRuns), batchSize, schema);
             tupleWriter.open();
-            for (Tuple t : tuples) {
-                tupleWriter.next(t);
+            Tuple lastTuple = null;
+            for (Tuple t : run) {
+                if (!isDistinct || isDistinct(lastTuple, t)) {
+                    tupleWriter.next(t);
+                }
+                lastTuple = t;
                 totalInputSize++;
             }
             tupleWriter.close();
+            tupleWriter = null;
 
-            maxTuplesInSR = Math.max(maxTuplesInSR, tuples.size());
-
+            maxTuplesInSR = Math.max(maxTuplesInSR, run.length);
             numSortedRuns++;
         }
     }
@@ -195,36 +345,56 @@ public class Sort extends Operator {
      */
     private void mergeSortedRuns() {
 
-        int numOfInputBuffers = numOfBuff - 1;
-
         while (numSortedRuns > 1) {
 
-            int mergedSRs = 0;
-            int currSRs = numSortedRuns;
+            // At least two runs have to be merged at a time for the merge to end
+            int numOfInputBuffers = Math.max(2, numOfBuff - 1);
 
-            numSortedRuns = 0;
-            while (mergedSRs < currSRs) {
-                ArrayList<String> fileInputs = new ArrayList<>();
-                for (int i = 0; i < numOfInputBuffers; i++) {
-                    if (mergedSRs == currSRs) {
-                        break;
-                    }
+            // Independent merges of the pass share the buffers when run concurrently
+            int numMerges = (numSortedRuns + numOfInputBuffers - 1) / numOfInputBuffers;
+            int concurrent = Math.min(parallelism, Math.min(numMerges, Math.max(1, numOfBuff / 3)));
+            if (concurrent > 1) {
+                numOfInputBuffers = Math.max(2, numOfBuff / concurrent - 1);
+            }
 
-                    String fileInput = getFileName(numOfPasses, mergedSRs);
-                    fileInputs.add(fileInput);
+            ArrayList<ArrayList<String>> groups = new ArrayList<>();
+            for (int mergedSRs = 0; mergedSRs < numSortedRuns; ) {
+                ArrayList<String> fileInputs = new ArrayList<>();
+                for (int i = 0; i < numOfInputBuffers && mergedSRs < numSortedRuns; i++) {
+                    fileInputs.add(getFileName(numOfPasses, mergedSRs));
                     mergedSRs++;
                 }
+                groups.add(fileInputs);
+            }
 
-                mergeRuns(fileInputs);
-                numSortedRuns++;
+            if (concurrent > 1) {
+                // At most concurrent merges at a time, to stay within the buffers
+                for (int first = 0; first < groups.size(); first += concurrent) {
+                    ArrayList<ForkJoinTask<Integer>> merges = new ArrayList<>();
+                    for (int g = first; g < Math.min(groups.size(), first + concurrent); g++) {
+                        ArrayList<String> fileInputs = groups.get(g);
+                        int output = g;
+                        merges.add(getWorkers().submit(() -> mergeRuns(fileInputs, output)));
+                    }
+                    for (ForkJoinTask<Integer> merge : merges) {
+                        maxTuplesInSR = Math.max(maxTuplesInSR, merge.join());
+                    }
+                }
+            } else {
+                for (int g = 0; g < groups.size(); g++) {
+                    maxTuplesInSR = Math.max(maxTuplesInSR, mergeRuns(groups.get(g), g));
+                }
+            }
 
-                // Cleanup temp files
+            // Cleanup temp files
+            for (ArrayList<String> fileInputs : groups) {
                 for (String filename : fileInputs) {
                     File f = new File(filename);
                     f.delete();
                 }
             }
 
+            numSortedRuns = groups.size();
             numOfPasses++;
         }
 
@@ -236,126 +406,41 @@ public class Sort extends Operator {
     /**
      * Merge (B - 1) sorted runs where B is the number of available buffers.
      * @param fileInputs The sorted run files which are read.
+     * @param sortedRunIndex The index of the merged run in the next pass.
+     * @return The number of tuples of the merged run.
      */
-    private void mergeRuns(ArrayList<String> fileInputs) {
+    private int mergeRuns(ArrayList<String> fileInputs, int sortedRunIndex) {
 
-        // Setup input buffers and readers
-        ArrayList<Batch> inputBuffers = new ArrayList<>();
-        ArrayList<TupleReader> tupleReaders = new ArrayList<>();
-
-        for (String fileInput : fileInputs) {
-            TupleReader tupleReader = new TupleReader(fileInput, batchSize);
-            tupleReaders.add(tupleReader);
-            tupleReader.open();
-
-            Batch inputBuffer = new Batch(batchSize);
-            while (!inputBuffer.isFull() && !tupleReader.isEOF()) {
-                inputBuffer.add(tupleReader.next());
-            }
-
-            inputBuffers.add(inputBuffer);
+        // Setup one reader, and so one input buffer, per run
+        TupleReader[] tupleReaders = new TupleReader[fileInputs.size()];
+        for (int i = 0; i < tupleReaders.length; i++) {
+            tupleReaders[i] = new TupleReader(fileInputs.get(i), batchSize);
+            tupleReaders[i].open();
         }
 
-        // Merge input buffers
-        mergeTuples(inputBuffers, tupleReaders);
-
-    }
-
-    /**
-     * Merge the tuples in the (B - 1) buffers
-     * @param inputBuffers The buffers used in merging.
-     * @param tupleReaders The tuple readers used to read the sorted run files.
-     */
-    private void mergeTuples(ArrayList<Batch> inputBuffers, ArrayList<TupleReader> tupleReaders) {
-
-        String fileOutput = getFileName(numOfPasses + 1, numSortedRuns);
-        TupleWriter tw = new TupleWriter(fileOutput, maxTuplesInSR);
+        String fileOutput = getFileName(numOfPasses + 1, sortedRunIndex);
+        TupleWriter tw = new TupleWriter(fileOutput, batchSize, schema);
         tw.open();
 
-        Batch outBatch = new Batch(batchSize);
-
+        // Merge the runs, duplicates are next to each other in the merged order
+        LoserTree merger = new LoserTree(tupleReaders, isAsc ? comparator : comparator.reversed());
+        Tuple lastTuple = null;
         int tuplesInSR = 0;
-
-        while (!inputBuffers.stream().allMatch(Batch::isEmpty)) {
-            Tuple selectedTuple = getSelectedTuple(inputBuffers, tupleReaders);
-
-            if (!isDistinct || prevTuple == null || isDistinct(prevTuple, selectedTuple)) {
-                outBatch.add(selectedTuple);
-
-                if (outBatch.isFull()) {
-                    while (!outBatch.isEmpty()) {
-                        tw.next(outBatch.poll());
-                        tuplesInSR++;
-                    }
-                }
+        while (!merger.isEmpty()) {
+            Tuple selectedTuple = merger.next();
+            if (!isDistinct || isDistinct(lastTuple, selectedTuple)) {
+                tw.next(selectedTuple);
+                tuplesInSR++;
             }
-
-            prevTuple = selectedTuple;
-        }
-
-        while (!outBatch.isEmpty()) {
-            tw.next(outBatch.poll());
-            tuplesInSR++;
+            lastTuple = selectedTuple;
         }
 
         tw.close();
-
-        maxTuplesInSR = Math.max(tuplesInSR, maxTuplesInSR);
-    }
-
-    /**
-     * Get the selected tuple based on the sorting attribute
-     * and immediately refills the selected buffer.
-     * Obtains the minimum tuple when Sort is set to ascending,
-     * or the maximum tuple when Sort is descending.
-     * @param inputBuffers The buffers used when merging
-     * @param tupleReaders The tuple readers used to read the sorted run files.
-     * @return
-     */
-    private Tuple getSelectedTuple(ArrayList<Batch> inputBuffers, ArrayList<TupleReader> tupleReaders) {
-
-        Tuple selectedTuple = null;
-        int selected = -1;
-
-        int compareResult;
-        for (int i = 0; i < inputBuffers.size(); i++) {
-
-            Batch inputBuffer = inputBuffers.get(i);
-
-            if (inputBuffer.isEmpty()) {
-                continue;
-            }
-
-            Tuple currTuple = inputBuffer.peek();
-
-            if (selectedTuple == null) {
-                selectedTuple = currTuple;
-                selected = i;
-                continue;
-            }
-
-            compareResult = compareTuples(currTuple, selectedTuple, attributeIndexes);
-
-            if ((isAsc && compareResult >= 0) || (!isAsc && compareResult <= 0)) {
-                continue;
-            }
-
-            selectedTuple = currTuple;
-            selected = i;
-        }
-
-        Batch selectedBatch = inputBuffers.get(selected);
-        TupleReader tr = tupleReaders.get(selected);
-        selectedTuple = selectedBatch.poll();
-
-        // Refill buffer
-        if (!tr.isEOF()) {
-            selectedBatch.add(tr.next());
-        } else {
+        for (TupleReader tr : tupleReaders) {
             tr.close();
         }
 
-        return selectedTuple;
+        return tuplesInSR;
     }
 
     /**
@@ -373,12 +458,18 @@ public class Sort extends Operator {
      */
     public boolean close() {
         // Close streams
-        tupleReader.close();
-        tupleWriter.close();
+        if (tupleReader != null) {
+            tupleReader.close();
+        }
+        if (tupleWriter != null) {
+            tupleWriter.close();
+        }
 
         // Remove temp files
-        File f = new File(sortedFileName);
-        f.delete();
+        if (sortedFileName != null) {
+            File f = new File(sortedFileName);
+            f.delete();
+        }
 
         return true;
     }
@@ -424,15 +515,7 @@ public class Sort extends Operator {
             return !tuple1.equals(tuple2);
         }
 
-        int result;
-        for (Integer i : attributeIndexes) {
-            result = Tuple.compareTuples(tuple1, tuple2, i);
-
-            if (result != 0) {
-                return true;
-            }
-        }
-        return false;
+        return comparator.compare(tuple1, tuple2) != 0;
     }
 
     public Operator getBase() {
@@ -7,35 +7,88 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
 import qp.utils.Tuple;
+import qp.utils.TupleComparator;
+import qp.utils.TupleReader;
+import qp.utils.TupleWriter;
 
-import java.io.*;
-import java.util.ArrayDeque;
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.Queue;
-import java.util.Set;
-import java.util.Stack;
+import java.util.UUID;
 
+/**
+ * Both inputs are sorted on the attributes of the equality conditions and merged,
+ * the other conditions are checked on every pair of tuples with the same key.
+ * * Without an equality condition, both inputs are sorted on the attributes of a
+ * * range condition, e.g. L.a >= R.b, and swept as a band join: the right tuples
+ * * satisfying the condition for the current left tuple also satisfy it for all
+ * * the next left tuples, so they are admitted into a window once. A right tuple
+ * * leaves the window when it fails a condition of the opposite direction on the
+ * * same left attribute, e.g. L.a <= R.c, which then fails for all the next left tuples.
+ * * With equality conditions, the keys of the smaller input are collected in a
+ * * Bloom filter while it is sorted, and the filter is pushed down to the scan of
+ * * the other input, so that most of its tuples without a match are never sorted.
+ * * An input which is the output of a sort merge join on the same attributes is
+ * * already in order and is not sorted again.
+ */
 public class SortMergeJoin extends Join {
 
-    private Sort leftSort;
-    private Sort rightSort;
+    static int fileNum = 0;                 // To get unique fileNum for this operation
+
+    private Operator leftSort;              // Left input sorted on the join attributes, the input itself if already sorted
+    private Operator rightSort;             // Right input sorted on the join attributes, the input itself if already sorted
 
-    private int batchNum;
+    private int batchNum;                   // Number of tuples per out batch
+    private int rightBatchSize;             // Number of tuples per page of the right input
+    private int groupCapacity;              // Number of right tuples of a group kept in memory
 
     private ArrayList<Integer> leftindex;   // Indices of the join attributes in left table
     private ArrayList<Integer> rightindex;  // Indices of the join attributes in right table
 
+    private TupleComparator leftToRight;    // Compares the join attributes of a left and a right tuple
+    private TupleComparator rightToRight;   // Compares the join attributes of two right tuples
+
     private ArrayList<Attribute> leftAttributeIndex;   //To support join
     private ArrayList<Attribute> rightAttributeIndex;  //To support join
 
+    private ArrayList<Integer> condLeftIndex;   // Indices of the attributes of every join condition in left table
+    private ArrayList<Integer> condRightIndex;  // Indices of the attributes of every join condition in right table
+    private ArrayList<Integer> exprTypes;       // Comparison operator of every join condition
+
+    // Band join, when no condition is an equality
+    private boolean isBand;                 // Whether the inputs are swept on a range condition
+    private ArrayList<Integer> sweepType;   // Comparison operator of the range condition swept
+    private ArrayList<Integer> expiryLeftIndex;   // Left attributes of the conditions removing tuples from the window
+    private ArrayList<Integer> expiryRightIndex;  // Right attributes of these conditions
+    private ArrayList<Integer> expiryTypes;       // Comparison operators of these conditions
+    private ArrayList<Tuple> window;        // Right tuples of the window kept in memory
+    private ArrayList<String> overflowFiles;      // Right tuples of the window which did not fit in memory
+    private TupleWriter overflowWriter;     // Writer of the last overflow file, null once closed
+    private TupleReader overflowReader;     // Reader of the overflow file being scanned
+    private TupleWriter compactWriter;      // Writer of the overflow tuples still in the window after the scan
+    private int windowCurs;                 // Cursor within the window, -1 once the memory part is scanned
+
+    // Input buffers
+    private Batch leftBatch;                // Buffer page for left input stream
+    private Batch rightBatch;               // Buffer page for right input stream
+    private int leftCurs;                   // Cursor for left side buffer page
+    private int rightCurs;                  // Cursor for right side buffer page
+    private boolean eosLeft;                // Whether end of stream (left table) is reached
+    private boolean eosRight;               // Whether end of stream (right table) is reached
+
+    // Current group of right tuples sharing the same join key
+    private ArrayList<Tuple> rightGroup;    // The group when it fits in memory
+    private String groupFileName;           // The file the group is spilled to, null if in memory
+    private TupleReader groupReader;        // Reader of the spilled group
+    private int groupCurs;                  // Cursor within the in memory group
+    private Tuple groupKey;                 // A tuple of the group, used to compare keys
+    private Tuple currLeft;                 // The left tuple being joined with the group
+    private boolean eos;                    // Whether end of stream is reached
+
+    private String uuid = UUID.randomUUID().toString(); // To avoid conflicts between Sort Merge Join operations
+
     /**
      * The constructor for SortMergeJoin operator
      * @param join
@@ -55,45 +108,216 @@ public class SortMergeJoin extends Join {
         leftAttributeIndex = new ArrayList<>();
         rightAttributeIndex = new ArrayList<>();
 
+        condLeftIndex = new ArrayList<>();
+        condRightIndex = new ArrayList<>();
+        exprTypes = new ArrayList<>();
+
         for (Condition con : conditionList) {
             Attribute leftattr = con.getLhs();
             Attribute rightattr = (Attribute) con.getRhs();
-            leftindex.add(left.getSchema().indexOf(leftattr));
-            rightindex.add(right.getSchema().indexOf(rightattr));
-            leftAttributeIndex.add(leftattr);
-            rightAttributeIndex.add(rightattr);
+            condLeftIndex.add(left.getSchema().indexOf(leftattr));
+            condRightIndex.add(right.getSchema().indexOf(rightattr));
+            exprTypes.add(con.getExprType());
+            if (con.getExprType() == Condition.EQUAL) {
+                leftindex.add(left.getSchema().indexOf(leftattr));
+                rightindex.add(right.getSchema().indexOf(rightattr));
+                leftAttributeIndex.add(leftattr);
+                rightAttributeIndex.add(rightattr);
+            }
+        }
+
+        boolean isAsc = true;
+        isBand = leftindex.isEmpty();
+        if (isBand) {
+            Condition sweep = null;
+            for (Condition con : conditionList) {
+                if (con.getExprType() != Condition.NOTEQUAL) {
+                    sweep = con;
+                    break;
+                }
+            }
+            if (sweep == null) {
+                System.err.println("SortMergeJoin: An equality or a range condition is needed to sort the tuples");
+                return false;
+            }
+            int sweepLeft = left.getSchema().indexOf(sweep.getLhs());
+            leftindex.add(sweepLeft);
+            rightindex.add(right.getSchema().indexOf((Attribute) sweep.getRhs()));
+            leftAttributeIndex.add(sweep.getLhs());
+            rightAttributeIndex.add((Attribute) sweep.getRhs());
+            sweepType = new ArrayList<>();
+            sweepType.add(sweep.getExprType());
+
+            /** L.a > R.b is swept in ascending order, L.a < R.b in descending order **/
+            isAsc = sweep.getExprType() == Condition.GREATERTHAN || sweep.getExprType() == Condition.GTOE;
+            expiryLeftIndex = new ArrayList<>();
+            expiryRightIndex = new ArrayList<>();
+            expiryTypes = new ArrayList<>();
+            for (int i = 0; i < conditionList.size(); i++) {
+                int exprtype = exprTypes.get(i);
+                boolean isUpperBound = exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE;
+                boolean isLowerBound = exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE;
+                if (condLeftIndex.get(i) == sweepLeft && (isAsc ? isUpperBound : isLowerBound)) {
+                    expiryLeftIndex.add(condLeftIndex.get(i));
+                    expiryRightIndex.add(condRightIndex.get(i));
+                    expiryTypes.add(exprtype);
+                }
+            }
+            window = new ArrayList<>();
+            overflowFiles = new ArrayList<>();
+            overflowWriter = null;
+            overflowReader = null;
+            compactWriter = null;
         }
 
+        leftToRight = new TupleComparator(left.getSchema(), leftindex, rightindex);
+        rightToRight = new TupleComparator(right.getSchema(), rightindex);
+
         // Find the batch size
         int tupleSize = getSchema().getTupleSize();
         batchNum = Batch.getPageSize() / tupleSize;
 
-
         if (batchNum < 1) {
             System.err.println("Page Size must be larger than Tuple Size in join operation");
             return false;
         }
 
-        // Sort the 2 relations
-        leftSort = new Sort(left, numBuff, leftAttributeIndex);
-        rightSort = new Sort(right, numBuff, rightAttributeIndex);
+        // One buffer for each input and one for output, the rest hold the current group
+        rightBatchSize = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+        groupCapacity = Math.max(1, numBuff - 3) * rightBatchSize;
+
+        leftBatch = null;
+        rightBatch = null;
+        leftCurs = 0;
+        rightCurs = 0;
+        eosLeft = false;
+        eosRight = false;
+        rightGroup = new ArrayList<>();
+        groupFileName = null;
+        groupReader = null;
+        groupKey = null;
+        currLeft = null;
+        eos = false;
 
+        // Sort the 2 relations
+        leftSort = isAsc && isSortedOn(left, leftAttributeIndex) ? left : new Sort(left, numBuff, leftAttributeIndex, isAsc, false);
+        rightSort = isAsc && isSortedOn(right, rightAttributeIndex) ? right : new Sort(right, numBuff, rightAttributeIndex, isAsc, false);
+
+        /** The smaller input is sorted first, collecting its keys in a Bloom filter
+         ** pushed down to the other input before it is sorted in turn
+         **/
+        if (!isBand && isBloomFilters() && equalityKeys(true).size() == leftAttributeIndex.size()) {
+            boolean buildLeft = estimateTuples(left) <= estimateTuples(right);
+            Operator build = buildLeft ? leftSort : rightSort;
+            Operator probe = buildLeft ? rightSort : leftSort;
+            ArrayList<Attribute> probeKeys = buildLeft ? rightAttributeIndex : leftAttributeIndex;
+            Scan target = bloomTarget(buildLeft ? right : left, probeKeys);
+            if (target != null && build instanceof Sort) {
+                BloomFilter filter = new BloomFilter(estimateTuples(buildLeft ? left : right));
+                ((Sort) build).setKeyFilter(filter);
+                if (!build.open()) {
+                    return false;
+                }
+                target.setBloomFilter(this, filter, probeKeys);
+                return probe.open();
+            }
+        }
         return leftSort.open() && rightSort.open();
     }
 
+    /**
+     * Whether the tuples of the operator come in ascending order of the attributes.
+     * * A sort merge join with equality conditions outputs its tuples in ascending
+     * * order of the attributes of these conditions, either side of each being the
+     * * same value, and selections and projections keep the order of their input.
+     **/
+    public static boolean isSortedOn(Operator node, ArrayList<Attribute> attrs) {
+        while (node.getOpType() == OpType.SELECT || node.getOpType() == OpType.PROJECT) {
+            node = node.getBase();
+        }
+        if (attrs.isEmpty() || node.getOpType() != OpType.JOIN || ((Join) node).getJoinType() != JoinType.SORTMERGE) {
+            return false;
+        }
+        ArrayList<Condition> equalities = new ArrayList<>();
+        for (Condition con : ((Join) node).getConditionList()) {
+            if (con.getExprType() == Condition.EQUAL) {
+                equalities.add(con);
+            }
+        }
+        if (equalities.size() < attrs.size()) {
+            return false;
+        }
+        for (int i = 0; i < attrs.size(); i++) {
+            Condition con = equalities.get(i);
+            if (!attrs.get(i).equals(con.getLhs()) && !attrs.get(i).equals(con.getRhs())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * from sorted tuples select the tuples satisfying the join conditions
      * * And returns a page of output tuples
      **/
     @Override
     public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        if (isBand) {
+            return nextBand();
+        }
+
+        Batch joinBatch = new Batch(batchNum);
+        while (!joinBatch.isFull()) {
+            if (currLeft != null) {
+                Tuple rightTuple = nextGroupTuple();
+                if (rightTuple != null) {
+                    if (currLeft.checkJoin(rightTuple, condLeftIndex, condRightIndex, exprTypes)) {
+                        joinBatch.add(currLeft.joinWith(rightTuple));
+                    }
+                    continue;
+                }
+
+                // The group is exhausted for this left tuple, move on to the next left tuple
+                currLeft = null;
+                Tuple leftTuple = peekLeft();
+                if (leftTuple != null && compareLeftToGroup(leftTuple) == 0) {
+                    currLeft = leftTuple;
+                    advanceLeft();
+                    rewindGroup();
+                    continue;
+                }
+                clearGroup();
+            }
+
+            Tuple leftTuple = peekLeft();
+            Tuple rightTuple = peekRight();
+            if (leftTuple == null || rightTuple == null) {
+                eos = true;
+                break;
+            }
+
+            int compare = compareLeftToRight(leftTuple, rightTuple);
+            if (compare < 0) {
+                advanceLeft();
+            } else if (compare > 0) {
+                advanceRight();
+            } else {
+                readGroup();
+                currLeft = leftTuple;
+                advanceLeft();
+                rewindGroup();
+            }
+        }
 
-        Batch joinBatch = findMatchingTuples();
-        if (!joinBatch.isEmpty()) {
-            return joinBatch;
-        } else {
+        if (joinBatch.isEmpty()) {
+            close();
             return null;
         }
+        return joinBatch;
     }
 
     /**
@@ -101,136 +325,270 @@ public class SortMergeJoin extends Join {
      */
     @Override
     public boolean close() {
+        clearGroup();
+        if (isBand) {
+            clearWindow();
+        }
         return leftSort.close() && rightSort.close();
     }
 
-
     /**
-     * from input buffers selects the tuples satisfying join condition
+     * Joins every left tuple with the window of right tuples, after admitting
+     * * the right tuples which satisfy the range condition swept
      **/
-    private Batch findMatchingTuples() {
-
+    private Batch nextBand() {
         Batch joinBatch = new Batch(batchNum);
-        System.out.println("Batch num is " +batchNum);
-
-        Batch leftBatch = leftSort.next();
-        Batch rightBatch = rightSort.next();
+        while (!joinBatch.isFull()) {
+            if (currLeft == null) {
+                currLeft = peekLeft();
+                if (currLeft == null) {
+                    eos = true;
+                    break;
+                }
+                advanceLeft();
+                admitRight();
+                startWindowScan();
+            }
 
-        if (leftBatch == null || rightBatch == null) {
-            return joinBatch;
+            Tuple rightTuple = nextWindowTuple();
+            if (rightTuple == null) {
+                endWindowScan();
+                currLeft = null;
+            } else if (currLeft.checkJoin(rightTuple, condLeftIndex, condRightIndex, exprTypes)) {
+                joinBatch.add(currLeft.joinWith(rightTuple));
+            }
         }
 
-        ArrayList<Tuple> leftFetch = new ArrayList<>();
-        ArrayList<Tuple> rightFetch = new ArrayList<>();
-
-        while (leftBatch != null) {
-            leftFetch.addAll(leftBatch.getTuples());
-            leftBatch = leftSort.next();
+        if (joinBatch.isEmpty()) {
+            close();
+            return null;
         }
+        return joinBatch;
+    }
 
-        while (rightBatch != null) {
-            rightFetch.addAll(rightBatch.getTuples());
-            rightBatch = rightSort.next();
+    /**
+     * Moves into the window the right tuples satisfying the range condition for the current left tuple
+     **/
+    private void admitRight() {
+        Tuple rightTuple;
+        while ((rightTuple = peekRight()) != null
+                && currLeft.checkJoin(rightTuple, leftindex, rightindex, sweepType)) {
+            if (window.size() < groupCapacity) {
+                window.add(rightTuple);
+            } else {
+                if (overflowWriter == null) {
+                    fileNum++;
+                    String filename = String.format("SMJtemp-%s-%d", uuid, fileNum);
+                    overflowWriter = new TupleWriter(filename, rightBatchSize, right.getSchema());
+                    overflowWriter.open();
+                    overflowFiles.add(filename);
+                }
+                overflowWriter.next(rightTuple);
+            }
+            advanceRight();
         }
+    }
 
-        Deque<Tuple> leftTuples = new ArrayDeque<>(leftFetch);
-        Deque<Tuple> rightTuples = new ArrayDeque<>(rightFetch);
-
-        Tuple leftTuple = leftTuples.pollFirst();
-        Tuple rightTuple = rightTuples.pollFirst();
-
-        Set<Tuple> leftSet = new HashSet<>();
-        Set<Tuple> rightSet = new HashSet<>();
-
+    /**
+     * Whether the right tuple fails a condition it will fail for all the next left tuples
+     **/
+    private boolean hasExpired(Tuple rightTuple) {
+        return !expiryTypes.isEmpty() && !currLeft.checkJoin(rightTuple, expiryLeftIndex, expiryRightIndex, expiryTypes);
+    }
 
-        while (leftTuple != null && rightTuple != null) {
+    private void startWindowScan() {
+        windowCurs = 0;
+        if (overflowWriter != null) {
+            overflowWriter.close();
+            overflowWriter = null;
+        }
+        if (!overflowFiles.isEmpty()) {
+            fileNum++;
+            String filename = String.format("SMJtemp-%s-%d", uuid, fileNum);
+            compactWriter = new TupleWriter(filename, rightBatchSize, right.getSchema());
+            compactWriter.open();
+            overflowReader = new TupleReader(overflowFiles.get(0), rightBatchSize);
+            overflowReader.open();
+        }
+    }
 
-            int compare = 0;
-            int conditionPos = 0;
-            for (int i = 0; i < leftindex.size(); i++) {
-                int leftSingleIndex = leftindex.get(i);
-                int rightSingleIndex = rightindex.get(i);
-                //get the minimum value of the 2 for their 2 sorting keys
-                compare = Tuple.compareTuples(leftTuple, rightTuple, leftSingleIndex, rightSingleIndex);
-                if (compare == 0) {
-                    conditionPos++;
-                } else {
-                    break;
+    /**
+     * Returns the next tuple of the window for the current left tuple, dropping the expired tuples.
+     * * The overflow files are rewritten without them, moving tuples into memory when there is room.
+     **/
+    private Tuple nextWindowTuple() {
+        while (windowCurs != -1 && windowCurs < window.size()) {
+            Tuple rightTuple = window.get(windowCurs);
+            if (hasExpired(rightTuple)) {
+                window.set(windowCurs, window.get(window.size() - 1));
+                window.remove(window.size() - 1);
+                continue;
+            }
+            windowCurs++;
+            return rightTuple;
+        }
+        windowCurs = -1;
+
+        while (overflowReader != null) {
+            if (overflowReader.isEOF()) {
+                overflowReader.close();
+                new File(overflowFiles.remove(0)).delete();
+                overflowReader = null;
+                if (!overflowFiles.isEmpty()) {
+                    overflowReader = new TupleReader(overflowFiles.get(0), rightBatchSize);
+                    overflowReader.open();
                 }
+                continue;
             }
-
-            Tuple leftComparatorTuple = null;
-            Tuple rightComparatorTuple = null;
-            //Comparators to stop the loop
-            if (compare == 0) {
-                leftComparatorTuple = leftTuple;
-                rightComparatorTuple = rightTuple;
-            } else if (compare < 0) {
-                leftComparatorTuple = leftTuple;
+            Tuple rightTuple = overflowReader.next();
+            if (hasExpired(rightTuple)) {
+                continue;
+            }
+            if (window.size() < groupCapacity) {
+                window.add(rightTuple);
             } else {
-                rightComparatorTuple = rightTuple;
+                compactWriter.next(rightTuple);
             }
+            return rightTuple;
+        }
+        return null;
+    }
 
-            //Comparators to proceed the loop on the eliminating table, assuming the null is passed
-            ArrayList<Integer> leftAttributeIndexes = new ArrayList<>();
-            ArrayList<Integer> rightAttributeIndexes = new ArrayList<>();
-            if (compare == 0) {
-                //Take the entire indices
-                leftAttributeIndexes = leftindex;
-                rightAttributeIndexes = rightindex;
+    private void endWindowScan() {
+        if (compactWriter != null) {
+            compactWriter.close();
+            if (compactWriter.getNumTuple() == 0) {
+                new File(compactWriter.getFileName()).delete();
             } else {
-                //Include the one it stopped at
-                for (int i = 0; i <= conditionPos; i++) {
-                    leftAttributeIndexes.add(leftindex.get(i));
-                }
+                overflowFiles.add(compactWriter.getFileName());
+            }
+            compactWriter = null;
+        }
+    }
 
-                for (int i = 0; i <= conditionPos; i++) {
-                    rightAttributeIndexes.add(rightindex.get(i));
+    private void clearWindow() {
+        window.clear();
+        if (overflowReader != null) {
+            overflowReader.close();
+            overflowReader = null;
+        }
+        if (overflowWriter != null) {
+            overflowWriter.close();
+            overflowWriter = null;
+        }
+        if (compactWriter != null) {
+            compactWriter.close();
+            new File(compactWriter.getFileName()).delete();
+            compactWriter = null;
+        }
+        for (String filename : overflowFiles) {
+            new File(filename).delete();
+        }
+        overflowFiles.clear();
+    }
+
+    /**
+     * Reads all right tuples with the same key as the next right tuple.
+     * The group is spilled to a temporary file if it exceeds the buffers available.
+     */
+    private void readGroup() {
+        groupKey = peekRight();
+        TupleWriter groupWriter = null;
+
+        Tuple rightTuple;
+        while ((rightTuple = peekRight()) != null
+                && rightToRight.compare(groupKey, rightTuple) == 0) {
+            if (groupWriter == null && rightGroup.size() >= groupCapacity) {
+                fileNum++;
+                groupFileName = String.format("SMJtemp-%s-%d", uuid, fileNum);
+                groupWriter = new TupleWriter(groupFileName, rightBatchSize, right.getSchema());
+                groupWriter.open();
+                for (Tuple t : rightGroup) {
+                    groupWriter.next(t);
                 }
+                rightGroup.clear();
             }
 
-            //Removing of tuples based on the stopping attributes for each table if applicable
-            while (leftComparatorTuple != null && leftTuple != null
-                    && Sort.compareTuples(leftComparatorTuple, leftTuple, leftAttributeIndexes) == 0) {
-                leftSet.add(leftTuple);
-                leftTuple = leftTuples.pollFirst();
+            if (groupWriter != null) {
+                groupWriter.next(rightTuple);
+            } else {
+                rightGroup.add(rightTuple);
             }
+            advanceRight();
+        }
 
-            //Removing of tuples based on the stopping attributes for each table if applicable
-            while (rightComparatorTuple != null && rightTuple != null
-                    && Sort.compareTuples(rightComparatorTuple, rightTuple, rightAttributeIndexes) == 0) {
-                rightSet.add(rightTuple);
-                rightTuple = rightTuples.pollFirst();
+        if (groupWriter != null) {
+            groupWriter.close();
+        }
+    }
+
+    /**
+     * Restarts the iteration over the current group
+     */
+    private void rewindGroup() {
+        groupCurs = 0;
+        if (groupFileName != null) {
+            if (groupReader != null) {
+                groupReader.close();
             }
+            groupReader = new TupleReader(groupFileName, rightBatchSize);
+            groupReader.open();
+        }
+    }
 
-            join(leftSet, rightSet, joinBatch);
-            leftSet.clear();
-            rightSet.clear();
+    private Tuple nextGroupTuple() {
+        if (groupFileName != null) {
+            return groupReader.isEOF() ? null : groupReader.next();
         }
+        return groupCurs < rightGroup.size() ? rightGroup.get(groupCurs++) : null;
+    }
 
-        return joinBatch;
+    private void clearGroup() {
+        rightGroup.clear();
+        groupKey = null;
+        if (groupReader != null) {
+            groupReader.close();
+            groupReader = null;
+        }
+        if (groupFileName != null) {
+            File f = new File(groupFileName);
+            f.delete();
+            groupFileName = null;
+        }
     }
 
+    private int compareLeftToRight(Tuple leftTuple, Tuple rightTuple) {
+        return leftToRight.compare(leftTuple, rightTuple);
+    }
 
-    private void join(Set<Tuple> leftSet, Set<Tuple> rightSet, Batch joinBatch) {
-        for (Tuple leftTuple : leftSet) {
-            for (Tuple rightTuple : rightSet) {
-                Tuple joinTuple = leftTuple.joinWith(rightTuple);
-                joinBatch.add(joinTuple);
-            }
+    private int compareLeftToGroup(Tuple leftTuple) {
+        return compareLeftToRight(leftTuple, groupKey);
+    }
+
+    private Tuple peekLeft() {
+        while (!eosLeft && (leftBatch == null || leftCurs >= leftBatch.size())) {
+            leftBatch = leftSort.next();
+            leftCurs = 0;
+            eosLeft = leftBatch == null;
         }
+        return eosLeft ? null : leftBatch.get(leftCurs);
     }
 
-    // Debugging
-    private void printTuple(Tuple t) {
-        System.out.print("(");
-        System.out.print(t.dataAt(0) + " ");
-        System.out.print(t.dataAt(1) + " ");
-        System.out.print(t.dataAt(2) + " ");
-        System.out.print(t.dataAt(3) + " ");
+    private void advanceLeft() {
+        leftCurs++;
+    }
 
+    private Tuple peekRight() {
+        while (!eosRight && (rightBatch == null || rightCurs >= rightBatch.size())) {
+            rightBatch = rightSort.next();
+            rightCurs = 0;
+            eosRight = rightBatch == null;
+        }
+        return eosRight ? null : rightBatch.get(rightCurs);
+    }
 
-        System.out.println(")");
+    private void advanceRight() {
+        rightCurs++;
     }
 
 }
@@ -1,16 +1,45 @@
 /**
  * simple buffer manager that distributes the buffers equally among all the join operators
+ * and manages the buffer pool through which the files are read and written
  **/
 
 package qp.optimizer;
 
+import qp.utils.Batch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * The buffer pool is a fixed number of frames of Batch.getPageSize() bytes.
+ * * A page is pinned while it is used and may only be evicted once unpinned.
+ * * Pages modified are written back to the file when they are evicted, or when
+ * * the writer of the file closes it, so no dirty page outlives its writer.
+ * * When all the frames are pinned, the page is read or written through a
+ * * temporary frame outside of the pool instead of failing the query.
+ * * Without a buffer pool the files are read and written as plain streams.
+ */
 public class BufferManager {
 
+    public static final int DEFAULT_POOL_SIZE = 1024;   // Default number of frames of the buffer pool
+
     static int numBuffer;
     static int numJoin;
 
     static int buffPerJoin;
 
+    static Page[] frames;                                       // Frames of the buffer pool, null if there is no pool
+    static HashMap<String, HashMap<Long, Page>> pageTable;      // Pages in the pool of each file
+    static HashMap<String, FileHandle> openFiles;               // Files with open streams
+    static ReplacementPolicy policy;                            // Chooses the frames to evict
+    static int nextFree;                                        // Frames from nextFree onwards were never used
+
+    static long numHits;       // Number of pins of pages already in the pool
+    static long numMisses;     // Number of pins that read the page from the file
+    static long numWrites;     // Number of pages written back to the files
+
     public BufferManager(int numBuffer, int numJoin) {
         this.numBuffer = numBuffer;
         this.numJoin = numJoin;
@@ -23,4 +52,312 @@ public class BufferManager {
 
     public static int getNumberOfBuffer() { return numBuffer; }
 
+    /**
+     * Creates the buffer pool with the given number of frames of Batch.getPageSize() bytes.
+     * * Pages of the previous pool are written back first.
+     **/
+    public static synchronized void createBufferPool(int numFrames, ReplacementPolicy replacement) {
+        flushAll();
+        frames = new Page[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            frames[i] = new Page(i, Batch.getPageSize());
+        }
+        pageTable = new HashMap<>();
+        openFiles = new HashMap<>();
+        policy = replacement;
+        policy.init(numFrames);
+        nextFree = 0;
+        resetStatistics();
+    }
+
+    public static boolean hasBufferPool() {
+        return frames != null;
+    }
+
+    public static int getPoolSize() {
+        return frames == null ? 0 : frames.length;
+    }
+
+    /**
+     * Returns the pinned page of the file, reading it if it is not in the pool.
+     * * Returns null if the page is past the end of the file.
+     **/
+    public static synchronized Page pinPage(String filename, long pageNo) throws IOException {
+        HashMap<Long, Page> pages = pageTable.get(filename);
+        Page page = pages == null ? null : pages.get(pageNo);
+        if (page != null) {
+            numHits++;
+            page.pinCount++;
+            policy.recordAccess(page.frame);
+            return page;
+        }
+
+        page = allocate(filename, pageNo);
+        if (page == null) {
+            page = temporaryPage(filename, pageNo);
+        }
+        FileChannel channel = getChannel(filename, false);
+        ByteBuffer buffer = ByteBuffer.wrap(page.data);
+        long position = pageNo * page.data.length;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        page.length = buffer.position();
+        if (page.length == 0) {
+            release(page);
+            return null;
+        }
+        numMisses++;
+        return page;
+    }
+
+    /**
+     * Returns a pinned empty page of the file, to be filled by the caller
+     **/
+    public static synchronized Page newPage(String filename, long pageNo) {
+        HashMap<Long, Page> pages = pageTable.get(filename);
+        Page page = pages == null ? null : pages.get(pageNo);
+        if (page != null) {
+            page.pinCount++;
+            policy.recordAccess(page.frame);
+        } else {
+            page = allocate(filename, pageNo);
+        }
+        if (page == null) {
+            page = temporaryPage(filename, pageNo);
+        }
+        page.length = 0;
+        return page;
+    }
+
+    /**
+     * Releases a page pinned by pinPage or newPage, a modified page outside
+     * * of the pool is written back at once
+     **/
+    public static synchronized void unpinPage(Page page, boolean dirty) throws IOException {
+        page.pinCount--;
+        page.dirty |= dirty;
+        if (page.frame == -1 && page.dirty) {
+            writePage(page);
+        }
+    }
+
+    /**
+     * Writes back the dirty pages of the file
+     **/
+    public static synchronized void flushFile(String filename) throws IOException {
+        HashMap<Long, Page> pages = pageTable.get(filename);
+        if (pages == null) {
+            return;
+        }
+        for (Page page : pages.values()) {
+            if (page.dirty) {
+                writePage(page);
+            }
+        }
+    }
+
+    /**
+     * Discards the pages of the file without writing them back
+     **/
+    public static synchronized void dropFile(String filename) {
+        HashMap<Long, Page> pages = pageTable.remove(filename);
+        if (pages == null) {
+            return;
+        }
+        for (Page page : pages.values()) {
+            page.dirty = false;
+            page.filename = null;
+        }
+    }
+
+    /**
+     * Opens a stream reading the file through the buffer pool, if any
+     **/
+    public static InputStream openInputStream(String filename) throws IOException {
+        if (!hasBufferPool()) {
+            return new BufferedInputStream(new FileInputStream(filename));
+        }
+        if (!new File(filename).isFile()) {
+            throw new FileNotFoundException(filename);
+        }
+        synchronized (BufferManager.class) {
+            openFile(filename, false);
+        }
+        return new PageInputStream(filename);
+    }
+
+    /**
+     * Creates or truncates the file and opens a stream writing it through the buffer pool, if any
+     **/
+    public static OutputStream openOutputStream(String filename) throws IOException {
+        if (!hasBufferPool()) {
+            return new BufferedOutputStream(new FileOutputStream(filename));
+        }
+        synchronized (BufferManager.class) {
+            dropFile(filename);
+            openFile(filename, true);
+            openFiles.get(filename).file.setLength(0);
+        }
+        return new PageOutputStream(filename);
+    }
+
+    /**
+     * Called by the streams when they are closed
+     **/
+    static synchronized void closeFile(String filename) throws IOException {
+        FileHandle handle = openFiles.get(filename);
+        if (handle == null) {
+            return;
+        }
+        handle.users--;
+        if (handle.users == 0) {
+            openFiles.remove(filename);
+            handle.file.close();
+        }
+    }
+
+    public static synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public static synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    public static synchronized long getNumWrites() {
+        return numWrites;
+    }
+
+    public static synchronized double getHitRatio() {
+        long numPins = numHits + numMisses;
+        return numPins == 0 ? 0 : (double) numHits / numPins;
+    }
+
+    public static synchronized void resetStatistics() {
+        numHits = 0;
+        numMisses = 0;
+        numWrites = 0;
+    }
+
+    /**
+     * Takes a free frame, or evicts a page, and assigns it to the page of the file.
+     * * Returns null if all the frames are pinned.
+     **/
+    private static Page allocate(String filename, long pageNo) {
+        Page page;
+        if (nextFree < frames.length) {
+            page = frames[nextFree++];
+        } else {
+            int victim = policy.pickVictim(frames);
+            if (victim == -1) {
+                return null;
+            }
+            page = frames[victim];
+            if (page.filename != null) {
+                if (page.dirty) {
+                    try {
+                        writePage(page);
+                    } catch (IOException io) {
+                        System.err.println("BufferManager: error writing back " + page.filename);
+                        System.exit(1);
+                    }
+                }
+                pageTable.get(page.filename).remove(page.pageNo);
+            }
+        }
+        page.filename = filename;
+        page.pageNo = pageNo;
+        page.length = 0;
+        page.pinCount = 1;
+        page.dirty = false;
+        pageTable.computeIfAbsent(filename, f -> new HashMap<>()).put(pageNo, page);
+        policy.recordLoad(page.frame);
+        return page;
+    }
+
+    /**
+     * A pinned page outside of the pool, used when all the frames are pinned
+     **/
+    private static Page temporaryPage(String filename, long pageNo) {
+        Page page = new Page(-1, frames[0].data.length);
+        page.filename = filename;
+        page.pageNo = pageNo;
+        page.pinCount = 1;
+        return page;
+    }
+
+    /**
+     * Gives the frame of a page that does not exist back
+     **/
+    private static void release(Page page) {
+        if (page.frame != -1) {
+            pageTable.get(page.filename).remove(page.pageNo);
+        }
+        page.filename = null;
+        page.pinCount = 0;
+    }
+
+    private static void writePage(Page page) throws IOException {
+        FileChannel channel = getChannel(page.filename, true);
+        ByteBuffer buffer = ByteBuffer.wrap(page.data, 0, page.length);
+        long position = page.pageNo * page.data.length;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        page.dirty = false;
+        numWrites++;
+    }
+
+    private static void flushAll() {
+        if (frames == null) {
+            return;
+        }
+        for (String filename : pageTable.keySet()) {
+            try {
+                flushFile(filename);
+            } catch (IOException io) {
+                System.err.println("BufferManager: error writing back " + filename);
+            }
+        }
+    }
+
+    private static void openFile(String filename, boolean write) throws IOException {
+        FileHandle handle = openFiles.get(filename);
+        if (handle == null) {
+            handle = new FileHandle(filename, write);
+            openFiles.put(filename, handle);
+        } else if (write && !handle.writable) {
+            handle.file.close();
+            handle.file = new RandomAccessFile(filename, "rw");
+            handle.writable = true;
+        }
+        handle.users++;
+    }
+
+    private static FileChannel getChannel(String filename, boolean write) throws IOException {
+        FileHandle handle = openFiles.get(filename);
+        if (handle == null || (write && !handle.writable)) {
+            throw new IOException(filename + " is not open for " + (write ? "writing" : "reading"));
+        }
+        return handle.file.getChannel();
+    }
+
+    /**
+     * A file opened by the streams of the buffer pool
+     **/
+    static class FileHandle {
+        RandomAccessFile file;
+        boolean writable;
+        int users;
+
+        FileHandle(String filename, boolean write) throws IOException {
+            this.file = new RandomAccessFile(filename, write ? "rw" : "r");
+            this.writable = write;
+        }
+    }
+
 }
@@ -0,0 +1,100 @@
+/**
+ * In-memory catalog of the schemas and statistics of the tables
+ **/
+
+package qp.optimizer;
+
+import qp.utils.Schema;
+import qp.utils.ZoneMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The schema <tablename>.md, the statistics <tablename>.stat and the zone map
+ * * <tablename>.zm of a table are read the first time they are needed and kept
+ * * for the following plans. An entry is read again when the modification time
+ * * of its file changes, so tables regenerated while the catalog is in use are
+ * * seen. The optimizers cost many plans of the same tables, and their workers
+ * * look the tables up concurrently.
+ */
+public class Catalog {
+
+    static final ConcurrentHashMap<String, Entry<Schema>> schemas = new ConcurrentHashMap<>();
+    static final ConcurrentHashMap<String, Entry<TableStatistics>> statistics = new ConcurrentHashMap<>();
+    static final ConcurrentHashMap<String, Entry<ZoneMap>> zonemaps = new ConcurrentHashMap<>();
+
+    /**
+     * The schema of the table, a copy the caller may modify
+     **/
+    public static Schema getSchema(String tabname) throws IOException, ClassNotFoundException {
+        String filename = tabname + ".md";
+        long modified = new File(filename).lastModified();
+        Entry<Schema> entry = schemas.get(tabname);
+        if (entry == null || entry.modified != modified) {
+            ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
+            Schema schm = (Schema) _if.readObject();
+            _if.close();
+            entry = new Entry<>(modified, schm);
+            schemas.put(tabname, entry);
+        }
+        return (Schema) entry.value.clone();
+    }
+
+    /**
+     * The statistics of the table with the given schema
+     **/
+    public static TableStatistics getStatistics(String tabname, Schema schema) {
+        String filename = tabname + ".stat";
+        long modified = new File(filename).lastModified();
+        Entry<TableStatistics> entry = statistics.get(tabname);
+        if (entry == null || entry.modified != modified || entry.value.getNumCols() != schema.getNumCols()) {
+            entry = new Entry<>(modified, TableStatistics.read(filename, schema));
+            statistics.put(tabname, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * The zone map of the table, null if it has none up to date with the table
+     **/
+    public static ZoneMap getZoneMap(String tabname) throws IOException {
+        if (!ZoneMap.hasZoneMap(tabname)) {
+            return null;
+        }
+        String filename = ZoneMap.zoneMapFile(tabname);
+        long modified = new File(filename).lastModified();
+        Entry<ZoneMap> entry = zonemaps.get(tabname);
+        if (entry == null || entry.modified != modified) {
+            entry = new Entry<>(modified, ZoneMap.read(filename));
+            zonemaps.put(tabname, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Forgets all the tables
+     **/
+    public static void clear() {
+        schemas.clear();
+        statistics.clear();
+        zonemaps.clear();
+    }
+
+    /**
+     * A value read from a file, with the modification time of the file when read
+     **/
+    static class Entry<T> {
+        final long modified;
+        final T value;
+
+        Entry(long modified, T value) {
+            this.modified = modified;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Clock (second chance) replacement
+ **/
+
+package qp.optimizer;
+
+public class ClockPolicy implements ReplacementPolicy {
+
+    boolean[] referenced;   // Reference bit of each frame
+    int hand;               // Next frame to be considered
+
+    public void init(int numFrames) {
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public void recordAccess(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void recordLoad(int frame) {
+        referenced[frame] = true;
+    }
+
+    /**
+     * Sweeps the frames, clearing the reference bits, until an unpinned frame
+     * * that was not referenced since the last sweep is found. Two full turns are
+     * * enough to clear every bit, after that all the frames are pinned.
+     **/
+    public int pickVictim(Page[] frames) {
+        for (int i = 0; i < 2 * frames.length; i++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            if (frames[frame].isPinned()) {
+                continue;
+            }
+            if (!referenced[frame]) {
+                return frame;
+            }
+            referenced[frame] = false;
+        }
+        return -1;
+    }
+
+}
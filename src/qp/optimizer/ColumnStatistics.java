@@ -0,0 +1,284 @@
+/**
+ * Distribution of the values of an attribute of a table
+ **/
+
+package qp.optimizer;
+
+import qp.utils.Attribute;
+import qp.utils.Condition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The most common values of the attribute are kept with the fraction of the
+ * * tuples holding each of them. The other values are described by an equi-depth
+ * * histogram: the bounds split them into buckets holding as many tuples each.
+ * A value not in the list is assumed to be as frequent as the other values not in
+ * the list, and the values in a bucket to be spread uniformly between its bounds.
+ */
+public class ColumnStatistics {
+
+    public static final int DEFAULT_MCVS = 10;      // Most common values kept per attribute
+    public static final int DEFAULT_BUCKETS = 20;   // Buckets of the histogram per attribute
+
+    long numDistinct;          // Number of distinct values of the attribute
+    Object[] mcvs;             // Most common values, Integer, Float or String
+    double[] mcvFractions;     // Fraction of the tuples holding each of them
+    Object[] bounds;           // Bounds of the buckets of the histogram, increasing, none if empty
+
+    public ColumnStatistics(long numDistinct, Object[] mcvs, double[] mcvFractions, Object[] bounds) {
+        this.numDistinct = numDistinct;
+        this.mcvs = mcvs;
+        this.mcvFractions = mcvFractions;
+        this.bounds = bounds;
+    }
+
+    public long getNumDistinct() {
+        return numDistinct;
+    }
+
+    public void setNumDistinct(long numDistinct) {
+        this.numDistinct = numDistinct;
+    }
+
+    public Object[] getMcvs() {
+        return mcvs;
+    }
+
+    public double[] getMcvFractions() {
+        return mcvFractions;
+    }
+
+    public Object[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Builds the statistics of the values of an attribute, keeping at most numMcvs
+     * * values more frequent than the average, and numBuckets buckets of the others
+     **/
+    public static ColumnStatistics build(ArrayList<Object> values, int numMcvs, int numBuckets) {
+        Object[] sorted = values.toArray();
+        Arrays.sort(sorted, ColumnStatistics::compareValues);
+        int n = sorted.length;
+
+        /** Runs of equal values **/
+        ArrayList<Object> distinct = new ArrayList<>();
+        ArrayList<Integer> counts = new ArrayList<>();
+        for (int i = 0; i < n; ) {
+            int j = i + 1;
+            while (j < n && compareValues(sorted[j], sorted[i]) == 0) {
+                j++;
+            }
+            distinct.add(sorted[i]);
+            counts.add(j - i);
+            i = j;
+        }
+
+        /** The most frequent values, if all fit or more frequent than the average **/
+        Integer[] order = new Integer[distinct.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> -counts.get(i)).thenComparing(i -> i));
+        double average = (double) n / Math.max(1, distinct.size());
+        int numKept = 0;
+        while (numKept < Math.min(numMcvs, order.length)
+                && (distinct.size() <= numMcvs || (counts.get(order[numKept]) > 1 && counts.get(order[numKept]) > average))) {
+            numKept++;
+        }
+        Object[] mcvs = new Object[numKept];
+        double[] mcvFractions = new double[numKept];
+        boolean[] isMcv = new boolean[distinct.size()];
+        for (int k = 0; k < numKept; k++) {
+            mcvs[k] = distinct.get(order[k]);
+            mcvFractions[k] = (double) counts.get(order[k]) / n;
+            isMcv[order[k]] = true;
+        }
+
+        /** Equi-depth histogram of the other values **/
+        ArrayList<Object> rest = new ArrayList<>();
+        for (int d = 0; d < distinct.size(); d++) {
+            if (!isMcv[d]) {
+                for (int c = 0; c < counts.get(d); c++) {
+                    rest.add(distinct.get(d));
+                }
+            }
+        }
+        Object[] bounds = new Object[0];
+        if (!rest.isEmpty()) {
+            int buckets = Math.max(1, Math.min(numBuckets, rest.size() - 1));
+            bounds = new Object[buckets + 1];
+            for (int b = 0; b <= buckets; b++) {
+                bounds[b] = rest.get((int) ((long) b * (rest.size() - 1) / buckets));
+            }
+        }
+        return new ColumnStatistics(distinct.size(), mcvs, mcvFractions, bounds);
+    }
+
+    /**
+     * Fraction of the tuples satisfying the comparison of the attribute with the constant
+     **/
+    public double selectivity(int exprtype, Object constant) {
+        double selectivity;
+        switch (exprtype) {
+            case Condition.EQUAL:
+                selectivity = equalFraction(constant);
+                break;
+            case Condition.NOTEQUAL:
+                selectivity = 1 - equalFraction(constant);
+                break;
+            case Condition.LESSTHAN:
+                selectivity = lessFraction(constant);
+                break;
+            case Condition.LTOE:
+                selectivity = lessFraction(constant) + equalFraction(constant);
+                break;
+            case Condition.GREATERTHAN:
+                selectivity = 1 - lessFraction(constant) - equalFraction(constant);
+                break;
+            case Condition.GTOE:
+                selectivity = 1 - lessFraction(constant);
+                break;
+            default:
+                selectivity = 1;
+        }
+        return Math.min(1, Math.max(0, selectivity));
+    }
+
+    /**
+     * Fraction of the tuples of an equijoin of two attributes with statistics, out of
+     * * the cross product: the common values of the lists match exactly, and the
+     * * other values of each side match those of the other side as in a uniform
+     * * distribution.
+     **/
+    public static double joinSelectivity(ColumnStatistics left, ColumnStatistics right) {
+        double matched = 0;
+        double leftMatched = 0;
+        double rightMatched = 0;
+        int numMatches = 0;
+        for (int i = 0; i < left.mcvs.length; i++) {
+            for (int j = 0; j < right.mcvs.length; j++) {
+                if (compareValues(left.mcvs[i], right.mcvs[j]) == 0) {
+                    matched += left.mcvFractions[i] * right.mcvFractions[j];
+                    leftMatched += left.mcvFractions[i];
+                    rightMatched += right.mcvFractions[j];
+                    numMatches++;
+                }
+            }
+        }
+        double leftOther = 1 - left.mcvTotal();
+        double rightOther = 1 - right.mcvTotal();
+        double leftUnmatched = left.mcvTotal() - leftMatched;
+        double rightUnmatched = right.mcvTotal() - rightMatched;
+
+        /** Each side's values not matched by the lists, against the other side's values **/
+        double fromLeft = matched;
+        if (right.numDistinct > right.mcvs.length) {
+            fromLeft += leftUnmatched * rightOther / (right.numDistinct - right.mcvs.length);
+        }
+        if (right.numDistinct > numMatches) {
+            fromLeft += leftOther * (rightOther + rightUnmatched) / (right.numDistinct - numMatches);
+        }
+        double fromRight = matched;
+        if (left.numDistinct > left.mcvs.length) {
+            fromRight += rightUnmatched * leftOther / (left.numDistinct - left.mcvs.length);
+        }
+        if (left.numDistinct > numMatches) {
+            fromRight += rightOther * (leftOther + leftUnmatched) / (left.numDistinct - numMatches);
+        }
+        return Math.min(1, Math.min(fromLeft, fromRight));
+    }
+
+    private double mcvTotal() {
+        double total = 0;
+        for (double fraction : mcvFractions) {
+            total += fraction;
+        }
+        return Math.min(1, total);
+    }
+
+    /**
+     * Fraction of the tuples equal to the constant
+     **/
+    private double equalFraction(Object constant) {
+        for (int i = 0; i < mcvs.length; i++) {
+            if (compareValues(mcvs[i], constant) == 0) {
+                return mcvFractions[i];
+            }
+        }
+        if (bounds.length == 0 || compareValues(constant, bounds[0]) < 0
+                || compareValues(constant, bounds[bounds.length - 1]) > 0) {
+            return 0;
+        }
+        return (1 - mcvTotal()) / Math.max(1, numDistinct - mcvs.length);
+    }
+
+    /**
+     * Fraction of the tuples less than the constant
+     **/
+    private double lessFraction(Object constant) {
+        double fraction = 0;
+        for (int i = 0; i < mcvs.length; i++) {
+            if (compareValues(mcvs[i], constant) < 0) {
+                fraction += mcvFractions[i];
+            }
+        }
+        return fraction + (1 - mcvTotal()) * histogramPosition(constant);
+    }
+
+    /**
+     * Fraction of the values of the histogram below the constant
+     **/
+    private double histogramPosition(Object constant) {
+        int buckets = bounds.length - 1;
+        if (buckets < 1) {
+            return bounds.length == 1 && compareValues(bounds[0], constant) < 0 ? 1 : 0;
+        }
+        if (compareValues(constant, bounds[0]) <= 0) {
+            return 0;
+        }
+        if (compareValues(constant, bounds[buckets]) > 0) {
+            return 1;
+        }
+        int b = 0;
+        while (compareValues(constant, bounds[b + 1]) > 0) {
+            b++;
+        }
+        /** Numbers are spread linearly in the bucket, other values take half of it **/
+        double within = 0.5;
+        if (constant instanceof Number && bounds[b] instanceof Number) {
+            double low = ((Number) bounds[b]).doubleValue();
+            double high = ((Number) bounds[b + 1]).doubleValue();
+            double value = ((Number) constant).doubleValue();
+            within = high > low ? (value - low) / (high - low) : 0.5;
+        }
+        return (b + within) / buckets;
+    }
+
+    /**
+     * Compares values of the same attribute, numbers by value and strings in order
+     **/
+    public static int compareValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * The value written in a table or a statistics file for an attribute of the given type
+     **/
+    public static Object parseValue(String value, int datatype) {
+        if (datatype == Attribute.INT) {
+            return Integer.parseInt(value);
+        } else if (datatype == Attribute.REAL) {
+            return Float.parseFloat(value);
+        } else {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+/**
+ * performs dynamic programming optimization of the join order, as in System R
+ **/
+
+package qp.optimizer;
+
+import qp.operators.*;
+import qp.utils.Attribute;
+import qp.utils.Condition;
+import qp.utils.SQLQuery;
+import qp.utils.Schema;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The plan is prepared as the initial plan of the randomized optimizer, except
+ * * for the joins. The cheapest plan joining every subset of the tables is built
+ * * from the cheapest plans of its parts, from the pairs of tables up to all the
+ * * tables, trying every join algorithm at every join. Only the subsets joined
+ * * by some join condition are considered, unless the tables cannot be joined
+ * * otherwise. The plans are left deep by default, the right input of a join
+ * * being a single table, and bushy plans can be enabled.
+ * Interesting orders: a sort merge join outputs its tuples in order of its join
+ * * attributes, which saves sorting them for a later sort merge join or for the
+ * * order by. Besides the cheapest plan of a subset, the cheapest plan for each
+ * * such order still useful is kept.
+ */
+public class DPOptimizer extends RandomInitialPlan {
+
+    public static final int MAX_TABLES = 12;   // Queries on more tables are left to the randomized optimizer
+
+    static boolean bushy = false;   // Whether the right input of a join may be a join too
+
+    int numTables;                  // Number of tables of the from list
+    int[] conditionTables;          // Tables of each join condition, as a bit set
+    ArrayList<LinkedHashMap<String, Operator>> plans;   // Cheapest plans of every subset, by order
+    ArrayList<LinkedHashMap<String, Long>> costs;       // Costs of these plans
+
+    public DPOptimizer(SQLQuery sqlquery) {
+        super(sqlquery);
+    }
+
+    public static void setBushy(boolean enabled) {
+        bushy = enabled;
+    }
+
+    public static boolean isBushy() {
+        return bushy;
+    }
+
+    /**
+     * Whether the query joins few enough tables to enumerate their join orders
+     **/
+    public static boolean canOptimize(SQLQuery sqlquery) {
+        return sqlquery.getFromList().size() <= MAX_TABLES;
+    }
+
+    /**
+     * The plan of the query with the cheapest join order
+     **/
+    public Operator getOptimizedPlan() {
+        Operator plan = prepareInitialPlan();
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(plan);
+        System.out.println("  " + new PlanCost().getCost(plan));
+        return plan;
+    }
+
+    /**
+     * Joins the tables in the order of the cheapest plan found
+     **/
+    public void createJoinOp() {
+        numTables = fromlist.size();
+        conditionTables = new int[joinlist.size()];
+        for (int i = 0; i < conditionTables.length; i++) {
+            Condition con = joinlist.get(i);
+            conditionTables[i] = tableBit(con.getLhs()) | tableBit((Attribute) con.getRhs());
+        }
+
+        int all = (1 << numTables) - 1;
+        enumerate(false);
+        if (plans.get(all).isEmpty()) {
+            /** Some tables share no join condition, cross products are needed **/
+            enumerate(true);
+        }
+
+        /** The order by may use the order of a plan, so the cost of sorting is added **/
+        Operator best = null;
+        long mincost = Long.MAX_VALUE;
+        boolean ordered = !orderbylist.isEmpty() && groupbylist.isEmpty() && getAggregates().isEmpty();
+        for (Map.Entry<String, Operator> entry : plans.get(all).entrySet()) {
+            Operator plan = entry.getValue();
+            long cost = ordered ? new PlanCost().getCost(orderedBy(plan)) : costs.get(all).get(entry.getKey());
+            if (cost < mincost) {
+                mincost = cost;
+                best = plan;
+            }
+        }
+        numDistinctTableJoins = numberJoins(best, 0);
+        root = best;
+    }
+
+    /**
+     * Finds the cheapest plans of all the subsets of tables, smallest subsets first
+     **/
+    private void enumerate(boolean crossProducts) {
+        int all = (1 << numTables) - 1;
+        plans = new ArrayList<>();
+        costs = new ArrayList<>();
+        for (int set = 0; set <= all; set++) {
+            plans.add(new LinkedHashMap<>());
+            costs.add(new LinkedHashMap<>());
+        }
+        for (int i = 0; i < numTables; i++) {
+            Operator base = tab_op_hash.get(fromlist.get(i));
+            addPlan(1 << i, base, new PlanCost().getCost(base));
+        }
+
+        for (int size = 2; size <= numTables; size++) {
+            for (int set = 1; set <= all; set++) {
+                if (Integer.bitCount(set) != size) {
+                    continue;
+                }
+                /** Every split of the set into a left part and a right part **/
+                for (int right = (set - 1) & set; right > 0; right = (right - 1) & set) {
+                    int left = set & ~right;
+                    if (!bushy && Integer.bitCount(right) != 1) {
+                        continue;
+                    }
+                    ArrayList<Condition> conditions = conditionsBetween(left, right);
+                    if (conditions.isEmpty() && !crossProducts) {
+                        continue;
+                    }
+                    for (Operator leftplan : new ArrayList<>(plans.get(left).values())) {
+                        for (Operator rightplan : new ArrayList<>(plans.get(right).values())) {
+                            joinPlans(set, leftplan, rightplan, conditions);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tries every join algorithm to join the two plans
+     **/
+    private void joinPlans(int set, Operator left, Operator right, ArrayList<Condition> conditions) {
+        Schema schema = left.getSchema().joinWith(right.getSchema());
+        for (int joinMeth = 0; joinMeth < JoinType.numJoinTypes(); joinMeth++) {
+            Join join = new Join(left, right, conditions, OpType.JOIN);
+            join.setSchema(schema);
+            join.setJoinType(joinMeth);
+            if (!join.canUseJoinType(joinMeth)) {
+                continue;
+            }
+            long cost = new PlanCost().getCost(join);
+            if (cost != Long.MAX_VALUE) {
+                addPlan(set, join, cost);
+            }
+        }
+    }
+
+    /**
+     * Keeps the plan if it is the cheapest of the set, or the cheapest with its order
+     **/
+    private void addPlan(int set, Operator plan, long cost) {
+        LinkedHashMap<String, Operator> setplans = plans.get(set);
+        LinkedHashMap<String, Long> setcosts = costs.get(set);
+        Long mincost = setcosts.get("");
+        if (mincost == null || cost < mincost) {
+            setplans.put("", plan);
+            setcosts.put("", cost);
+        }
+        String order = orderOf(plan);
+        if (!order.isEmpty() && isInteresting(set, plan)) {
+            Long ordercost = setcosts.get(order);
+            if (ordercost == null || cost < ordercost) {
+                setplans.put(order, plan);
+                setcosts.put(order, cost);
+            }
+        }
+    }
+
+    /**
+     * The order of the output of the plan, empty if it has none
+     **/
+    private static String orderOf(Operator plan) {
+        if (plan.getOpType() != OpType.JOIN || ((Join) plan).getJoinType() != JoinType.SORTMERGE) {
+            return "";
+        }
+        StringBuilder order = new StringBuilder();
+        for (Condition con : ((Join) plan).getConditionList()) {
+            if (con.getExprType() == Condition.EQUAL) {
+                order.append(con.getLhs()).append('=').append(con.getRhs()).append(' ');
+            }
+        }
+        return order.toString();
+    }
+
+    /**
+     * Whether the order of the plan may save a sort later: the first join attribute
+     * * is joined with a table outside the set, or is the first order by attribute
+     **/
+    private boolean isInteresting(int set, Operator plan) {
+        Condition first = null;
+        for (Condition con : ((Join) plan).getConditionList()) {
+            if (con.getExprType() == Condition.EQUAL) {
+                first = con;
+                break;
+            }
+        }
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        attrs.add(first.getLhs());
+        attrs.add((Attribute) first.getRhs());
+        if (!orderbylist.isEmpty() && attrs.contains(orderbylist.get(0))) {
+            return true;
+        }
+        for (int i = 0; i < conditionTables.length; i++) {
+            boolean leaves = (conditionTables[i] & set) != 0 && (conditionTables[i] & ~set) != 0;
+            Condition con = joinlist.get(i);
+            if (leaves && con.getExprType() == Condition.EQUAL
+                    && (attrs.contains(con.getLhs()) || attrs.contains((Attribute) con.getRhs()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The join conditions between the two sets of tables, each with its left
+     * * attribute in the left set
+     **/
+    private ArrayList<Condition> conditionsBetween(int left, int right) {
+        ArrayList<Condition> conditions = new ArrayList<>();
+        for (int i = 0; i < conditionTables.length; i++) {
+            if ((conditionTables[i] & left) == 0 || (conditionTables[i] & right) == 0) {
+                continue;
+            }
+            Condition con = joinlist.get(i);
+            conditions.add((tableBit(con.getLhs()) & left) != 0 ? con : con.getFlippedCondition());
+        }
+        return conditions;
+    }
+
+    private int tableBit(Attribute attr) {
+        return 1 << fromlist.indexOf(attr.getTabName());
+    }
+
+    /**
+     * The order by of the query over the plan, to cost the sort it needs
+     **/
+    private Operator orderedBy(Operator plan) {
+        OrderBy orderby = new OrderBy(plan, BufferManager.getNumberOfBuffer(), orderbylist, sqlquery.isAsc());
+        orderby.setSchema(plan.getSchema());
+        if (sqlquery.getLimit() >= 0 && !sqlquery.isDistinct()) {
+            orderby.setLimit(sqlquery.getLimit());
+        }
+        return orderby;
+    }
+
+    /**
+     * Numbers the joins of the plan from the given number, returns the next number
+     **/
+    private int numberJoins(Operator node, int next) {
+        if (node.getOpType() == OpType.JOIN) {
+            Join join = (Join) node;
+            next = numberJoins(join.getLeft(), next);
+            next = numberJoins(join.getRight(), next);
+            join.setNodeIndex(next);
+            return next + 1;
+        }
+        return next;
+    }
+
+}
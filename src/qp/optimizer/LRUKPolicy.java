@@ -0,0 +1,70 @@
+/**
+ * LRU-K replacement, evicts the page whose K-th most recent access is the oldest.
+ * Pages with less than K accesses are evicted first, by least recent access.
+ * The access history is kept only while the page is in the pool.
+ **/
+
+package qp.optimizer;
+
+public class LRUKPolicy implements ReplacementPolicy {
+
+    final int k;          // Number of accesses remembered per page
+    long[][] history;     // Last K access times of each frame, most recent first
+    int[] numAccess;      // Number of accesses recorded of each frame, up to K
+    long clock;           // Logical time, incremented on each access
+
+    public LRUKPolicy() {
+        this(2);
+    }
+
+    public LRUKPolicy(int k) {
+        this.k = k;
+    }
+
+    public void init(int numFrames) {
+        history = new long[numFrames][k];
+        numAccess = new int[numFrames];
+        clock = 0;
+    }
+
+    public void recordAccess(int frame) {
+        long[] times = history[frame];
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+        numAccess[frame] = Math.min(k, numAccess[frame] + 1);
+    }
+
+    public void recordLoad(int frame) {
+        numAccess[frame] = 0;
+        recordAccess(frame);
+    }
+
+    public int pickVictim(Page[] frames) {
+        int victim = -1;
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i].isPinned()) {
+                continue;
+            }
+            if (victim == -1 || isOlder(i, victim)) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Whether frame a has a larger backward K-distance than frame b
+     **/
+    private boolean isOlder(int a, int b) {
+        boolean fullA = numAccess[a] == k;
+        boolean fullB = numAccess[b] == k;
+        if (fullA != fullB) {
+            return !fullA;
+        }
+        if (fullA) {
+            return history[a][k - 1] < history[b][k - 1];
+        }
+        return history[a][0] < history[b][0];
+    }
+
+}
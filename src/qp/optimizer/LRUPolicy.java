@@ -0,0 +1,35 @@
+/**
+ * Least recently used replacement
+ **/
+
+package qp.optimizer;
+
+public class LRUPolicy implements ReplacementPolicy {
+
+    long[] lastAccess;   // Logical time of the last access of each frame
+    long clock;          // Logical time, incremented on each access
+
+    public void init(int numFrames) {
+        lastAccess = new long[numFrames];
+        clock = 0;
+    }
+
+    public void recordAccess(int frame) {
+        lastAccess[frame] = ++clock;
+    }
+
+    public void recordLoad(int frame) {
+        recordAccess(frame);
+    }
+
+    public int pickVictim(Page[] frames) {
+        int victim = -1;
+        for (int i = 0; i < frames.length; i++) {
+            if (!frames[i].isPinned() && (victim == -1 || lastAccess[i] < lastAccess[victim])) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Page is a frame of the buffer pool holding one page of a file
+ **/
+
+package qp.optimizer;
+
+public class Page {
+
+    final int frame;       // Index of the frame in the buffer pool
+    final byte[] data;     // Contents of the page
+    String filename;       // File the page belongs to, null if the frame is free
+    long pageNo;           // Number of the page within the file
+    int length;            // Number of valid bytes in data
+    int pinCount;          // Number of users of the page
+    boolean dirty;         // Whether the page was modified since it was read
+
+    Page(int frame, int size) {
+        this.frame = frame;
+        this.data = new byte[size];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public int getSize() {
+        return data.length;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public long getPageNo() {
+        return pageNo;
+    }
+
+    public boolean isPinned() {
+        return pinCount > 0;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Reads a file page by page through the buffer pool
+ **/
+
+package qp.optimizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+class PageInputStream extends InputStream {
+
+    final String filename;    // File being read
+    long pageNo = 0;          // Number of the next page to pin
+    Page page;                // Pinned page being read
+    int pos;                  // Cursor within the page
+    boolean eof = false;      // Whether the end of the file was reached
+    boolean closed = false;
+
+    PageInputStream(String filename) {
+        this.filename = filename;
+    }
+
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return page.data[pos++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, page.length - pos);
+        System.arraycopy(page.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Moves forward without pinning the pages skipped over
+     **/
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !fill()) {
+            return 0;
+        }
+        if (n < page.length - pos) {
+            pos += n;
+            return n;
+        }
+        int size = page.getSize();
+        long target = (pageNo - 1) * size + pos + n;
+        BufferManager.unpinPage(page, false);
+        page = null;
+        pageNo = target / size;
+        page = BufferManager.pinPage(filename, pageNo++);
+        if (page == null || target % size > page.length) {
+            eof = true;
+            return 0;
+        }
+        pos = (int) (target % size);
+        return n;
+    }
+
+    /**
+     * Pins the next page once the current one is consumed, a page shorter
+     * * than a frame is the last page of the file
+     **/
+    private boolean fill() throws IOException {
+        while (page == null || pos == page.length) {
+            if (eof) {
+                return false;
+            }
+            if (page != null) {
+                boolean last = page.length < page.getSize();
+                BufferManager.unpinPage(page, false);
+                page = null;
+                if (last) {
+                    eof = true;
+                    return false;
+                }
+            }
+            page = BufferManager.pinPage(filename, pageNo++);
+            pos = 0;
+            if (page == null) {
+                eof = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        eof = true;
+        if (page != null) {
+            BufferManager.unpinPage(page, false);
+            page = null;
+        }
+        BufferManager.closeFile(filename);
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Writes a file page by page through the buffer pool
+ **/
+
+package qp.optimizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+class PageOutputStream extends OutputStream {
+
+    final String filename;    // File being written
+    long pageNo = 0;          // Number of the next page to fill
+    Page page;                // Pinned page being filled
+    boolean closed = false;
+
+    PageOutputStream(String filename) {
+        this.filename = filename;
+    }
+
+    public void write(int b) throws IOException {
+        if (page == null || page.length == page.getSize()) {
+            nextPage();
+        }
+        page.data[page.length++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (page == null || page.length == page.getSize()) {
+                nextPage();
+            }
+            int n = Math.min(len, page.getSize() - page.length);
+            System.arraycopy(b, off, page.data, page.length, n);
+            page.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void nextPage() throws IOException {
+        if (page != null) {
+            BufferManager.unpinPage(page, true);
+        }
+        page = BufferManager.newPage(filename, pageNo++);
+    }
+
+    /**
+     * Writes back the pages of the file, the pages stay in the pool for the readers
+     **/
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (page != null) {
+            BufferManager.unpinPage(page, true);
+            page = null;
+        }
+        BufferManager.flushFile(filename);
+        BufferManager.closeFile(filename);
+    }
+
+}
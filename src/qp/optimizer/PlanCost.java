@@ -7,15 +7,14 @@ package qp.optimizer;
 
 import qp.operators.*;
 import qp.utils.Attribute;
+import qp.utils.BPlusTree;
 import qp.utils.Batch;
 import qp.utils.Condition;
 import qp.utils.Schema;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.StringTokenizer;
 
 public class PlanCost {
 
@@ -35,9 +34,16 @@ public class PlanCost {
      **/
     HashMap<Attribute, Long> hashTable;
 
+    /**
+     * Distribution of the values of the attributes of the base tables
+     * * whose statistics have one
+     **/
+    HashMap<Attribute, ColumnStatistics> distributions;
+
 
     public PlanCost() {
         hashTable = new HashMap<>();
+        distributions = new HashMap<>();
         cost = 0;
     }
 
@@ -74,16 +80,20 @@ public class PlanCost {
             return getStatistics((Select) node);
         } else if (node.getOpType() == OpType.PROJECT) {
             return getStatistics((Project) node);
+        } else if (node.getOpType() == OpType.SCAN && node instanceof IndexScan) {
+            return getStatistics((IndexScan) node);
         } else if (node.getOpType() == OpType.SCAN) {
             return getStatistics((Scan) node);
         } else if (node.getOpType() == OpType.GROUPBY) {
-            return getSortStatistics((GroupBy) node);
+            return getStatistics((GroupBy) node);
         } else if (node.getOpType() == OpType.SORT) {
             return getSortStatistics((Sort) node);
         } else if (node.getOpType() == OpType.DISTINCT) {
             return getStatistics((Distinct) node);
         } else if (node.getOpType() == OpType.ORDERBY) {
             return getStatistics((OrderBy) node);
+        } else if (node.getOpType() == OpType.LIMIT) {
+            return getStatistics((Limit) node);
         }
 
         System.out.println("operator is not supported");
@@ -99,12 +109,115 @@ public class PlanCost {
         return calculateCost(node.getBase());
     }
 
+    /**
+     * Costs both the sort based and the hash based Distinct and chooses the cheaper.
+     * * The hash based Distinct is done on the fly if the distinct tuples fit into
+     * * (B - 1) buffers, otherwise every level of partitioning writes and reads the input.
+     * * Under an ORDER BY the partitions would lose the order, so the sort based
+     * * Distinct is used, sorting in the order of the query.
+     **/
     protected long getStatistics(Distinct node) {
-        return getSortStatistics(node);
+        long intuples = calculateCost(node.getBase());
+        if (!isFeasible) {
+            return 0;
+        }
+        Schema schema = node.getSchema();
+        long capacity = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+        long inpages = (long) Math.ceil((double) intuples / (double) capacity);
+
+        /** At most the product of the numbers of distinct values of the attributes **/
+        double distinct = 1;
+        for (Attribute attr : node.getDistinctAttributes()) {
+            Long numdistinct = hashTable.get(schema.getAttribute(schema.indexOf(attr)));
+            distinct *= numdistinct == null ? intuples : numdistinct;
+        }
+        long outtuples = (long) Math.min(intuples, Math.ceil(distinct));
+        long outpages = (long) Math.ceil((double) outtuples / (double) capacity);
+
+        int numbuff = BufferManager.getNumberOfBuffer();
+        long sortcost = getExternalSortCost(numbuff, inpages);
+        long hashcost = 0;
+        if (outpages > numbuff - 1) {
+            int numOfPasses = (int) Math.ceil(Math.log(1.0 * outpages / (numbuff - 1)) / Math.log(Math.max(2, numbuff - 1)));
+            hashcost = 2 * inpages * Math.max(1, numOfPasses);
+        }
+
+        if (hashcost <= sortcost && node.getOrderAttributes().isEmpty()) {
+            node.setDistinctType(Distinct.HASHBASED);
+            cost = cost + hashcost;
+        } else {
+            node.setDistinctType(Distinct.SORTBASED);
+            cost = cost + sortcost;
+        }
+        return outtuples;
     }
 
+    /**
+     * Costs both the sort based and the hash based GroupBy and chooses the cheaper,
+     * * as for Distinct. The accumulators of the groups are one output tuple each.
+     **/
+    protected long getStatistics(GroupBy node) {
+        long intuples = calculateCost(node.getBase());
+        if (!isFeasible) {
+            return 0;
+        }
+        Schema baseschema = node.getBase().getSchema();
+        long incapacity = Math.max(1, Batch.getPageSize() / baseschema.getTupleSize());
+        long inpages = (long) Math.ceil((double) intuples / (double) incapacity);
+
+        /** At most the product of the numbers of distinct values of the attributes **/
+        double distinct = 1;
+        for (Attribute attr : node.getGroupByAttributes()) {
+            Long numdistinct = hashTable.get(baseschema.getAttribute(baseschema.indexOf(attr)));
+            distinct *= numdistinct == null ? intuples : numdistinct;
+        }
+        long outtuples = (long) Math.min(Math.max(1, intuples), Math.ceil(distinct));
+        long outcapacity = Math.max(1, Batch.getPageSize() / node.getSchema().getTupleSize());
+        long outpages = (long) Math.ceil((double) outtuples / (double) outcapacity);
+
+        int numbuff = BufferManager.getNumberOfBuffer();
+        long sortcost = getExternalSortCost(numbuff, inpages);
+        long hashcost = 0;
+        if (outpages > numbuff - 1) {
+            int numOfPasses = (int) Math.ceil(Math.log(1.0 * outpages / (numbuff - 1)) / Math.log(Math.max(2, numbuff - 1)));
+            hashcost = 2 * inpages * Math.max(1, numOfPasses);
+        }
+
+        if (hashcost <= sortcost) {
+            node.setGroupByType(GroupBy.HASHBASED);
+            cost = cost + hashcost;
+        } else {
+            node.setGroupByType(GroupBy.SORTBASED);
+            cost = cost + sortcost;
+        }
+        for (Attribute attr : node.getAggregates()) {
+            hashTable.put(attr, outtuples);
+        }
+        return outtuples;
+    }
+
+    /**
+     * The first tuples are found in memory without any I/O when they fit into the buffers,
+     * * and an input already in order is not sorted
+     **/
     protected long getStatistics(OrderBy node) {
-        return getSortStatistics(node);
+        if (node.isPresorted()) {
+            long intuples = calculateCost(node.getBase());
+            return node.getLimit() >= 0 ? Math.min(node.getLimit(), intuples) : intuples;
+        }
+        int tuplesPerPage = Batch.getPageSize() / node.getSchema().getTupleSize();
+        if (OrderBy.fitsInBuffers(node.getLimit(), BufferManager.getNumberOfBuffer(), tuplesPerPage)) {
+            return Math.min(node.getLimit(), calculateCost(node.getBase()));
+        }
+        long intuples = getSortStatistics(node);
+        return node.getLimit() >= 0 ? Math.min(node.getLimit(), intuples) : intuples;
+    }
+
+    /**
+     * Limit is done on the fly
+     **/
+    protected long getStatistics(Limit node) {
+        return Math.min(node.getLimit(), calculateCost(node.getBase()));
     }
 
     /**
@@ -112,6 +225,7 @@ public class PlanCost {
      **/
     protected long getStatistics(Join node) {
         long lefttuples = calculateCost(node.getLeft());
+        long leftcost = cost;
         long righttuples = calculateCost(node.getRight());
 
         if (!isFeasible) {
@@ -145,15 +259,32 @@ public class PlanCost {
             /** Number of distinct values of left and right join attribute **/
             long leftattrdistn = hashTable.get(leftjoinAttr);
             long rightattrdistn = hashTable.get(rightjoinAttr);
-            tuples /= (double) Math.max(leftattrdistn, rightattrdistn);
-            long mindistinct = Math.min(leftattrdistn, rightattrdistn);
-            hashTable.put(leftjoinAttr, mindistinct);
-            hashTable.put(rightjoinAttr, mindistinct);
+            if (con.getExprType() == Condition.EQUAL) {
+                ColumnStatistics leftdist = distributions.get(leftjoinAttr);
+                ColumnStatistics rightdist = distributions.get(rightjoinAttr);
+                if (leftdist != null && rightdist != null) {
+                    /** The common values of skewed attributes match many more tuples **/
+                    tuples *= ColumnStatistics.joinSelectivity(leftdist, rightdist);
+                } else {
+                    tuples /= (double) Math.max(leftattrdistn, rightattrdistn);
+                }
+                long mindistinct = Math.min(leftattrdistn, rightattrdistn);
+                hashTable.put(leftjoinAttr, mindistinct);
+                hashTable.put(rightjoinAttr, mindistinct);
+            } else if (con.getExprType() == Condition.NOTEQUAL) {
+                tuples *= 1 - 1.0 / Math.max(1, Math.max(leftattrdistn, rightattrdistn));
+            } else {
+                tuples /= 3;
+            }
         }
         long outtuples = (long) Math.ceil(tuples);
 
         /** Calculate the cost of the operation **/
         int joinType = node.getJoinType();
+        if (!node.canUseJoinType(joinType)) {
+            isFeasible = false;
+            return 0;
+        }
         long numbuff = BufferManager.getBuffersPerJoin();
         long joincost;
 
@@ -165,11 +296,27 @@ public class PlanCost {
                 joincost = leftpages + (long) Math.ceil(1.0 * leftpages / (numbuff - 2)) * rightpages;
                 break;
             case JoinType.SORTMERGE:
-                long sortLeftCost = 2 * leftpages * (long) (1 + Math.ceil( Math.log( Math.ceil(1.0 * leftpages / numbuff))));
-                long sortRightCost = 2 * rightpages * (long) (1 + Math.ceil( Math.log( Math.ceil(1.0 * rightpages / numbuff))));
+                /** An input already in order of the join attributes is not sorted **/
+                ArrayList<Attribute> leftkeys = new ArrayList<>();
+                ArrayList<Attribute> rightkeys = new ArrayList<>();
+                for (Condition con : node.getConditionList()) {
+                    if (con.getExprType() == Condition.EQUAL) {
+                        leftkeys.add(con.getLhs());
+                        rightkeys.add((Attribute) con.getRhs());
+                    }
+                }
+                long sortLeftCost = SortMergeJoin.isSortedOn(node.getLeft(), leftkeys) ? 0 : getExternalSortCost((int) numbuff, leftpages);
+                long sortRightCost = SortMergeJoin.isSortedOn(node.getRight(), rightkeys) ? 0 : getExternalSortCost((int) numbuff, rightpages);
                 long mergeCost = leftpages + rightpages;
-//                joincost = sortLeftCost + sortRightCost + mergeCost;
-                joincost = 0;
+                joincost = sortLeftCost + sortRightCost + mergeCost;
+                break;
+            case JoinType.HASHJOIN:
+                joincost = getHashJoinCost(numbuff, leftpages, rightpages);
+                break;
+            case JoinType.INDEXNESTED:
+                /** The right table is not scanned **/
+                cost = leftcost;
+                joincost = getIndexJoinCost(node, lefttuples);
                 break;
             default:
                 System.out.println("join type is not supported");
@@ -181,6 +328,38 @@ public class PlanCost {
         return outtuples;
     }
 
+    /**
+     * Every left tuple reads the leaf of its key, the internal nodes staying in memory,
+     * * and one page of the right table for every entry with that key
+     **/
+    private long getIndexJoinCost(Join node, long lefttuples) {
+        Condition indexed = IndexNestedJoin.indexedCondition(node);
+        Scan inner = IndexNestedJoin.innerTable(node.getRight());
+        BPlusTree index = new BPlusTree(BPlusTree.indexFile(inner.getTabName(), ((Attribute) indexed.getRhs()).getColName()));
+        if (!index.open()) {
+            isFeasible = false;
+            return 0;
+        }
+        long innernodes = index.getNumLeaves() > 1 ? index.getHeight() - 1 : 0;
+        double matches = (double) index.getNumEntries() / Math.max(1, index.getNumKeys());
+        index.close();
+        return innernodes + (long) Math.ceil(lefttuples * (1 + matches));
+    }
+
+    /**
+     * The build side (right) is joined in memory if it fits into (B - 2) buffers.
+     * Otherwise both inputs are partitioned into (B - 1) partitions, and partitioned
+     * again until every build partition fits, each pass reading and writing both inputs.
+     **/
+    private long getHashJoinCost(long numbuff, long leftpages, long rightpages) {
+        if (rightpages <= numbuff - 2) {
+            return leftpages + rightpages;
+        }
+        int numOfPasses = (int) Math.ceil(Math.log(1.0 * rightpages / (numbuff - 2)) / Math.log(numbuff - 1));
+        numOfPasses = Math.max(1, numOfPasses);
+        return 2 * (leftpages + rightpages) * numOfPasses + (leftpages + rightpages);
+    }
+
     protected long getSortStatistics(Operator node) {
         long inTuples = calculateCost(node.getBase());
         long inCapacity = (long) Math.floor(1.0 * Batch.getPageSize() / node.getSchema().getTupleSize());
@@ -189,11 +368,11 @@ public class PlanCost {
         int numOfBuff = BufferManager.getNumberOfBuffer();
         cost += getExternalSortCost(numOfBuff, numInPages);
 
-        return cost;
+        return inTuples;
     }
 
     private long getExternalSortCost(int numOfBuffers, long numOfPages) {
-        int numOfSortedRuns = (int) Math.ceil(1.0 * numOfPages/numOfBuffers);
+        int numOfSortedRuns = (int) Math.max(1, Math.ceil(1.0 * numOfPages/numOfBuffers));
         int numOfPasses = 1 + (int) Math.ceil(Math.log(numOfSortedRuns)/Math.log(numOfBuffers - 1));
         long cost = 2 * numOfPages * numOfPasses;
         return cost;
@@ -204,35 +383,30 @@ public class PlanCost {
          * Find number of incoming tuples, Using the selectivity find # of output tuples
          * * And statistics about the attributes
          * * Selection is performed on the fly, so no cost involved
+         * * A scan of the table below only reads the pages whose zone map
+         * * bounds may satisfy the conditions
          **/
     protected long getStatistics(Select node) {
+        long scancost = cost;
         long intuples = calculateCost(node.getBase());
+        Operator base = node.getBase();
+        if (base.getOpType() == OpType.SCAN && !(base instanceof IndexScan)) {
+            double fraction = ((Scan) base).fractionOfPagesRead(node.getConditionList());
+            cost = scancost + (long) Math.ceil(fraction * (cost - scancost));
+        }
         if (!isFeasible) {
             System.out.println("notFeasible");
             return Long.MAX_VALUE;
         }
 
-        Condition con = node.getCondition();
         Schema schema = node.getSchema();
-        Attribute attr = con.getLhs();
-        int index = schema.indexOf(attr);
-        Attribute fullattr = schema.getAttribute(index);
-        int exprtype = con.getExprType();
 
-        /** Get number of distinct values of selection attributes **/
-        long numdistinct = intuples;
-        Long temp = hashTable.get(fullattr);
-        numdistinct = temp.longValue();
-
-        long outtuples;
-        /** Calculate the number of tuples in result **/
-        if (exprtype == Condition.EQUAL) {
-            outtuples = (long) Math.ceil((double) intuples / (double) numdistinct);
-        } else if (exprtype == Condition.NOTEQUAL) {
-            outtuples = (long) Math.ceil(intuples - ((double) intuples / (double) numdistinct));
-        } else {
-            outtuples = (long) Math.ceil(0.5 * intuples);
+        /** The conditions are assumed to be independent **/
+        double selectivity = 1;
+        for (Condition con : node.getConditionList()) {
+            selectivity *= selectivity(con, schema);
         }
+        long outtuples = (long) Math.ceil(selectivity * intuples);
 
         /** Modify the number of distinct values of each attribute
          ** Assuming the values are distributed uniformly along entire
@@ -248,55 +422,105 @@ public class PlanCost {
     }
 
     /**
-     * The statistics file <tablename>.stat to find the statistics
-     * * about that table;
-     * * This table contains number of tuples in the table
-     * * number of distinct values of each attribute
+     * Fraction of the tuples satisfying a select condition, from the distribution
+     * * of its attribute when the statistics have one, else from the number of
+     * * distinct values of its attribute
      **/
-    protected long getStatistics(Scan node) {
-        String tablename = node.getTabName();
-        String filename = tablename + ".stat";
-        Schema schema = node.getSchema();
-        int numAttr = schema.getNumCols();
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new FileReader(filename));
-        } catch (IOException io) {
-            System.out.println("Error in opening file" + filename);
-            System.exit(1);
+    protected double selectivity(Condition con, Schema schema) {
+        Attribute fullattr = schema.getAttribute(schema.indexOf(con.getLhs()));
+        int exprtype = con.getExprType();
+
+        ColumnStatistics distribution = distributions.get(fullattr);
+        if (distribution != null && con.getRhs() instanceof String) {
+            try {
+                Object constant = ColumnStatistics.parseValue((String) con.getRhs(), schema.typeOf(fullattr));
+                return distribution.selectivity(exprtype, constant);
+            } catch (NumberFormatException e) {
+                /** The selection reports the malformed constant **/
+            }
         }
-        String line = null;
-
-        // First line = number of tuples
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("Error in readin first line of " + filename);
-            System.exit(1);
+
+        /** Get number of distinct values of selection attributes **/
+        long numdistinct = Math.max(1, hashTable.get(fullattr));
+
+        if (exprtype == Condition.EQUAL) {
+            return 1.0 / numdistinct;
+        } else if (exprtype == Condition.NOTEQUAL) {
+            return 1.0 - 1.0 / numdistinct;
+        } else {
+            return 0.5;
+        }
+    }
+
+    /**
+     * Sorts the conditions of the selection from the most to the least selective,
+     * * using the statistics of its input
+     **/
+    public void orderBySelectivity(Select node) {
+        isFeasible = true;
+        calculateCost(node.getBase());
+        Schema schema = node.getBase().getSchema();
+        HashMap<Condition, Double> selectivities = new HashMap<>();
+        for (Condition con : node.getConditionList()) {
+            selectivities.put(con, selectivity(con, schema));
         }
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != 1) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
+        node.getConditionList().sort(Comparator.comparingDouble(selectivities::get));
+    }
+
+    /**
+     * The index scan reads the internal nodes on the path to the first key, the leaves
+     * * holding the entries of the matching tuples, and every page of the table with
+     * * a matching tuple once. The number of pages with a match is estimated with
+     * * Cardenas' formula, the matching tuples being spread uniformly over the table.
+     **/
+    protected long getStatistics(IndexScan node) {
+        long scancost = cost;
+        long numtuples = getStatistics((Scan) node);
+        long numpages = cost - scancost;
+        cost = scancost;
+
+        Schema schema = node.getSchema();
+        double selectivity = 1;
+        for (Condition con : node.getConditionList()) {
+            selectivity *= selectivity(con, schema);
         }
-        String temp = tokenizer.nextToken();
-        long numtuples = Long.parseLong(temp);
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("error in reading second line of " + filename);
-            System.exit(1);
+        long outtuples = (long) Math.ceil(selectivity * numtuples);
+
+        BPlusTree index = new BPlusTree(BPlusTree.indexFile(node.getTabName(), node.getAttribute().getColName()));
+        if (!index.open()) {
+            isFeasible = false;
+            return 0;
         }
-        tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != numAttr) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
+        double entriesPerLeaf = (double) Math.max(1, index.getNumEntries()) / index.getNumLeaves();
+        long leaves = (long) Math.max(1, Math.ceil(outtuples / entriesPerLeaf));
+        long pages = (long) Math.ceil(numpages * (1 - Math.pow(1 - 1.0 / Math.max(1, numpages), outtuples)));
+        cost = cost + (index.getHeight() - 1) + leaves + pages;
+        index.close();
+
+        for (int i = 0; i < schema.getNumCols(); ++i) {
+            Attribute attri = schema.getAttribute(i);
+            hashTable.put(attri, Math.min(hashTable.get(attri), Math.max(1, outtuples)));
         }
+        return outtuples;
+    }
+
+    /**
+     * The statistics of the table from the catalog, read from the statistics
+     * * file <tablename>.stat; This file contains number of tuples in the table
+     * * number of distinct values of each attribute
+     * * and the distributions of the attributes, if collected
+     **/
+    protected long getStatistics(Scan node) {
+        Schema schema = node.getSchema();
+        int numAttr = schema.getNumCols();
+        TableStatistics stats = Catalog.getStatistics(node.getTabName(), schema);
+        long numtuples = stats.getNumTuples();
         for (int i = 0; i < numAttr; ++i) {
             Attribute attr = schema.getAttribute(i);
-            temp = tokenizer.nextToken();
-            Long distinctValues = Long.valueOf(temp);
-            hashTable.put(attr, distinctValues);
+            hashTable.put(attr, stats.getDistinctValues(i));
+            if (stats.getColumn(i) != null) {
+                distributions.put(attr, stats.getColumn(i));
+            }
         }
 
         /** Number of tuples per page**/
@@ -305,13 +529,6 @@ public class PlanCost {
         long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
 
         cost = cost + numpages;
-
-        try {
-            in.close();
-        } catch (IOException io) {
-            System.out.println("error in closing the file " + filename);
-            System.exit(1);
-        }
         return numtuples;
     }
 
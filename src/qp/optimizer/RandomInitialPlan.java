@@ -7,8 +7,6 @@ package qp.optimizer;
 import qp.operators.*;
 import qp.utils.*;
 
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
@@ -69,7 +67,7 @@ public class RandomInitialPlan {
             createJoinOp();
         }
 
-        if (sqlquery.getGroupByList().size() > 0) {
+        if (sqlquery.getGroupByList().size() > 0 || !getAggregates().isEmpty()) {
             createGroupByOp();
         }
 
@@ -83,6 +81,10 @@ public class RandomInitialPlan {
             createDistinctOp();
         }
 
+        if (sqlquery.getLimit() >= 0) {
+            createLimitOp();
+        }
+
         return root;
     }
 
@@ -99,14 +101,11 @@ public class RandomInitialPlan {
             tempop = op1;
 
             /** Read the schema of the table from tablename.md file
-             ** md stands for metadata
+             ** md stands for metadata, through the catalog
              **/
             String filename = tabname + ".md";
             try {
-                ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
-                Schema schm = (Schema) _if.readObject();
-                op1.setSchema(schm);
-                _if.close();
+                op1.setSchema(Catalog.getSchema(tabname));
             } catch (Exception e) {
                 System.err.println("RandomInitialPlan:Error reading Schema of the table " + filename);
                 System.err.println(e);
@@ -123,20 +122,35 @@ public class RandomInitialPlan {
     }
 
     /**
-     * Create Selection Operators for each of the
-     * * selection condition mentioned in Condition list
+     * Create one Selection Operator for each table with
+     * * selection conditions mentioned in Condition list,
+     * * evaluating its conditions most selective first.
+     * * The table is read by an index scan instead when it is cheaper,
+     * * and the selection is left out if the index answers all the conditions.
      **/
     public void createSelectOp() {
-        Select op1 = null;
+        Operator op1 = null;
+        LinkedHashMap<String, ArrayList<Condition>> tableToConditionsMap = new LinkedHashMap<>();
         for (Condition cn : selectionlist) {
             if (cn.getOpType() == Condition.SELECT) {
                 String tabname = cn.getLhs().getTabName();
-                Operator tempop = (Operator) tab_op_hash.get(tabname);
-                op1 = new Select(tempop, cn, OpType.SELECT);
+                tableToConditionsMap.computeIfAbsent(tabname, t -> new ArrayList<>()).add(cn);
+            }
+        }
+        for (String tabname : tableToConditionsMap.keySet()) {
+            Operator tempop = (Operator) tab_op_hash.get(tabname);
+            ArrayList<Condition> conditions = tableToConditionsMap.get(tabname);
+            Operator base = chooseAccessPath((Scan) tempop, conditions);
+            if (conditions.isEmpty()) {
+                op1 = base;
+            } else {
+                Select select = new Select(base, conditions, OpType.SELECT);
                 /** set the schema same as base relation **/
-                op1.setSchema(tempop.getSchema());
-                modifyHashtable(tempop, op1);
+                select.setSchema(tempop.getSchema());
+                new PlanCost().orderBySelectivity(select);
+                op1 = select;
             }
+            modifyHashtable(tempop, op1);
         }
 
         /** The last selection is the root of the plan tre
@@ -146,12 +160,78 @@ public class RandomInitialPlan {
             root = op1;
     }
 
+    /**
+     * Chooses between the scan of the table, which may skip pages using its zone map,
+     * * and an index scan on an indexed attribute of the conditions, whichever has the
+     * * lowest estimated cost.
+     * * The conditions answered by the index scan chosen are removed from the list.
+     **/
+    private Operator chooseAccessPath(Scan scan, ArrayList<Condition> conditions) {
+        Operator best = scan;
+        Select filtered = new Select(scan, conditions, OpType.SELECT);
+        filtered.setSchema(scan.getSchema());
+        long mincost = new PlanCost().getCost(filtered);
+        ArrayList<Condition> answered = new ArrayList<>();
+        for (Condition cn : conditions) {
+            Attribute attr = cn.getLhs();
+            if (!IndexScan.isIndexable(cn) || !BPlusTree.hasIndex(scan.getTabName(), attr.getColName())) {
+                continue;
+            }
+            ArrayList<Condition> indexed = new ArrayList<>();
+            for (Condition other : conditions) {
+                if (IndexScan.isIndexable(other) && other.getLhs().equals(attr)) {
+                    indexed.add(other);
+                }
+            }
+            IndexScan indexscan = new IndexScan(scan.getTabName(), attr, indexed, OpType.SCAN);
+            indexscan.setSchema(scan.getSchema());
+            long cost = new PlanCost().getCost(indexscan);
+            if (cost < mincost) {
+                mincost = cost;
+                best = indexscan;
+                answered = indexed;
+            }
+        }
+        conditions.removeAll(answered);
+        return best;
+    }
+
+    /**
+     * The aggregates of the project list, without duplicates
+     **/
+    ArrayList<Attribute> getAggregates() {
+        ArrayList<Attribute> aggregates = new ArrayList<>();
+        if (projectlist == null) {
+            return aggregates;
+        }
+        for (Attribute attr : projectlist) {
+            if (attr.getAggType() != Attribute.NONE && !aggregates.contains(attr)) {
+                aggregates.add(attr);
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Create the GroupBy operator computing the aggregates of the project list,
+     * * over the whole input as a single group if there is no group by attribute
+     **/
     public void createGroupByOp() {
         int nOfBuffer = BufferManager.getNumberOfBuffer();
 
-        String tabname = fromlist.get(0);
-        GroupBy op = new GroupBy(root, nOfBuffer, groupbylist);
-        op.setSchema(root.getSchema());
+        if (projectlist == null || projectlist.isEmpty()) {
+            System.out.println("GroupBy: SELECT * cannot be grouped");
+            System.exit(1);
+        }
+        for (Attribute attr : projectlist) {
+            if (attr.getAggType() == Attribute.NONE && !groupbylist.contains(attr)) {
+                System.out.println("GroupBy: " + attr + " must be in the group by list or aggregated");
+                System.exit(1);
+            }
+        }
+        ArrayList<Attribute> aggregates = getAggregates();
+        GroupBy op = new GroupBy(root, nOfBuffer, groupbylist, aggregates);
+        op.setSchema(root.getSchema().groupSchema(groupbylist, aggregates));
         root = op;
 
     }
@@ -196,19 +276,25 @@ public class RandomInitialPlan {
             Operator right = (Operator) tab_op_hash.get(rightTable);
             ArrayList<Condition> conditions = tableToConditionsMap.get(leftRightTable);
             jn = new Join(left, right, conditions, OpType.JOIN);
-            jn.setNodeIndex(id);
+            jn.setNodeIndex(id++);
             Schema newsche = left.getSchema().joinWith(right.getSchema());
             jn.setSchema(newsche);
 
             /** randomly select a join type**/
             int numJMeth = JoinType.numJoinTypes();
             int joinMeth = RandNumb.randInt(0, numJMeth - 1); // default
+            while (!jn.canUseJoinType(joinMeth)) {
+                joinMeth = RandNumb.randInt(0, numJMeth - 1);
+            }
             jn.setJoinType(joinMeth);
             modifyHashtable(left, jn);
             modifyHashtable(right, jn);
         }
 
 
+        /** The joins are numbered for the neighbours of the randomized optimizer **/
+        numDistinctTableJoins = id;
+
         /** The last join operation is the root for the
          ** constructed till now
          **/
@@ -230,19 +316,19 @@ public class RandomInitialPlan {
     }
 
     public void createDistinctOp() {
-        Operator op;
+        Distinct op;
         String tabname = fromlist.get(0);
         Schema newSchema;
         int nOfBuffer = BufferManager.getNumberOfBuffer();
 
-        if (projectlist == null) {
+        if (projectlist == null || projectlist.isEmpty()) {
             op = new Distinct(root, nOfBuffer, tabname);
+            op.setOrder(orderbylist, sqlquery.isAsc());
             op.setSchema(root.getSchema());
             root = op;
-        }
-
-        if (!projectlist.isEmpty()) {
+        } else {
             op = new Distinct(root, nOfBuffer, projectlist, tabname);
+            op.setOrder(orderbylist, sqlquery.isAsc());
             op.setSchema(root.getSchema());
             root = op;
         }
@@ -258,6 +344,22 @@ public class RandomInitialPlan {
         root = op;
     }
 
+    /**
+     * Create the Limit operator at the root. Without a Distinct above it,
+     * * the OrderBy only has to find the first tuples.
+     **/
+    public void createLimitOp() {
+        int limit = sqlquery.getLimit();
+        if (!sqlquery.isDistinct() && root.getBase() instanceof OrderBy) {
+            ((OrderBy) root.getBase()).setLimit(limit);
+        } else if (root instanceof OrderBy) {
+            ((OrderBy) root).setLimit(limit);
+        }
+        Limit op = new Limit(root, limit);
+        op.setSchema(root.getSchema());
+        root = op;
+    }
+
     private void modifyHashtable(Operator old, Operator newop) {
         for (HashMap.Entry<String, Operator> entry : tab_op_hash.entrySet()) {
             if (entry.getValue().equals(old)) {
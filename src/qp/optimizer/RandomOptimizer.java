@@ -1,5 +1,6 @@
 /**
- * performs randomized optimization, iterative improvement algorithm
+ * performs randomized optimization, by iterative improvement, simulated annealing
+ * or two-phase optimization
  **/
 
 package qp.optimizer;
@@ -11,6 +12,8 @@ import qp.utils.RandNumb;
 import qp.utils.SQLQuery;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class RandomOptimizer {
 
@@ -26,9 +29,30 @@ public class RandomOptimizer {
      **/
     public static final int NUM_CHOICES = 3;
 
+    /**
+     * enumeration of the search strategies
+     **/
+    public static final int ITERATIVE_IMPROVEMENT = 0;  // Descent to a local minimum from random restarts
+    public static final int SIMULATED_ANNEALING = 1;    // Annealing from a random initial plan
+    public static final int TWO_PHASE = 2;              // Iterative improvement, then annealing from its best plan
+
+    static final double SA_START_TEMPERATURE = 2.0;          // Start temperature of the annealing, times the initial cost
+    static final double TWO_PHASE_START_TEMPERATURE = 0.1;   // Start temperature of the second phase, times the local minimum cost
+    static final int TWO_PHASE_RESTARTS = 10;                // Local minima of the first phase
+    static final int EQUILIBRIUM_FACTOR = 16;                // Moves per stage, times the number of joins
+    static final int FROZEN_STAGES = 4;                      // Stages without a better plan once cold
+
+    static int strategy = TWO_PHASE;        // Search strategy
+    static double startTemperature = 0;     // Start temperature times the start cost, 0 for the strategy default
+    static double coolingRate = 0.95;       // Factor of the temperature from one stage to the next
+    static long timeBudget = 0;             // Time allowed to search in milliseconds, 0 for no limit
+    static int parallelism = 1;             // Number of workers of the search, 1 to search on the calling thread
+    static ForkJoinPool workers;            // Workers shared by the searches
+
     SQLQuery sqlquery;  // Vector of Vectors of Select + From + Where + GroupBy
 
     int numJoin;        // Number of joins between distinct pairs of tables in this query plan
+    long deadline;      // Time at which the search stops
 
     /**
      * constructor
@@ -38,6 +62,55 @@ public class RandomOptimizer {
         this.sqlquery = sqlquery;
     }
 
+    public static void setStrategy(int searchStrategy) {
+        strategy = searchStrategy;
+    }
+
+    public static int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Sets the start temperature of the annealing as a fraction of the cost of the
+     * * plan it starts from, 0 for the default of the strategy, and the cooling rate
+     **/
+    public static void setTemperatureSchedule(double start, double cooling) {
+        startTemperature = start;
+        coolingRate = cooling;
+    }
+
+    /**
+     * Sets the number of workers of the search. With more than one worker the
+     * * restarts of iterative improvement run concurrently, and the neighbours of
+     * * a plan are drawn and costed concurrently.
+     **/
+    public static synchronized void setParallelism(int numWorkers) {
+        parallelism = Math.max(1, numWorkers);
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    private static synchronized ForkJoinPool getWorkers() {
+        if (workers == null) {
+            workers = new ForkJoinPool(parallelism);
+        }
+        return workers;
+    }
+
+    /**
+     * Sets the time the search may take in milliseconds, 0 for no limit. The best
+     * * plan found when the time is up is returned.
+     **/
+    public static void setTimeBudget(long millis) {
+        timeBudget = millis;
+    }
+
     /**
      * After finding a choice of method for each operator
      * * prepare an execution plan by replacing the methods with
@@ -71,6 +144,20 @@ public class RandomOptimizer {
                     smj.setNumBuff(numbuff);
                     return smj;
 
+                case JoinType.HASHJOIN:
+                    HashJoin hj = new HashJoin((Join) node);
+                    hj.setLeft(left);
+                    hj.setRight(right);
+                    hj.setNumBuff(numbuff);
+                    return hj;
+
+                case JoinType.INDEXNESTED:
+                    IndexNestedJoin inj = new IndexNestedJoin((Join) node);
+                    inj.setLeft(left);
+                    inj.setRight(right);
+                    inj.setNumBuff(numbuff);
+                    return inj;
+
                 default:
                     return node;
             }
@@ -94,6 +181,10 @@ public class RandomOptimizer {
             Operator base = makeExecPlan(((OrderBy) node).getBase());
             ((OrderBy) node).setBase(base);
             return node;
+        } else if (node.getOpType() == OpType.LIMIT) {
+            Operator base = makeExecPlan(((Limit) node).getBase());
+            ((Limit) node).setBase(base);
+            return node;
         } else {
             return node;
         }
@@ -124,121 +215,221 @@ public class RandomOptimizer {
     }
 
     /**
-     * Implementation of Iterative Improvement Algorithm for Randomized optimization of Query Plan
+     * Finds a plan for the query with the search strategy chosen
      **/
     public Operator getOptimizedPlan() {
-        /** get an initial plan for the given sql query **/
+        deadline = timeBudget > 0 ? System.currentTimeMillis() + timeBudget : Long.MAX_VALUE;
+
+        /** get an initial plan for the given sql query, its joins give the number of neighbours **/
         RandomInitialPlan rip = new RandomInitialPlan(sqlquery);
+        Operator initPlan = rip.prepareInitialPlan();
+        modifySchema(initPlan);
         numJoin = rip.getNumJoins();
-        long MINCOST = Long.MAX_VALUE;
-        Operator finalPlan = null;
 
-        /** NUMITER is number of times random restart **/
-        int NUMITER;
-        if (numJoin != 0) {
-            NUMITER = 2 * numJoin;
+        CostedPlan finalPlan;
+        if (strategy == SIMULATED_ANNEALING) {
+            CostedPlan start = new CostedPlan(initPlan);
+            finalPlan = simulatedAnnealing(start, startTemperature(SA_START_TEMPERATURE) * start.cost);
+        } else if (strategy == TWO_PHASE) {
+            /** A few local minima, then annealing at a low temperature around the best of them **/
+            CostedPlan localMin = iterativeImprovement(initPlan, TWO_PHASE_RESTARTS);
+            finalPlan = simulatedAnnealing(localMin, startTemperature(TWO_PHASE_START_TEMPERATURE) * localMin.cost);
         } else {
-            NUMITER = 1;
+            finalPlan = iterativeImprovement(initPlan, 2 * numJoin);
         }
+        System.out.println("\n\n\n");
+        System.out.println("---------------------------Final Plan----------------");
+        Debug.PPrint(finalPlan.plan);
+        System.out.println("  " + finalPlan.cost);
+        return finalPlan.plan;
+    }
 
-//        finalPlan = rip.prepareInitialPlan();
-
-        /** Randomly restart the gradient descent until
-         *  the maximum specified number of random restarts (NUMITER)
-         *  has satisfied
-         **/
-        for (int j = 0; j < NUMITER; ++j) {
-            Operator initPlan = rip.prepareInitialPlan();
-            modifySchema(initPlan);
-            System.out.println("-----------initial Plan-------------");
-            Debug.PPrint(initPlan);
-            PlanCost pc = new PlanCost();
-            long initCost = pc.getCost(initPlan);
-            System.out.println(initCost);
-
-            boolean flag = true;
-            long minNeighborCost = initCost;   //just initialization purpose;
-            Operator minNeighbor = initPlan;  //just initialization purpose;
-            if (numJoin != 0) {
-                while (flag) {  // flag = false when local minimum is reached
-                    System.out.println("---------------while--------");
-                    Operator initPlanCopy = (Operator) initPlan.clone();
-                    minNeighbor = getNeighbor(initPlanCopy);
-
-                    System.out.println("--------------------------neighbor---------------");
-                    Debug.PPrint(minNeighbor);
-                    pc = new PlanCost();
-                    minNeighborCost = pc.getCost(minNeighbor);
-                    System.out.println("  " + minNeighborCost);
-
-                    /** In this loop we consider from the
-                     ** possible neighbors (randomly selected)
-                     ** and take the minimum among for next step
-                     **/
-                    for (int i = 1; i < 2 * numJoin; ++i) {
-                        initPlanCopy = (Operator) initPlan.clone();
-                        Operator neighbor = getNeighbor(initPlanCopy);
-                        System.out.println("------------------neighbor--------------");
-                        Debug.PPrint(neighbor);
-                        pc = new PlanCost();
-                        long neighborCost = 0;
-                        try {
-                            neighborCost = pc.getCost(neighbor);
-                        } catch (Exception e) {
-                            System.out.println("fatal error.");
-                            System.exit(0);
-                        }
-                        System.out.println(neighborCost);
+    /**
+     * Prepares a new random initial plan, with the schemas of its operators set
+     **/
+    private Operator prepareInitialPlan() {
+        Operator initPlan = new RandomInitialPlan(sqlquery).prepareInitialPlan();
+        modifySchema(initPlan);
+        return initPlan;
+    }
+
+    /**
+     * Implementation of Iterative Improvement Algorithm for Randomized optimization of Query Plan:
+     * * the best of the local minima reached from the given plan and from new random plans,
+     * * numRestarts descents in all. With several workers the descents run concurrently.
+     * The local minima are printed by the calling thread in the order of the restarts.
+     **/
+    private CostedPlan iterativeImprovement(Operator firstPlan, int numRestarts) {
+        /** NUMITER is number of times random restart **/
+        int NUMITER = numJoin != 0 ? Math.max(1, numRestarts) : 1;
 
-                        if (neighborCost < minNeighborCost) {
-                            minNeighbor = neighbor;
-                            minNeighborCost = neighborCost;
+        ArrayList<ForkJoinTask<CostedPlan>> restarts = new ArrayList<>();
+        if (parallelism > 1) {
+            for (int j = 1; j < NUMITER; ++j) {
+                restarts.add(getWorkers().submit(() -> isOutOfTime() ? null : localMinimum(prepareInitialPlan())));
+            }
+        }
+        CostedPlan finalPlan = localMinimum(firstPlan);
+        printPlan("local minimum", finalPlan);
+        for (ForkJoinTask<CostedPlan> restart : restarts) {
+            CostedPlan localMin = restart.join();
+            if (localMin != null) {
+                printPlan("local minimum", localMin);
+            }
+            if (localMin != null && localMin.cost < finalPlan.cost) {
+                finalPlan = localMin;
+            }
+        }
+        if (parallelism <= 1) {
+            /** Randomly restart the gradient descent until
+             *  the maximum specified number of random restarts (NUMITER)
+             *  has satisfied
+             **/
+            for (int j = 1; j < NUMITER && !isOutOfTime(); ++j) {
+                CostedPlan localMin = localMinimum(prepareInitialPlan());
+                printPlan("local minimum", localMin);
+                if (localMin.cost < finalPlan.cost) {
+                    finalPlan = localMin;
+                }
+            }
+        }
+        return finalPlan;
+    }
+
+    /**
+     * Descends from the plan to the best of its neighbours until none is cheaper
+     **/
+    private CostedPlan localMinimum(Operator initPlan) {
+        CostedPlan current = new CostedPlan(initPlan);
+        if (numJoin == 0) {
+            return current;
+        }
+        while (!isOutOfTime()) {
+            /** In this loop we consider from the
+             ** possible neighbors (randomly selected)
+             ** and take the minimum among for next step
+             **/
+            CostedPlan minNeighbor = null;
+            for (CostedPlan neighbor : costNeighbors(current.plan, 2 * numJoin)) {
+                if (minNeighbor == null || neighbor.cost < minNeighbor.cost) {
+                    minNeighbor = neighbor;
+                }
+            }
+            if (minNeighbor.cost < current.cost) {
+                current = minNeighbor;
+            } else {
+                break;  // local minimum reached
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Draws the given number of random neighbours of the plan and costs them, in the
+     * * order drawn. With several workers they are drawn and costed concurrently.
+     **/
+    private ArrayList<CostedPlan> costNeighbors(Operator plan, int count) {
+        ArrayList<CostedPlan> neighbors = new ArrayList<>();
+        if (parallelism > 1 && count > 1) {
+            ArrayList<ForkJoinTask<CostedPlan>> tasks = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                tasks.add(getWorkers().submit(() -> new CostedPlan(getNeighbor((Operator) plan.clone()))));
+            }
+            for (ForkJoinTask<CostedPlan> task : tasks) {
+                neighbors.add(task.join());
+            }
+        } else {
+            for (int i = 0; i < count; ++i) {
+                neighbors.add(new CostedPlan(getNeighbor((Operator) plan.clone())));
+            }
+        }
+        return neighbors;
+    }
+
+    /**
+     * Simulated annealing from the given plan: a random neighbour replaces the current
+     * * plan if it is cheaper, or else with probability exp(-increase of cost / temperature).
+     * * The temperature is lowered by the cooling rate after each stage of 16 moves per
+     * * join, until it is below 1 and the best plan has not changed for 4 stages.
+     * With several workers, as many neighbours as workers are costed at once and tried
+     * in the order drawn, the first one accepted being the move and the others dropped.
+     **/
+    private CostedPlan simulatedAnnealing(CostedPlan start, double temperature) {
+        CostedPlan current = start;
+        CostedPlan minPlan = start;
+        if (numJoin == 0) {
+            return minPlan;
+        }
+        int stageLength = EQUILIBRIUM_FACTOR * numJoin;
+        int stagesUnchanged = 0;
+        while ((temperature >= 1 || stagesUnchanged < FROZEN_STAGES) && !isOutOfTime()) {
+            boolean improved = false;
+            int moves = 0;
+            while (moves < stageLength && !isOutOfTime()) {
+                for (CostedPlan neighbor : costNeighbors(current.plan, Math.min(parallelism, stageLength - moves))) {
+                    moves++;
+                    if (isAccepted(neighbor, current, temperature)) {
+                        current = neighbor;
+                        if (current.cost < minPlan.cost) {
+                            minPlan = current;
+                            improved = true;
                         }
-                    }
-                    if (minNeighborCost < initCost) {
-                        initPlan = minNeighbor;
-                        initCost = minNeighborCost;
-                    } else {
-                        minNeighbor = initPlan;
-                        minNeighborCost = initCost;
-                        flag = false;  // local minimum reached
+                        break;
                     }
                 }
-                System.out.println("------------------local minimum--------------");
-                Debug.PPrint(minNeighbor);
-                System.out.println(" " + minNeighborCost);
-            }
-            if (minNeighborCost < MINCOST) {
-                MINCOST = minNeighborCost;
-                finalPlan = minNeighbor;
             }
+            stagesUnchanged = improved ? 0 : stagesUnchanged + 1;
+            temperature *= coolingRate;
         }
-        System.out.println("\n\n\n");
-        System.out.println("---------------------------Final Plan----------------");
-        Debug.PPrint(finalPlan);
-        System.out.println("  " + MINCOST);
-        return finalPlan;
+        printPlan("annealing minimum", minPlan);
+        return minPlan;
+    }
+
+    /**
+     * Prints a plan found by the search with its cost
+     **/
+    private static void printPlan(String title, CostedPlan costed) {
+        System.out.println("------------------" + title + "--------------");
+        Debug.PPrint(costed.plan);
+        System.out.println(" " + costed.cost);
+    }
+
+    private static boolean isAccepted(CostedPlan neighbor, CostedPlan current, double temperature) {
+        if (neighbor.cost == Long.MAX_VALUE) {
+            return false;
+        }
+        double increase = neighbor.cost - current.cost;
+        return increase <= 0 || RandNumb.randDouble() < Math.exp(-increase / temperature);
+    }
+
+    /**
+     * The configured start temperature as a fraction of the start cost, else the default
+     **/
+    private static double startTemperature(double defaultTemperature) {
+        return startTemperature > 0 ? startTemperature : defaultTemperature;
+    }
+
+    private boolean isOutOfTime() {
+        return System.currentTimeMillis() >= deadline;
     }
 
     /**
      * Selects a random method choice for join with number joinNum
      * *  e.g., Nested loop join, Sort-Merge Join, Hash Join etc..,
      * * returns the modified plan
+     * * The method chosen is another one that can evaluate the join conditions.
      **/
 
     protected Operator neighborMeth(Operator root, int joinNum) {
-        System.out.println("------------------neighbor by method change----------------");
         int numJMeth = JoinType.numJoinTypes();
         if (numJMeth > 1) {
             /** find the node that is to be altered **/
             Join node = (Join) findNodeAt(root, joinNum);
             int prevJoinMeth = node.getJoinType();
-//            int joinMeth = RandNumb.randInt(0, numJMeth - 1);
-            int joinMeth = JoinType.BLOCKNESTED;
-//            int joinMeth = JoinType.SORTMERGE;
-//            while (joinMeth == prevJoinMeth) {
-////                joinMeth = RandNumb.randInt(0, numJMeth - 1);
-//            }
+            int joinMeth = RandNumb.randInt(0, numJMeth - 1);
+            while (joinMeth == prevJoinMeth || !node.canUseJoinType(joinMeth)) {
+                joinMeth = RandNumb.randInt(0, numJMeth - 1);
+            }
             node.setJoinType(joinMeth);
         }
         return root;
@@ -250,14 +441,15 @@ public class RandomOptimizer {
      * * returns the modifies plan
      **/
     protected Operator neighborCommut(Operator root, int joinNum) {
-        System.out.println("------------------neighbor by commutative---------------");
         /** find the node to be altered**/
         Join node = (Join) findNodeAt(root, joinNum);
         Operator left = node.getLeft();
         Operator right = node.getRight();
         node.setLeft(right);
         node.setRight(left);
-        node.getCondition().flip();
+        for (Condition con : node.getConditionList()) {
+            con.flip();
+        }
         modifySchema(root);
         return root;
     }
@@ -295,7 +487,6 @@ public class RandomOptimizer {
      * This is given plan (A X B) X C
      **/
     protected void transformLefttoRight(Join op, Join left) {
-        System.out.println("------------------Left to Right neighbor--------------");
         Operator right = op.getRight();
         Operator leftleft = left.getLeft();
         Operator leftright = left.getRight();
@@ -303,39 +494,37 @@ public class RandomOptimizer {
         Join temp;
 
         if (leftright.getSchema().contains(leftAttr)) {
-            System.out.println("----------------CASE 1-----------------");
             /** CASE 1 :  ( A X a1b1 B) X b4c4  C     =  A X a1b1 (B X b4c4 C)
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(leftright, right, op.getCondition(), OpType.JOIN);
+            temp = new Join(leftright, right, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(leftleft);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
             op.setRight(temp);
-            op.setCondition(left.getCondition());
+            op.setConditionList(left.getConditionList());
 
         } else {
-            System.out.println("--------------------CASE 2---------------");
             /**CASE 2:   ( A X a1b1 B) X a4c4  C     =  B X b1a1 (A X a4c4 C)
              ** a1b1,  a4c4 are the join conditions at that join operator
              **/
-            temp = new Join(leftleft, right, op.getCondition(), OpType.JOIN);
+            temp = new Join(leftleft, right, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(leftright);
             op.setRight(temp);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
-            Condition newcond = left.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            for (Condition newcond : left.getConditionList()) {
+                newcond.flip();
+            }
+            op.setConditionList(left.getConditionList());
         }
     }
 
     protected void transformRighttoLeft(Join op, Join right) {
-        System.out.println("------------------Right to Left Neighbor------------------");
         Operator left = op.getLeft();
         Operator rightleft = right.getLeft();
         Operator rightright = right.getRight();
@@ -343,33 +532,32 @@ public class RandomOptimizer {
         Join temp;
 
         if (rightleft.getSchema().contains(rightAttr)) {
-            System.out.println("----------------------CASE 3-----------------------");
             /** CASE 3 :  A X a1b1 (B X b4c4  C)     =  (A X a1b1 B ) X b4c4 C
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(left, rightleft, op.getCondition(), OpType.JOIN);
+            temp = new Join(left, rightleft, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(temp);
             op.setRight(rightright);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            op.setCondition(right.getCondition());
+            op.setConditionList(right.getConditionList());
         } else {
-            System.out.println("-----------------------------CASE 4-----------------");
             /** CASE 4 :  A X a1c1 (B X b4c4  C)     =  (A X a1c1 C ) X c4b4 B
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(left, rightright, op.getCondition(), OpType.JOIN);
+            temp = new Join(left, rightright, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(temp);
             op.setRight(rightleft);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            Condition newcond = right.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            for (Condition newcond : right.getConditionList()) {
+                newcond.flip();
+            }
+            op.setConditionList(right.getConditionList());
         }
     }
 
@@ -378,7 +566,6 @@ public class RandomOptimizer {
      * returns the node mentioned by joinNum
      **/
     protected Operator findNodeAt(Operator node, int joinNum) {
-        System.out.println("Node type: " + node.getOpType());
         if (node.getOpType() == OpType.JOIN) {
             if (((Join) node).getNodeIndex() == joinNum) {
                 return node;
@@ -402,6 +589,8 @@ public class RandomOptimizer {
             return findNodeAt(((GroupBy) node).getBase(), joinNum);
         } else if (node.getOpType() == OpType.ORDERBY) {
             return findNodeAt(((OrderBy) node).getBase(), joinNum);
+        } else if (node.getOpType() == OpType.LIMIT) {
+            return findNodeAt(((Limit) node).getBase(), joinNum);
         } else {
             return null;
         }
@@ -431,13 +620,31 @@ public class RandomOptimizer {
             modifySchema(base);
             node.setSchema(base.getSchema());
         } else if (node.getOpType() == OpType.GROUPBY) {
-            Operator base = ((GroupBy) node).getBase();
+            GroupBy groupBy = (GroupBy) node;
+            Operator base = groupBy.getBase();
             modifySchema(base);
-            node.setSchema(base.getSchema());
+            node.setSchema(base.getSchema().groupSchema(groupBy.getGroupByAttributes(), groupBy.getAggregates()));
         } else if (node.getOpType() == OpType.ORDERBY) {
             Operator base = ((OrderBy) node).getBase();
             modifySchema(base);
             node.setSchema(base.getSchema());
+        } else if (node.getOpType() == OpType.LIMIT) {
+            Operator base = ((Limit) node).getBase();
+            modifySchema(base);
+            node.setSchema(base.getSchema());
+        }
+    }
+
+    /**
+     * A plan with its cost, computed by a PlanCost of its own
+     **/
+    private static class CostedPlan {
+        final Operator plan;
+        final long cost;
+
+        CostedPlan(Operator plan) {
+            this.plan = plan;
+            this.cost = new PlanCost().getCost(plan);
         }
     }
 }
@@ -0,0 +1,21 @@
+/**
+ * Chooses the frame of the buffer pool to evict when a page is brought in and no frame is free
+ **/
+
+package qp.optimizer;
+
+public interface ReplacementPolicy {
+
+    /** Called once with the number of frames of the pool **/
+    void init(int numFrames);
+
+    /** The page in the frame was pinned **/
+    void recordAccess(int frame);
+
+    /** A new page was loaded into the frame **/
+    void recordLoad(int frame);
+
+    /** Returns an unpinned frame to evict, -1 if all the frames are pinned **/
+    int pickVictim(Page[] frames);
+
+}
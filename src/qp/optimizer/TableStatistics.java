@@ -0,0 +1,191 @@
+/**
+ * Statistics of a table, read from its .stat file
+ **/
+
+package qp.optimizer;
+
+import qp.utils.Schema;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.StringTokenizer;
+
+/**
+ * The statistics file <tablename>.stat has the number of tuples of the table
+ * * on its first line, and the number of distinct values of each attribute on
+ * * the second, in the order of the schema.
+ * The lines that follow, if any, describe the distribution of the attributes,
+ * their fields separated by tabs:
+ * * MCV <column> <value> <fraction> ... the most common values of the column
+ * * and the fraction of the tuples holding each of them
+ * * HIST <column> <bound> ... the bounds of the buckets of the equi-depth
+ * * histogram of the other values of the column
+ */
+public class TableStatistics {
+
+    long numTuples;          // Number of tuples of the table
+    long[] distinctValues;   // Number of distinct values of each attribute
+    ColumnStatistics[] columns;   // Distribution of each attribute, null if unknown
+
+    public TableStatistics(long numTuples, long[] distinctValues) {
+        this.numTuples = numTuples;
+        this.distinctValues = distinctValues;
+        this.columns = new ColumnStatistics[distinctValues.length];
+    }
+
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    public int getNumCols() {
+        return distinctValues.length;
+    }
+
+    public long getDistinctValues(int col) {
+        return distinctValues[col];
+    }
+
+    public ColumnStatistics getColumn(int col) {
+        return columns[col];
+    }
+
+    public void setColumn(int col, ColumnStatistics stats) {
+        columns[col] = stats;
+    }
+
+    /**
+     * Reads the statistics of a table with the given schema
+     **/
+    public static TableStatistics read(String filename, Schema schema) {
+        int numAttr = schema.getNumCols();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(filename));
+        } catch (IOException io) {
+            System.out.println("Error in opening file" + filename);
+            System.exit(1);
+        }
+        String line = null;
+
+        // First line = number of tuples
+        try {
+            line = in.readLine();
+        } catch (IOException io) {
+            System.out.println("Error in readin first line of " + filename);
+            System.exit(1);
+        }
+        StringTokenizer tokenizer = new StringTokenizer(line);
+        if (tokenizer.countTokens() != 1) {
+            System.out.println("incorrect format of statastics file " + filename);
+            System.exit(1);
+        }
+        long numtuples = Long.parseLong(tokenizer.nextToken());
+        try {
+            line = in.readLine();
+        } catch (IOException io) {
+            System.out.println("error in reading second line of " + filename);
+            System.exit(1);
+        }
+        tokenizer = new StringTokenizer(line);
+        if (tokenizer.countTokens() != numAttr) {
+            System.out.println("incorrect format of statastics file " + filename);
+            System.exit(1);
+        }
+        long[] distinct = new long[numAttr];
+        for (int i = 0; i < numAttr; ++i) {
+            distinct[i] = Long.parseLong(tokenizer.nextToken());
+        }
+
+        TableStatistics stats = new TableStatistics(numtuples, distinct);
+
+        /** Distributions of the attributes **/
+        try {
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                int col = Integer.parseInt(fields[1]);
+                int datatype = schema.typeOf(col);
+                ColumnStatistics column = stats.columns[col];
+                if (column == null) {
+                    column = new ColumnStatistics(distinct[col], new Object[0], new double[0], new Object[0]);
+                    stats.columns[col] = column;
+                }
+                if (fields[0].equals("MCV")) {
+                    int numMcvs = (fields.length - 2) / 2;
+                    column.mcvs = new Object[numMcvs];
+                    column.mcvFractions = new double[numMcvs];
+                    for (int i = 0; i < numMcvs; ++i) {
+                        column.mcvs[i] = ColumnStatistics.parseValue(fields[2 + 2 * i], datatype);
+                        column.mcvFractions[i] = Double.parseDouble(fields[3 + 2 * i]);
+                    }
+                } else if (fields[0].equals("HIST")) {
+                    column.bounds = new Object[fields.length - 2];
+                    for (int i = 0; i < column.bounds.length; ++i) {
+                        column.bounds[i] = ColumnStatistics.parseValue(fields[2 + i], datatype);
+                    }
+                } else {
+                    System.out.println("incorrect format of statastics file " + filename);
+                    System.exit(1);
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("error in reading the distributions of " + filename);
+            System.exit(1);
+        } catch (RuntimeException e) {
+            System.out.println("incorrect format of statastics file " + filename);
+            System.exit(1);
+        }
+
+        try {
+            in.close();
+        } catch (IOException io) {
+            System.out.println("error in closing the file " + filename);
+            System.exit(1);
+        }
+        return stats;
+    }
+
+    /**
+     * Writes the statistics in the format read above
+     **/
+    public void write(String filename) throws IOException {
+        PrintWriter out = new PrintWriter(filename);
+        out.println(numTuples);
+        for (long values : distinctValues) {
+            out.print(values + "\t");
+        }
+        out.println();
+        for (int col = 0; col < columns.length; ++col) {
+            writeColumn(out, col, columns[col]);
+        }
+        out.close();
+    }
+
+    /**
+     * Writes the lines of the distribution of a column, if known
+     **/
+    public static void writeColumn(PrintWriter out, int col, ColumnStatistics column) {
+        if (column == null) {
+            return;
+        }
+        if (column.mcvs.length > 0) {
+            out.print("MCV\t" + col);
+            for (int i = 0; i < column.mcvs.length; ++i) {
+                out.print("\t" + column.mcvs[i] + "\t" + column.mcvFractions[i]);
+            }
+            out.println();
+        }
+        if (column.bounds.length > 0) {
+            out.print("HIST\t" + col);
+            for (Object bound : column.bounds) {
+                out.print("\t" + bound);
+            }
+            out.println();
+        }
+    }
+
+}
@@ -1,7 +1,7 @@
 
 //----------------------------------------------------
 // The following code was generated by CUP v0.10k
-// Fri Feb 26 01:02:09 SGT 2021
+// Sun Oct 18 12:59:08 UTC 2026
 //----------------------------------------------------
 
 package qp.parser;
@@ -22,11 +22,13 @@ public class sym {
   public static final int LTOE = 10;
   public static final int STAR = 7;
   public static final int ID = 2;
+  public static final int LIMIT = 27;
   public static final int GTOE = 11;
+  public static final int INTLIT = 29;
   public static final int COMMA = 3;
   public static final int LESSTHAN = 8;
   public static final int EOF = 0;
-  public static final int STRINGLIT = 27;
+  public static final int STRINGLIT = 28;
   public static final int DISTINCT = 24;
   public static final int LEFTBRACKET = 4;
   public static final int AVG = 23;
@@ -0,0 +1,530 @@
+/**
+ * Disk resident B+-tree index on one attribute of a base table
+ **/
+
+package qp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The index of the attribute col of the table tab is stored in the file tab.col.idx,
+ * * built from tab.tbl by bulk loading the sorted entries bottom up. Every entry of a
+ * * leaf is a key with the record id of its tuple, the offset of the page of the table
+ * * file holding the tuple and the position of the tuple in that page. The leaves are
+ * * chained from left to right, and duplicate keys may span several leaves.
+ * File layout, in nodes of NODE_SIZE bytes:
+ * * node 0   : magic (int), key type (byte), node size (int), root node (int), height (int),
+ * *            number of leaves (int), number of entries (long), number of distinct keys (long)
+ * * node     : leaf flag (byte), number of entries (int), next leaf (int, -1 for none)
+ * * leaf     : entries of key, page offset (long), position in the page (int)
+ * * internal : first child (int), then pairs of key, child (int); the key is the
+ * *            smallest key of the subtree of the child that follows it
+ * Keys are encoded as in PageCodec, 4 bytes for INT and REAL, length and UTF-8 bytes
+ * for STRING. Tuples whose key is null are not indexed.
+ */
+public class BPlusTree {
+
+    public static final int MAGIC = 0x51504958;     // "QPIX"
+    public static final int NODE_SIZE = 4096;       // Bytes per node
+
+    static final int NODE_HEADER_SIZE = 9;          // Leaf flag, number of entries, next leaf
+    static final int RID_SIZE = 12;                 // Page offset and position in the page
+    static final int CHILD_SIZE = 4;                // Node number of a child
+
+    final String filename;      // Index file
+    FileChannel channel;        // Channel of the index file
+    int keyType;                // INT, REAL or STRING
+    int rootNode;               // Node number of the root
+    int height;                 // Number of levels, 1 when the root is a leaf
+    int numLeaves;              // Number of leaf nodes
+    long numEntries;            // Number of tuples indexed
+    long numKeys;               // Number of distinct keys
+    long numNodeReads;          // Number of nodes read from the file
+
+    HashMap<Integer, Node> innerNodes;  // Internal nodes read so far, they stay in memory
+    Node leaf;                  // Leaf of the cursor, null once past the last entry
+    int position;               // Entry of the cursor in the leaf
+
+    /**
+     * A node decoded from its page
+     **/
+    static class Node {
+        boolean isLeaf;
+        int numEntries;
+        int next;               // Next leaf, -1 for the last leaf or an internal node
+        int[] values;           // INT and REAL keys, as the values of the tuples
+        String[] strings;       // STRING keys
+        int[] children;         // Children of an internal node, one more than the keys
+        long[] offsets;         // Page offsets of the entries of a leaf
+        int[] slots;            // Positions in the page of the entries of a leaf
+    }
+
+    /**
+     * Entry collected while building the index
+     **/
+    static class Entry {
+        final int value;
+        final String string;
+        final long offset;
+        final int slot;
+
+        Entry(int value, String string, long offset, int slot) {
+            this.value = value;
+            this.string = string;
+            this.offset = offset;
+            this.slot = slot;
+        }
+    }
+
+    public BPlusTree(String filename) {
+        this.filename = filename;
+    }
+
+    /**
+     * Name of the file of the index of the attribute of the table
+     **/
+    public static String indexFile(String tabname, String colname) {
+        return tabname + "." + colname + ".idx";
+    }
+
+    /**
+     * Whether the attribute of the table has an index built after the table file was last written
+     **/
+    public static boolean hasIndex(String tabname, String colname) {
+        File index = new File(indexFile(tabname, colname));
+        File table = new File(tabname + ".tbl");
+        return index.isFile() && index.lastModified() >= table.lastModified();
+    }
+
+    public int getKeyType() {
+        return keyType;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumLeaves() {
+        return numLeaves;
+    }
+
+    public long getNumEntries() {
+        return numEntries;
+    }
+
+    public long getNumKeys() {
+        return numKeys;
+    }
+
+    public long getNumNodeReads() {
+        return numNodeReads;
+    }
+
+    /**
+     * Opens the index file and reads its header
+     **/
+    public boolean open() {
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            ByteBuffer header = readPage(0);
+            if (header.getInt() != MAGIC) {
+                System.err.println(" " + filename + " is not an index file");
+                close();
+                return false;
+            }
+            keyType = header.get();
+            if (header.getInt() != NODE_SIZE) {
+                System.err.println(" " + filename + " has nodes of another size, rebuild it with BuildIndex");
+                close();
+                return false;
+            }
+            rootNode = header.getInt();
+            height = header.getInt();
+            numLeaves = header.getInt();
+            numEntries = header.getLong();
+            numKeys = header.getLong();
+        } catch (IOException e) {
+            System.err.println(" Error reading " + filename + ": " + e.getMessage());
+            close();
+            return false;
+        }
+        innerNodes = new HashMap<>();
+        leaf = null;
+        return true;
+    }
+
+    public boolean close() {
+        innerNodes = null;
+        leaf = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("BPlusTree: Error closing " + filename);
+                return false;
+            } finally {
+                channel = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Positions the cursor at the first entry of the index
+     **/
+    public void seekFirst() {
+        if (numEntries == 0) {
+            leaf = null;
+            return;
+        }
+        Node node = readNode(rootNode);
+        while (!node.isLeaf) {
+            node = readNode(node.children[0]);
+        }
+        leaf = node;
+        position = 0;
+        skipEmptyLeaves();
+    }
+
+    /**
+     * Positions the cursor at the first entry whose key is not smaller than
+     * * the attribute at the given index of the tuple
+     **/
+    public void seek(Tuple tuple, int index) {
+        if (numEntries == 0) {
+            leaf = null;
+            return;
+        }
+        Node node = readNode(rootNode);
+        while (!node.isLeaf) {
+            /** The keys equal to the one sought may end the child before the first larger key **/
+            int child = 0;
+            while (child < node.numEntries && compare(node, child, tuple, index) < 0) {
+                child++;
+            }
+            node = readNode(node.children[child]);
+        }
+        leaf = node;
+        position = 0;
+        while (position < leaf.numEntries && compare(leaf, position, tuple, index) < 0) {
+            position++;
+        }
+        skipEmptyLeaves();
+    }
+
+    /**
+     * Whether the cursor went past the last entry
+     **/
+    public boolean isEOF() {
+        return leaf == null;
+    }
+
+    /**
+     * Compares the key of the entry of the cursor with the attribute of the tuple
+     **/
+    public int compareKey(Tuple tuple, int index) {
+        return compare(leaf, position, tuple, index);
+    }
+
+    /**
+     * Whether the key of the entry of the cursor compared with the attribute
+     * * of the tuple satisfies the comparison operator
+     **/
+    public boolean keySatisfies(Tuple tuple, int index, int exprtype) {
+        return Predicate.satisfies(compareKey(tuple, index), exprtype);
+    }
+
+    /**
+     * Offset in the table file of the page holding the tuple of the entry of the cursor
+     **/
+    public long getPageOffset() {
+        return leaf.offsets[position];
+    }
+
+    /**
+     * Position of the tuple of the entry of the cursor in its page
+     **/
+    public int getSlot() {
+        return leaf.slots[position];
+    }
+
+    /**
+     * Moves the cursor to the next entry
+     **/
+    public void advance() {
+        position++;
+        skipEmptyLeaves();
+    }
+
+    private void skipEmptyLeaves() {
+        while (leaf != null && position >= leaf.numEntries) {
+            leaf = leaf.next == -1 ? null : readNode(leaf.next);
+            position = 0;
+        }
+    }
+
+    private int compare(Node node, int i, Tuple tuple, int index) {
+        switch (keyType) {
+            case Attribute.INT:
+                return Integer.compare(node.values[i], tuple.getInt(index));
+            case Attribute.REAL:
+                return Float.compare(Float.intBitsToFloat(node.values[i]), tuple.getFloat(index));
+            default:
+                return node.strings[i].compareTo(tuple.getString(index));
+        }
+    }
+
+    private Node readNode(int nodeNo) {
+        Node node = innerNodes.get(nodeNo);
+        if (node != null) {
+            return node;
+        }
+        try {
+            node = decodeNode(readPage(nodeNo));
+        } catch (IOException e) {
+            System.err.println("BPlusTree: Error reading " + filename);
+            System.exit(1);
+        }
+        numNodeReads++;
+        if (!node.isLeaf) {
+            innerNodes.put(nodeNo, node);
+        }
+        return node;
+    }
+
+    private ByteBuffer readPage(int nodeNo) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(NODE_SIZE);
+        long position = (long) nodeNo * NODE_SIZE;
+        while (page.hasRemaining()) {
+            if (channel.read(page, position + page.position()) < 0) {
+                throw new EOFException("truncated index file");
+            }
+        }
+        page.flip();
+        return page;
+    }
+
+    private Node decodeNode(ByteBuffer page) {
+        Node node = new Node();
+        node.isLeaf = page.get() == 1;
+        node.numEntries = page.getInt();
+        node.next = page.getInt();
+        node.values = new int[node.numEntries];
+        node.strings = keyType == Attribute.STRING ? new String[node.numEntries] : null;
+        if (node.isLeaf) {
+            node.offsets = new long[node.numEntries];
+            node.slots = new int[node.numEntries];
+            for (int i = 0; i < node.numEntries; i++) {
+                decodeKey(page, node, i);
+                node.offsets[i] = page.getLong();
+                node.slots[i] = page.getInt();
+            }
+        } else {
+            node.children = new int[node.numEntries + 1];
+            node.children[0] = page.getInt();
+            for (int i = 0; i < node.numEntries; i++) {
+                decodeKey(page, node, i);
+                node.children[i + 1] = page.getInt();
+            }
+        }
+        return node;
+    }
+
+    private void decodeKey(ByteBuffer page, Node node, int i) {
+        if (keyType == Attribute.STRING) {
+            byte[] bytes = new byte[page.getChar()];
+            page.get(bytes);
+            node.strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            node.values[i] = page.getInt();
+        }
+    }
+
+    /**
+     * Builds the index of the column of the table file, replacing the index file if any.
+     * * The entries are sorted in memory and written bottom up, the leaves first and
+     * * then every level of internal nodes, packing as many entries as fit into a node.
+     * @return false if the index could not be built.
+     */
+    public static boolean build(String tblfile, int column, String idxfile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tblfile)));
+        PageCodec codec = PageCodec.readHeader(in);
+        if (column < 0 || column >= codec.getNumCols()) {
+            System.out.println("BPlusTree: no column " + column + " in " + tblfile);
+            in.close();
+            return false;
+        }
+        int keyType = codec.typeOf(column);
+
+        /** Record id of every tuple, from the offsets of the pages read **/
+        ArrayList<Entry> entries = new ArrayList<>();
+        long offset = codec.headerSize();
+        while (true) {
+            int numTuples;
+            try {
+                numTuples = codec.readPageData(in);
+            } catch (EOFException eof) {
+                break;
+            }
+            ByteBuffer data = codec.pageData();
+            int length = data.limit();
+            for (int slot = 0; slot < numTuples; slot++) {
+                Tuple t = codec.decode(data);
+                if (keyType == Attribute.STRING) {
+                    if (t.getString(column) != null) {
+                        entries.add(new Entry(0, t.getString(column), offset, slot));
+                    }
+                } else {
+                    entries.add(new Entry(t.values[column], null, offset, slot));
+                }
+            }
+            offset += codec.pageLength(length);
+        }
+        in.close();
+
+        /** Duplicates are kept in the order of the table file, so they are fetched sequentially **/
+        entries.sort((a, b) -> {
+            int result = compareEntries(keyType, a, b);
+            if (result != 0) {
+                return result;
+            }
+            return a.offset != b.offset ? Long.compare(a.offset, b.offset) : Integer.compare(a.slot, b.slot);
+        });
+        for (Entry entry : entries) {
+            if (keySize(keyType, entry) > NODE_SIZE / 4) {
+                System.out.println("BPlusTree: key too large to be indexed: " + entry.string);
+                return false;
+            }
+        }
+
+        try (FileChannel out = FileChannel.open(Paths.get(idxfile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int nextNode = 1;
+            ArrayList<Entry> firstKeys = new ArrayList<>();   // Smallest key of each node of the level
+            ArrayList<Integer> nodes = new ArrayList<>();      // Node number of each node of the level
+            long numKeys = 0;
+
+            /** Leaves, the last leaf is written even if there is no entry **/
+            int start = 0;
+            do {
+                int end = start;
+                int used = NODE_HEADER_SIZE;
+                while (end < entries.size() && used + keySize(keyType, entries.get(end)) + RID_SIZE <= NODE_SIZE) {
+                    used += keySize(keyType, entries.get(end)) + RID_SIZE;
+                    end++;
+                }
+                ByteBuffer page = ByteBuffer.allocate(NODE_SIZE);
+                page.put((byte) 1);
+                page.putInt(end - start);
+                page.putInt(end < entries.size() ? nextNode + 1 : -1);
+                for (int i = start; i < end; i++) {
+                    Entry entry = entries.get(i);
+                    encodeKey(page, keyType, entry);
+                    page.putLong(entry.offset);
+                    page.putInt(entry.slot);
+                    if (i == 0 || compareEntries(keyType, entries.get(i - 1), entry) != 0) {
+                        numKeys++;
+                    }
+                }
+                writePage(out, nextNode, page);
+                firstKeys.add(start < entries.size() ? entries.get(start) : null);
+                nodes.add(nextNode++);
+                start = end;
+            } while (start < entries.size());
+            int numLeaves = nodes.size();
+
+            /** Internal levels until a single node is left **/
+            int height = 1;
+            while (nodes.size() > 1) {
+                ArrayList<Entry> upperKeys = new ArrayList<>();
+                ArrayList<Integer> upperNodes = new ArrayList<>();
+                start = 0;
+                while (start < nodes.size()) {
+                    int end = start + 1;
+                    int used = NODE_HEADER_SIZE + CHILD_SIZE;
+                    while (end < nodes.size() && used + keySize(keyType, firstKeys.get(end)) + CHILD_SIZE <= NODE_SIZE) {
+                        used += keySize(keyType, firstKeys.get(end)) + CHILD_SIZE;
+                        end++;
+                    }
+                    ByteBuffer page = ByteBuffer.allocate(NODE_SIZE);
+                    page.put((byte) 0);
+                    page.putInt(end - start - 1);
+                    page.putInt(-1);
+                    page.putInt(nodes.get(start));
+                    for (int i = start + 1; i < end; i++) {
+                        encodeKey(page, keyType, firstKeys.get(i));
+                        page.putInt(nodes.get(i));
+                    }
+                    writePage(out, nextNode, page);
+                    upperKeys.add(firstKeys.get(start));
+                    upperNodes.add(nextNode++);
+                    start = end;
+                }
+                firstKeys = upperKeys;
+                nodes = upperNodes;
+                height++;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(NODE_SIZE);
+            header.putInt(MAGIC);
+            header.put((byte) keyType);
+            header.putInt(NODE_SIZE);
+            header.putInt(nodes.get(0));
+            header.putInt(height);
+            header.putInt(numLeaves);
+            header.putLong(entries.size());
+            header.putLong(numKeys);
+            writePage(out, 0, header);
+        }
+        return true;
+    }
+
+    private static int compareEntries(int keyType, Entry a, Entry b) {
+        switch (keyType) {
+            case Attribute.INT:
+                return Integer.compare(a.value, b.value);
+            case Attribute.REAL:
+                return Float.compare(Float.intBitsToFloat(a.value), Float.intBitsToFloat(b.value));
+            default:
+                return a.string.compareTo(b.string);
+        }
+    }
+
+    private static int keySize(int keyType, Entry entry) {
+        if (keyType == Attribute.STRING) {
+            return 2 + entry.string.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return 4;
+    }
+
+    private static void encodeKey(ByteBuffer page, int keyType, Entry entry) {
+        if (keyType == Attribute.STRING) {
+            byte[] bytes = entry.string.getBytes(StandardCharsets.UTF_8);
+            page.putChar((char) bytes.length);
+            page.put(bytes);
+        } else {
+            page.putInt(entry.value);
+        }
+    }
+
+    private static void writePage(FileChannel out, int nodeNo, ByteBuffer page) throws IOException {
+        page.clear();
+        long position = (long) nodeNo * NODE_SIZE;
+        while (page.hasRemaining()) {
+            position += out.write(page, position);
+        }
+    }
+
+}
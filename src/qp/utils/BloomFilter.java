@@ -0,0 +1,140 @@
+/**
+ * Bloom filter on the join keys of tuples
+ **/
+
+package qp.utils;
+
+/**
+ * The keys of the tuples added set NUM_HASHES bits each, so a key whose bits are
+ * * not all set was never added. A key whose bits are all set may not have been
+ * * added either, with a probability close to 1% at BITS_PER_KEY bits per key.
+ * The hash of a key is the one the hash join computes, 31 * hash + value of each
+ * attribute, REAL values by their float bits, and the bits are derived from it
+ * by double hashing.
+ */
+public class BloomFilter {
+
+    static final int BITS_PER_KEY = 10;   // Bits per key expected
+    static final int NUM_HASHES = 7;      // Bits set per key
+    static final int MIN_BITS = 64;
+    static final int MAX_BITS = 1 << 27;  // 16 MB
+
+    final long[] bits;        // Bit array, of a power of two size
+    final int mask;           // Number of bits minus one
+    long numKeys;             // Number of keys added
+
+    /**
+     * Filter sized for the number of keys expected
+     **/
+    public BloomFilter(long expectedKeys) {
+        long wanted = Math.max(MIN_BITS, Math.min(MAX_BITS, expectedKeys * BITS_PER_KEY));
+        int numBits = Integer.highestOneBit((int) wanted);
+        if (numBits < wanted) {
+            numBits <<= 1;
+        }
+        bits = new long[numBits / 64];
+        mask = numBits - 1;
+        numKeys = 0;
+    }
+
+    public long getNumKeys() {
+        return numKeys;
+    }
+
+    /**
+     * Adds the key of the tuple, the values of the given columns
+     **/
+    public void add(Tuple t, int[] keys) {
+        int hash = 1;
+        for (int col : keys) {
+            hash = 31 * hash + t.hashAt(col);
+        }
+        set(hash);
+    }
+
+    /**
+     * Adds the keys of all the tuples of the batch
+     **/
+    public void addAll(Batch batch, int[] keys) {
+        for (int i = 0; i < batch.size(); i++) {
+            add(batch.get(i), keys);
+        }
+    }
+
+    /**
+     * Whether the key of the tuple may have been added
+     **/
+    public boolean mightContain(Tuple t, int[] keys) {
+        int hash = 1;
+        for (int col : keys) {
+            hash = 31 * hash + t.hashAt(col);
+        }
+        return test(hash);
+    }
+
+    /**
+     * Keeps in the selection vector of the batch only the rows whose key may have been added
+     **/
+    public void filter(ColumnBatch columns, int[] keys) {
+        int[] sel = columns.getSelection();
+        int n = columns.getNumSelected();
+        int kept = 0;
+        for (int k = 0; k < n; k++) {
+            int row = sel[k];
+            int hash = 1;
+            for (int col : keys) {
+                switch (columns.typeOf(col)) {
+                    case Attribute.INT:
+                        hash = 31 * hash + columns.ints[col][row];
+                        break;
+                    case Attribute.REAL:
+                        hash = 31 * hash + Float.floatToRawIntBits(columns.floats[col][row]);
+                        break;
+                    default:
+                        String value = columns.strings[col][row];
+                        hash = 31 * hash + (value == null ? 0 : value.hashCode());
+                }
+            }
+            if (test(hash)) {
+                sel[kept++] = row;
+            }
+        }
+        columns.setNumSelected(kept);
+    }
+
+    private void set(int hash) {
+        long mixed = mix(hash);
+        int h1 = (int) mixed;
+        int h2 = (int) (mixed >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        numKeys++;
+    }
+
+    private boolean test(int hash) {
+        long mixed = mix(hash);
+        int h1 = (int) mixed;
+        int h2 = (int) (mixed >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of the hash of a key over 64 bits
+     **/
+    private static long mix(int hash) {
+        long x = hash * 0x9E3779B97F4A7C15L;
+        x ^= x >>> 32;
+        x *= 0xBF58476D1CE4E5B9L;
+        x ^= x >>> 29;
+        return x;
+    }
+
+}
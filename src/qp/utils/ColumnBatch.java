@@ -0,0 +1,198 @@
+/**
+ * ColumnBatch represents a page stored column by column
+ **/
+
+package qp.utils;
+
+/**
+ * Each attribute is kept in a primitive vector (int[] for INT, float[] for REAL,
+ * String[] for STRING and TIME). The selection vector lists, in increasing order,
+ * the rows that are still part of the batch, so that filters only rewrite the
+ * selection instead of moving the values. Vectors may be shared between batches,
+ * e.g. by a projection, and must not be modified once the batch is handed out.
+ */
+public class ColumnBatch {
+
+    final int[] types;            // Type of each column: Attribute.INT, Attribute.REAL or Attribute.STRING
+    final int capacity;           // Maximum number of rows
+    int size;                     // Number of rows
+    final int[][] ints;           // Vector of each INT column, null for the other columns
+    final float[][] floats;       // Vector of each REAL column, null for the other columns
+    final String[][] strings;     // Vector of each STRING column, null for the other columns
+    int[] selection;              // Rows selected, in increasing order
+    int numSelected;              // Number of rows selected
+
+    public ColumnBatch(int[] types, int capacity) {
+        this.types = types;
+        this.capacity = capacity;
+        this.size = 0;
+        ints = new int[types.length][];
+        floats = new float[types.length][];
+        strings = new String[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                    ints[i] = new int[capacity];
+                    break;
+                case Attribute.REAL:
+                    floats[i] = new float[capacity];
+                    break;
+                default:
+                    strings[i] = new String[capacity];
+            }
+        }
+        selection = new int[capacity];
+        numSelected = 0;
+    }
+
+    private ColumnBatch(int[] types, int capacity, int size, int[][] ints, float[][] floats,
+                        String[][] strings, int[] selection, int numSelected) {
+        this.types = types;
+        this.capacity = capacity;
+        this.size = size;
+        this.ints = ints;
+        this.floats = floats;
+        this.strings = strings;
+        this.selection = selection;
+        this.numSelected = numSelected;
+    }
+
+    /**
+     * Empty batch for tuples of the given schema
+     **/
+    public ColumnBatch(Schema schema, int capacity) {
+        this(PageCodec.typesOf(schema), capacity);
+    }
+
+    /**
+     * Column copy of a row batch
+     **/
+    public static ColumnBatch fromBatch(Batch batch, Schema schema) {
+        ColumnBatch columns = new ColumnBatch(schema, Math.max(1, batch.size()));
+        for (int i = 0; i < batch.size(); i++) {
+            columns.add(batch.get(i));
+        }
+        return columns;
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int typeOf(int col) {
+        return types[col];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int[] getIntColumn(int col) {
+        return ints[col];
+    }
+
+    public float[] getFloatColumn(int col) {
+        return floats[col];
+    }
+
+    public String[] getStringColumn(int col) {
+        return strings[col];
+    }
+
+    public int[] getSelection() {
+        return selection;
+    }
+
+    public int getNumSelected() {
+        return numSelected;
+    }
+
+    /**
+     * Keeps only the first numSelected rows of the selection vector,
+     * * after the caller has compacted it
+     **/
+    public void setNumSelected(int numSelected) {
+        this.numSelected = numSelected;
+    }
+
+    public boolean isEmpty() {
+        return numSelected == 0;
+    }
+
+    /**
+     * Appends a row and selects it
+     **/
+    public void add(Tuple tuple) {
+        int row = size++;
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                    ints[i][row] = tuple.getInt(i);
+                    break;
+                case Attribute.REAL:
+                    floats[i][row] = tuple.getFloat(i);
+                    break;
+                default:
+                    strings[i][row] = tuple.getString(i);
+            }
+        }
+        selection[numSelected++] = row;
+    }
+
+    /**
+     * Row materialized as a tuple
+     **/
+    public Tuple getTuple(int row) {
+        int[] values = new int[types.length];
+        String[] rowStrings = null;
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                    values[i] = ints[i][row];
+                    break;
+                case Attribute.REAL:
+                    values[i] = Float.floatToRawIntBits(floats[i][row]);
+                    break;
+                default:
+                    if (rowStrings == null) {
+                        rowStrings = new String[types.length];
+                    }
+                    rowStrings[i] = strings[i][row];
+            }
+        }
+        return new Tuple(types, values, rowStrings);
+    }
+
+    /**
+     * The selected rows as a row batch
+     **/
+    public Batch toBatch() {
+        Batch batch = new Batch(Math.max(numSelected, 1));
+        for (int i = 0; i < numSelected; i++) {
+            batch.add(getTuple(selection[i]));
+        }
+        return batch;
+    }
+
+    /**
+     * Batch made of the given columns, the vectors and the selection are shared
+     **/
+    public ColumnBatch project(int[] cols) {
+        int[] newTypes = new int[cols.length];
+        int[][] newInts = new int[cols.length][];
+        float[][] newFloats = new float[cols.length][];
+        String[][] newStrings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            newTypes[i] = types[cols[i]];
+            newInts[i] = ints[cols[i]];
+            newFloats[i] = floats[cols[i]];
+            newStrings[i] = strings[cols[i]];
+        }
+        return new ColumnBatch(newTypes, capacity, size, newInts, newFloats, newStrings, selection, numSelected);
+    }
+
+}
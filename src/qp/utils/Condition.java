@@ -82,11 +82,18 @@ public class Condition {
         rhs = value;
     }
 
+    /**
+     * Swaps the sides of a join condition, the comparison operator is mirrored
+     **/
     public void flip() {
         if (optype == JOIN) {
             Object temp = lhs;
             lhs = (Attribute) rhs;
             rhs = temp;
+            if (exprtype == LESSTHAN) exprtype = GREATERTHAN;
+            else if (exprtype == GREATERTHAN) exprtype = LESSTHAN;
+            else if (exprtype == LTOE) exprtype = GTOE;
+            else if (exprtype == GTOE) exprtype = LTOE;
         }
     }
 
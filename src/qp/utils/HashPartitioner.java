@@ -0,0 +1,204 @@
+/**
+ * Recursive hash partitioning of tuples into temporary files
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * Splits one or more inputs into partitions by the hash of their key, for the
+ * hash based operators whose hash table does not fit into the buffers.
+ * * The inputs read at level 0 are written into partitions of level 1, and a
+ * * partition of level l which is still too big is split again into partitions
+ * * of level l + 1 with another hash function. A partition holds one file per
+ * * input, and is kept only if none of its files is empty.
+ * * The partitions are handed out one at a time, the sub-partitions of a split
+ * * partition before the partitions left from the previous level. The files of
+ * * a partition are deleted when the next one is taken, or when the
+ * * partitioner is closed.
+ */
+public class HashPartitioner {
+
+    public static final int MAX_DEPTH = 3;  // Partitioning levels before the hash table may exceed the buffers
+
+    static int fileNum = 0;                 // To get unique fileNum for this operation
+
+    String prefix;                          // Prefix of the temporary files, that of the operator
+    int numPartitions;                      // Number of partitions created per split
+    int[] pageTuples;                       // Number of tuples per page of each input
+    Schema[] schemas;                       // Schema of each input
+
+    TupleWriter[][] writers;                // Partitions being written, per input, null if none
+    int writersLevel;                       // Level of the partitions being written
+    Deque<Partition> partitions;            // Partitions written and not handed out yet
+    Partition current;                      // Partition handed out last, null if none
+
+    String uuid = UUID.randomUUID().toString(); // To avoid conflicts between operations
+
+    /**
+     * The files of the inputs with the same hash values
+     */
+    public static class Partition {
+        final String[] files;
+        final int[] numTuples;
+        final int level;
+
+        Partition(String[] files, int[] numTuples, int level) {
+            this.files = files;
+            this.numTuples = numTuples;
+            this.level = level;
+        }
+
+        public String getFile(int input) {
+            return files[input];
+        }
+
+        public int getNumTuples(int input) {
+            return numTuples[input];
+        }
+
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    /**
+     * Partitioner of a single input
+     */
+    public HashPartitioner(String prefix, int numPartitions, int pageTuples, Schema schema) {
+        this(prefix, numPartitions, new int[]{pageTuples}, new Schema[]{schema});
+    }
+
+    /**
+     * Partitioner of several inputs, each partition holding a file of every input
+     */
+    public HashPartitioner(String prefix, int numPartitions, int[] pageTuples, Schema[] schemas) {
+        this.prefix = prefix;
+        this.numPartitions = numPartitions;
+        this.pageTuples = pageTuples;
+        this.schemas = schemas;
+        this.partitions = new ArrayDeque<>();
+    }
+
+    /**
+     * Writes the tuple of the input read at the given level into its partition
+     * * of the next level, with the hash of its key
+     **/
+    public void write(int input, Tuple t, int hash, int level) {
+        if (writers == null) {
+            fileNum++;
+            writers = new TupleWriter[schemas.length][numPartitions];
+            writersLevel = level + 1;
+            for (int in = 0; in < schemas.length; in++) {
+                for (int i = 0; i < numPartitions; i++) {
+                    String filename = String.format("%stemp-%s-%d-L%d-I%d-P%d", prefix, uuid, fileNum, level + 1, in, i);
+                    writers[in][i] = new TupleWriter(filename, pageTuples[in], schemas[in]);
+                    writers[in][i].open();
+                }
+            }
+        }
+        writers[input][partitionOf(hash, level)].next(t);
+    }
+
+    /**
+     * Ends the partitions being written, to be handed out before those left
+     **/
+    public void finish() {
+        if (writers == null) {
+            return;
+        }
+        ArrayList<Partition> written = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            String[] files = new String[schemas.length];
+            int[] numTuples = new int[schemas.length];
+            boolean empty = false;
+            for (int in = 0; in < schemas.length; in++) {
+                writers[in][i].close();
+                files[in] = writers[in][i].getFileName();
+                numTuples[in] = writers[in][i].getNumTuple();
+                empty |= numTuples[in] == 0;
+            }
+            Partition p = new Partition(files, numTuples, writersLevel);
+            if (empty) {
+                delete(p);
+            } else {
+                written.add(p);
+            }
+        }
+        writers = null;
+        for (int i = written.size() - 1; i >= 0; i--) {
+            partitions.push(written.get(i));
+        }
+    }
+
+    /**
+     * Ends the partitions being written and hands out the next partition,
+     * * deleting the files of the previous one
+     * @return null if there is no partition left.
+     */
+    public Partition nextPartition() {
+        finish();
+        if (current != null) {
+            delete(current);
+        }
+        current = partitions.poll();
+        return current;
+    }
+
+    /**
+     * Deletes all the files still there
+     **/
+    public void close() {
+        if (writers != null) {
+            for (TupleWriter[] inputWriters : writers) {
+                for (TupleWriter writer : inputWriters) {
+                    writer.close();
+                    new File(writer.getFileName()).delete();
+                }
+            }
+            writers = null;
+        }
+        if (current != null) {
+            delete(current);
+            current = null;
+        }
+        while (!partitions.isEmpty()) {
+            delete(partitions.pop());
+        }
+    }
+
+    private void delete(Partition p) {
+        for (String file : p.files) {
+            new File(file).delete();
+        }
+    }
+
+    /**
+     * Hash of the attributes of the tuple at the given indexes
+     **/
+    public static int keyHash(Tuple t, ArrayList<Integer> index) {
+        int hash = 1;
+        for (int i : index) {
+            hash = 31 * hash + t.hashAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Hash function used to choose the partition, differs for every level
+     * so that a partition which is too big can be split again.
+     */
+    int partitionOf(int hash, int level) {
+        int h = hash * 31 + level * 0x9E3779B9;
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return Math.floorMod(h, numPartitions);
+    }
+
+}
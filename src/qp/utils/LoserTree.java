@@ -0,0 +1,107 @@
+/**
+ * Merges sorted runs with a tournament tree of losers
+ **/
+
+package qp.utils;
+
+import java.util.Comparator;
+
+/**
+ * The leaves of the tree are the heads of the k runs. Every internal node keeps
+ * * the run that lost the match played at that node, and node 0 keeps the overall
+ * * winner. Taking the winner only replays the matches on the path from its leaf
+ * * to the root, so each tuple costs log k comparisons.
+ */
+public class LoserTree {
+
+    final Comparator<Tuple> comparator;   // Order of the runs, the smallest tuple wins
+    final TupleReader[] runs;             // Readers of the runs being merged
+    final Tuple[] heads;                  // Next tuple of each run, null once the run is exhausted
+    final int[] tree;                     // tree[0] is the winner, tree[1..k-1] the losers of each match
+    final int k;                          // Number of runs
+
+    /**
+     * Builds the tree from runs opened by the caller
+     **/
+    public LoserTree(TupleReader[] runs, Comparator<Tuple> comparator) {
+        this.runs = runs;
+        this.comparator = comparator;
+        k = runs.length;
+        heads = new Tuple[k];
+        tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++) {
+            heads[i] = advance(i);
+        }
+        if (k > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    /**
+     * Whether all the runs are exhausted
+     **/
+    public boolean isEmpty() {
+        return k == 0 || heads[tree[0]] == null;
+    }
+
+    /**
+     * Returns the smallest tuple of the runs and replaces it by the next tuple of its run
+     **/
+    public Tuple next() {
+        int winner = tree[0];
+        Tuple result = heads[winner];
+        heads[winner] = advance(winner);
+
+        for (int node = (winner + k) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return result;
+    }
+
+    /**
+     * Plays the matches of the subtree, leaves are the nodes k to 2k - 1
+     * * @return the winner of the subtree
+     **/
+    private int build(int node) {
+        if (node >= k) {
+            return node - k;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(right, left)) {
+            tree[node] = left;
+            return right;
+        }
+        tree[node] = right;
+        return left;
+    }
+
+    /**
+     * Whether the head of run a comes before the head of run b, exhausted runs lose
+     * * and ties go to the earlier run
+     **/
+    private boolean beats(int a, int b) {
+        if (heads[a] == null) {
+            return false;
+        }
+        if (heads[b] == null) {
+            return true;
+        }
+        int result = comparator.compare(heads[a], heads[b]);
+        return result < 0 || (result == 0 && a < b);
+    }
+
+    private Tuple advance(int run) {
+        if (runs[run].isEOF()) {
+            runs[run].close();
+            return null;
+        }
+        return runs[run].next();
+    }
+
+}
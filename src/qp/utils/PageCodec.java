@@ -0,0 +1,339 @@
+/**
+ * PageCodec encodes pages of tuples into a compact binary format and decodes them back.
+ * It is shared by the base table files and all the temporary files written by the operators.
+ */
+
+package qp.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * File layout:
+ * * header  : magic (int), number of columns (int), type of each column (byte)
+ * * pages   : number of tuples (int), number of payload bytes (int), payload
+ * Page aligned files (used for the base tables) also store the page size after the column types,
+ * and pad the header and every page with zeros to a multiple of the page size, so that a page
+ * always starts at a page boundary of the file. A page only spans more than one page size when it
+ * holds a single tuple larger than a page.
+ * Payload of a tuple is the concatenation of its columns:
+ * * INT     : 4 bytes
+ * * REAL    : 4 bytes (IEEE 754)
+ * * STRING  : unsigned 2 byte length followed by the UTF-8 bytes, 0xFFFF for null
+ * TIME values are kept as strings, same as in the tuples.
+ */
+public class PageCodec {
+
+    public static final int MAGIC = 0x51504631;          // "QPF1"
+    public static final int MAGIC_ALIGNED = 0x51504632;  // "QPF2", page aligned
+    public static final int PAGE_HEADER_SIZE = 8;        // Tuple count and payload length
+    public static final int DEFAULT_PAGE_SIZE = 4096;    // Bytes per page of the base table files
+
+    static final int NULL_LENGTH = 0xFFFF;
+
+    final int[] types;        // Attribute type of each column, shared by the tuples decoded
+    final boolean hasStrings; // Whether some column is a STRING
+    int pageSize = 0;         // Pages are padded to a multiple of this number of bytes, 0 if not aligned
+    ByteBuffer buffer;        // Reused for encoding and decoding pages
+
+    public PageCodec(int[] types) {
+        this.types = types;
+        boolean strings = false;
+        for (int type : types) {
+            strings |= (type == Attribute.STRING);
+        }
+        this.hasStrings = strings;
+        this.buffer = ByteBuffer.allocate(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Codec for tuples of the given schema
+     */
+    public PageCodec(Schema schema) {
+        this(typesOf(schema));
+    }
+
+    /**
+     * Codec inferred from the values of a tuple, for writers that do not know their schema
+     */
+    public static PageCodec forTuple(Tuple tuple) {
+        return new PageCodec(tuple.types.clone());
+    }
+
+    /**
+     * Types of the values stored for a schema, TIME values are STRING
+     **/
+    public static int[] typesOf(Schema schema) {
+        int[] types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = schema.typeOf(i) == Attribute.TIME ? Attribute.STRING : schema.typeOf(i);
+        }
+        return types;
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int typeOf(int i) {
+        return types[i];
+    }
+
+    /**
+     * Aligns the header and the pages written to multiples of pageSize bytes
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public boolean isAligned() {
+        return pageSize > 0;
+    }
+
+    /**
+     * Number of bytes taken by the file header
+     */
+    public int headerSize() {
+        return isAligned() ? pageSize : 8 + types.length;
+    }
+
+    /**
+     * Number of bytes taken by a page with the given payload, including the padding
+     */
+    public int pageLength(int payloadLength) {
+        int length = PAGE_HEADER_SIZE + payloadLength;
+        if (!isAligned()) {
+            return length;
+        }
+        return (length + pageSize - 1) / pageSize * pageSize;
+    }
+
+    /**
+     * Writes the file header
+     */
+    public void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(isAligned() ? MAGIC_ALIGNED : MAGIC);
+        out.writeInt(types.length);
+        for (int type : types) {
+            out.writeByte(type);
+        }
+        if (isAligned()) {
+            out.writeInt(pageSize);
+            writePadding(out, pageSize - 12 - types.length);
+        }
+    }
+
+    /**
+     * Reads the file header and returns the codec described by it
+     */
+    public static PageCodec readHeader(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC && magic != MAGIC_ALIGNED) {
+            throw new IOException("not a table file, convert it with ConvertTblFormat");
+        }
+        int[] types = new int[in.readInt()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = in.readByte();
+        }
+        PageCodec codec = new PageCodec(types);
+        if (magic == MAGIC_ALIGNED) {
+            codec.setPageSize(in.readInt());
+            in.readFully(new byte[codec.pageSize - 12 - types.length]);
+        }
+        return codec;
+    }
+
+    /**
+     * Checks whether this codec can read tuples of the given schema
+     */
+    public boolean matches(Schema schema) {
+        int[] expected = typesOf(schema);
+        if (expected.length != types.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (expected[i] != types[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of bytes the tuple occupies in a page
+     */
+    public int encodedSize(Tuple tuple) {
+        int size = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.STRING) {
+                String data = tuple.getString(i);
+                size += 2 + (data == null ? 0 : data.getBytes(StandardCharsets.UTF_8).length);
+            } else {
+                size += 4;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the tuples of the batch as one page
+     * @return the number of bytes written, including the padding
+     */
+    public int writePage(DataOutputStream out, Batch page) throws IOException {
+        buffer.clear();
+        for (int i = 0; i < page.size(); i++) {
+            encode(page.get(i));
+        }
+        int length = pageLength(buffer.position());
+        out.writeInt(page.size());
+        out.writeInt(buffer.position());
+        out.write(buffer.array(), 0, buffer.position());
+        writePadding(out, length - PAGE_HEADER_SIZE - buffer.position());
+        return length;
+    }
+
+    /**
+     * Reads the next page
+     * @throws EOFException when there is no more page in the file
+     */
+    public Batch readPage(DataInputStream in) throws IOException {
+        int numTuples = readPageData(in);
+        Batch page = new Batch(numTuples);
+        for (int i = 0; i < numTuples; i++) {
+            page.add(decode(buffer));
+        }
+        return page;
+    }
+
+    /**
+     * Reads the next page without decoding it, the payload is then available
+     * * from pageData() and the tuples are decoded one by one by the caller
+     * @return the number of tuples of the page
+     * @throws EOFException when there is no more page in the file
+     */
+    public int readPageData(DataInputStream in) throws IOException {
+        int numTuples = in.readInt();
+        int length = in.readInt();
+        int padded = pageLength(length) - PAGE_HEADER_SIZE;
+        ensureCapacity(padded);
+        in.readFully(buffer.array(), 0, padded);
+        buffer.clear();
+        buffer.limit(length);
+        return numTuples;
+    }
+
+    /**
+     * Payload of the page read by readPageData
+     **/
+    public ByteBuffer pageData() {
+        return buffer;
+    }
+
+    private void encode(Tuple tuple) {
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                case Attribute.REAL:
+                    /** REAL values are kept as their float bits by the tuples **/
+                    ensureCapacity(buffer.position() + 4);
+                    buffer.putInt(tuple.values[i]);
+                    break;
+                default:
+                    String data = tuple.getString(i);
+                    if (data == null) {
+                        ensureCapacity(buffer.position() + 2);
+                        buffer.putChar((char) NULL_LENGTH);
+                    } else {
+                        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+                        ensureCapacity(buffer.position() + 2 + bytes.length);
+                        buffer.putChar((char) bytes.length);
+                        buffer.put(bytes);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Decodes one tuple at the current position of the buffer
+     */
+    public Tuple decode(ByteBuffer in) {
+        int[] values = new int[types.length];
+        String[] strings = hasStrings ? new String[types.length] : null;
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                case Attribute.REAL:
+                    values[i] = in.getInt();
+                    break;
+                default:
+                    int length = in.getChar();
+                    if (length == NULL_LENGTH) {
+                        strings[i] = null;
+                    } else if (in.hasArray()) {
+                        strings[i] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+                        in.position(in.position() + length);
+                    } else {
+                        byte[] bytes = new byte[length];
+                        in.get(bytes);
+                        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                    }
+            }
+        }
+        return new Tuple(types, values, strings);
+    }
+
+    /**
+     * Decodes one tuple at the current position of the buffer and appends it to the columns
+     */
+    public void decodeInto(ByteBuffer in, ColumnBatch columns) {
+        int row = columns.size++;
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                    columns.ints[i][row] = in.getInt();
+                    break;
+                case Attribute.REAL:
+                    columns.floats[i][row] = in.getFloat();
+                    break;
+                default:
+                    int length = in.getChar();
+                    if (length == NULL_LENGTH) {
+                        columns.strings[i][row] = null;
+                    } else if (in.hasArray()) {
+                        columns.strings[i][row] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+                        in.position(in.position() + length);
+                    } else {
+                        byte[] bytes = new byte[length];
+                        in.get(bytes);
+                        columns.strings[i][row] = new String(bytes, StandardCharsets.UTF_8);
+                    }
+            }
+        }
+        columns.selection[columns.numSelected++] = row;
+    }
+
+    private void writePadding(DataOutputStream out, int numBytes) throws IOException {
+        for (int i = 0; i < numBytes; i++) {
+            out.writeByte(0);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= buffer.capacity()) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+}
@@ -0,0 +1,366 @@
+/**
+ * Select condition compiled for a schema
+ **/
+
+package qp.utils;
+
+import java.util.function.IntPredicate;
+
+/**
+ * The column of the condition is resolved, its constant parsed and its comparison
+ * operator chosen once, when the operator is opened, instead of for every tuple.
+ * * A predicate tests a tuple, or filters the selection vector of a column batch.
+ */
+public abstract class Predicate {
+
+    final Condition con;      // Condition the predicate was compiled from
+    final int index;          // Column of the left hand side
+    final int exprtype;       // Comparison operator
+    long numTested;           // Number of tuples tested, decayed over time
+    long numPassed;           // Number of tuples that satisfied the condition, decayed over time
+
+    Predicate(Condition con, int index) {
+        this.con = con;
+        this.index = index;
+        this.exprtype = con.getExprType();
+    }
+
+    public Condition getCondition() {
+        return con;
+    }
+
+    /**
+     * Records the outcome of testing a number of tuples
+     **/
+    public void count(int tested, int passed) {
+        numTested += tested;
+        numPassed += passed;
+    }
+
+    /**
+     * Fraction of the tuples tested that satisfied the condition, 1 before any test
+     **/
+    public double getPassRate() {
+        return numTested == 0 ? 1.0 : (double) numPassed / numTested;
+    }
+
+    /**
+     * Halves the counts so that the pass rate follows changes in the input
+     **/
+    public void decayCounts() {
+        numTested /= 2;
+        numPassed /= 2;
+    }
+
+    /**
+     * Whether the tuple satisfies the condition
+     **/
+    public abstract boolean test(Tuple tuple);
+
+    /**
+     * Keeps in the selection vector of the batch only the rows satisfying the condition
+     **/
+    public abstract void filter(ColumnBatch columns);
+
+    /**
+     * Compiles a select condition for tuples of the schema
+     **/
+    public static Predicate compile(Condition con, Schema schema) {
+        Attribute attr = con.getLhs();
+        int index = schema.indexOf(attr);
+        int datatype = schema.typeOf(attr);
+        if (index == -1) {
+            System.out.println("Select: Unknown attribute " + attr.getTabName() + "." + attr.getColName());
+            System.exit(1);
+        }
+        if (con.getExprType() < Condition.LESSTHAN || con.getExprType() > Condition.NOTEQUAL) {
+            System.out.println("Select: Incorrect condition operator");
+            System.exit(1);
+        }
+        if (datatype == Attribute.TIME) {
+            datatype = Attribute.STRING;
+        }
+
+        if (con.getRhs() instanceof Attribute) {
+            return new ColumnComparison(con, index, datatype, schema.indexOf((Attribute) con.getRhs()));
+        }
+        if (!(con.getRhs() instanceof String)) {
+            System.out.println("Select: Malformed condition");
+            System.exit(1);
+        }
+        String constant = (String) con.getRhs();
+        try {
+            if (datatype == Attribute.INT) {
+                return new IntConstant(con, index, Integer.parseInt(constant));
+            } else if (datatype == Attribute.REAL) {
+                return new RealConstant(con, index, Float.parseFloat(constant));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Select: Malformed constant " + constant);
+            System.exit(1);
+        }
+        return new StringConstant(con, index, constant);
+    }
+
+    /**
+     * Whether the result of a comparison satisfies the comparison operator
+     **/
+    static boolean satisfies(int flag, int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return flag < 0;
+            case Condition.GREATERTHAN:
+                return flag > 0;
+            case Condition.LTOE:
+                return flag <= 0;
+            case Condition.GTOE:
+                return flag >= 0;
+            case Condition.EQUAL:
+                return flag == 0;
+            default:
+                return flag != 0;
+        }
+    }
+
+    /**
+     * INT column compared to a constant
+     **/
+    static class IntConstant extends Predicate {
+        final int constant;
+        final IntPredicate check;
+
+        IntConstant(Condition con, int index, int c) {
+            super(con, index);
+            constant = c;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    check = v -> v < c;
+                    break;
+                case Condition.GREATERTHAN:
+                    check = v -> v > c;
+                    break;
+                case Condition.LTOE:
+                    check = v -> v <= c;
+                    break;
+                case Condition.GTOE:
+                    check = v -> v >= c;
+                    break;
+                case Condition.EQUAL:
+                    check = v -> v == c;
+                    break;
+                default:
+                    check = v -> v != c;
+            }
+        }
+
+        public boolean test(Tuple tuple) {
+            return check.test(tuple.values[index]);
+        }
+
+        public void filter(ColumnBatch columns) {
+            int[] values = columns.ints[index];
+            int[] sel = columns.selection;
+            int n = columns.numSelected;
+            int c = constant;
+            int m = 0;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] < c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.GREATERTHAN:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] > c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.LTOE:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] <= c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.GTOE:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] >= c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.EQUAL:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] == c) sel[m++] = sel[k];
+                    }
+                    break;
+                default:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] != c) sel[m++] = sel[k];
+                    }
+            }
+            columns.numSelected = m;
+        }
+    }
+
+    /**
+     * REAL column compared to a constant
+     **/
+    static class RealConstant extends Predicate {
+        final float constant;
+        final FloatCheck check;
+
+        /** IntPredicate for floats, java.util.function has none **/
+        interface FloatCheck {
+            boolean test(float v);
+        }
+
+        RealConstant(Condition con, int index, float c) {
+            super(con, index);
+            constant = c;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    check = v -> v < c;
+                    break;
+                case Condition.GREATERTHAN:
+                    check = v -> v > c;
+                    break;
+                case Condition.LTOE:
+                    check = v -> v <= c;
+                    break;
+                case Condition.GTOE:
+                    check = v -> v >= c;
+                    break;
+                case Condition.EQUAL:
+                    check = v -> v == c;
+                    break;
+                default:
+                    check = v -> v != c;
+            }
+        }
+
+        public boolean test(Tuple tuple) {
+            return check.test(Float.intBitsToFloat(tuple.values[index]));
+        }
+
+        public void filter(ColumnBatch columns) {
+            float[] values = columns.floats[index];
+            int[] sel = columns.selection;
+            int n = columns.numSelected;
+            float c = constant;
+            int m = 0;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] < c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.GREATERTHAN:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] > c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.LTOE:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] <= c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.GTOE:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] >= c) sel[m++] = sel[k];
+                    }
+                    break;
+                case Condition.EQUAL:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] == c) sel[m++] = sel[k];
+                    }
+                    break;
+                default:
+                    for (int k = 0; k < n; k++) {
+                        if (values[sel[k]] != c) sel[m++] = sel[k];
+                    }
+            }
+            columns.numSelected = m;
+        }
+    }
+
+    /**
+     * STRING (or TIME) column compared to a constant
+     **/
+    static class StringConstant extends Predicate {
+        final String constant;
+
+        StringConstant(Condition con, int index, String c) {
+            super(con, index);
+            constant = c;
+        }
+
+        public boolean test(Tuple tuple) {
+            return satisfies(tuple.strings[index].compareTo(constant), exprtype);
+        }
+
+        public void filter(ColumnBatch columns) {
+            String[] values = columns.strings[index];
+            int[] sel = columns.selection;
+            int n = columns.numSelected;
+            int m = 0;
+            if (exprtype == Condition.EQUAL) {
+                for (int k = 0; k < n; k++) {
+                    if (values[sel[k]].equals(constant)) sel[m++] = sel[k];
+                }
+            } else {
+                for (int k = 0; k < n; k++) {
+                    if (satisfies(values[sel[k]].compareTo(constant), exprtype)) sel[m++] = sel[k];
+                }
+            }
+            columns.numSelected = m;
+        }
+    }
+
+    /**
+     * Two columns of the same tuple compared to each other
+     **/
+    static class ColumnComparison extends Predicate {
+        final int type;
+        final int rhsIndex;
+
+        ColumnComparison(Condition con, int index, int type, int rhsIndex) {
+            super(con, index);
+            this.type = type;
+            this.rhsIndex = rhsIndex;
+        }
+
+        public boolean test(Tuple tuple) {
+            switch (type) {
+                case Attribute.INT:
+                    return satisfies(Integer.compare(tuple.values[index], tuple.values[rhsIndex]), exprtype);
+                case Attribute.REAL:
+                    return satisfies(Float.compare(tuple.getFloat(index), tuple.getFloat(rhsIndex)), exprtype);
+                default:
+                    return satisfies(tuple.strings[index].compareTo(tuple.strings[rhsIndex]), exprtype);
+            }
+        }
+
+        public void filter(ColumnBatch columns) {
+            int[] sel = columns.selection;
+            int n = columns.numSelected;
+            int m = 0;
+            if (type == Attribute.INT) {
+                int[] left = columns.ints[index];
+                int[] right = columns.ints[rhsIndex];
+                for (int k = 0; k < n; k++) {
+                    if (satisfies(Integer.compare(left[sel[k]], right[sel[k]]), exprtype)) sel[m++] = sel[k];
+                }
+            } else if (type == Attribute.REAL) {
+                float[] left = columns.floats[index];
+                float[] right = columns.floats[rhsIndex];
+                for (int k = 0; k < n; k++) {
+                    if (satisfies(Float.compare(left[sel[k]], right[sel[k]]), exprtype)) sel[m++] = sel[k];
+                }
+            } else {
+                String[] left = columns.strings[index];
+                String[] right = columns.strings[rhsIndex];
+                for (int k = 0; k < n; k++) {
+                    if (satisfies(left[sel[k]].compareTo(right[sel[k]]), exprtype)) sel[m++] = sel[k];
+                }
+            }
+            columns.numSelected = m;
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ public class SQLQuery {
 
     boolean isAsc = true;
     boolean isDistinct = false;          // Whether distinct key word appeared in select clause
+    int limit = -1;                      // Number of tuples in the limit clause, -1 if there is none
 
     public SQLQuery(ArrayList<Attribute> list1, ArrayList<String> list2, ArrayList<Condition> list3) {
         projectList = list1;
@@ -79,6 +80,14 @@ public class SQLQuery {
         return isDistinct;
     }
 
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
     public ArrayList<Attribute> getProjectList() {
         return projectList;
     }
@@ -8,6 +8,10 @@ import java.io.Serializable;
 import java.util.ArrayList;
 
 public class Schema implements Serializable {
+
+    /** Fixed so that the .md files of the existing tables can still be read **/
+    private static final long serialVersionUID = 2779193728130899404L;
+
     ArrayList<Attribute> attset;  // The attributes belong to this schema
     int tupleSize;                // Number of bytes required for this tuple (size of record)
 
@@ -96,6 +100,14 @@ public class Schema implements Serializable {
         int newTupleSize = 0;
         for (int i = 0; i < attrlist.size(); ++i) {
             Attribute resAttr = attrlist.get(i);
+            int index = this.indexOf(resAttr);
+            if (index != -1) {
+                /** Aggregates already computed by a GroupBy are projected as they are **/
+                Attribute attr = (Attribute) this.getAttribute(index).clone();
+                newVector.add(attr);
+                newTupleSize = newTupleSize + attr.getAttrSize();
+                continue;
+            }
             int baseIndex = this.indexOf(resAttr.getBaseAttribute());
             Attribute baseAttr = (Attribute) this.getAttribute(baseIndex).clone();
             baseAttr.setAggType(resAttr.getAggType());
@@ -111,6 +123,31 @@ public class Schema implements Serializable {
         return newSchema;
     }
 
+    /** The schema of the result of a group by operation: the grouping
+     attributes followed by one attribute for every aggregate **/
+    public Schema groupSchema(ArrayList<Attribute> groupbylist, ArrayList<Attribute> aggregates) {
+        ArrayList<Attribute> newVector = new ArrayList<>();
+        int newTupleSize = 0;
+        for (Attribute groupAttr : groupbylist) {
+            Attribute attr = (Attribute) this.getAttribute(this.indexOf(groupAttr)).clone();
+            newVector.add(attr);
+            newTupleSize = newTupleSize + attr.getAttrSize();
+        }
+        for (Attribute aggAttr : aggregates) {
+            Attribute attr = (Attribute) this.getAttribute(this.indexOf(aggAttr.getBaseAttribute())).clone();
+            attr.setAggType(aggAttr.getAggType());
+            attr.setType(attr.getProjectedType());
+            if (attr.getAggType() != Attribute.MAX && attr.getAggType() != Attribute.MIN) {
+                attr.setAttrSize(4);
+            }
+            newVector.add(attr);
+            newTupleSize = newTupleSize + attr.getAttrSize();
+        }
+        Schema newSchema = new Schema(newVector);
+        newSchema.setTupleSize(newTupleSize);
+        return newSchema;
+    }
+
     /** Check compatibility for set operations **/
     public boolean checkCompat(Schema right) {
         ArrayList<Attribute> rightattrlist = right.getAttList();
@@ -0,0 +1,115 @@
+/**
+ * Reads the tuples of a base table file by their record id
+ **/
+
+package qp.utils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A record id is the offset of the page of the tuple in the table file and the
+ * * position of the tuple in that page, as stored by the BPlusTree indexes.
+ * * The last page read is kept decoded, so tuples fetched in the order of the
+ * * file read every page once.
+ */
+public class TableReader {
+
+    final String filename;   // Table file
+    FileChannel channel;     // Channel of the table file
+    PageCodec codec;         // Decodes the pages of the table file
+    long pageOffset;         // Offset of the page decoded, -1 if none
+    Tuple[] page;            // Tuples of the page decoded
+    long numPageReads;       // Number of pages read from the file
+
+    public TableReader(String filename) {
+        this.filename = filename;
+    }
+
+    public long getNumPageReads() {
+        return numPageReads;
+    }
+
+    /**
+     * Opens the table file and checks that it holds tuples of the schema
+     **/
+    public boolean open(Schema schema) {
+        pageOffset = -1;
+        page = null;
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            codec = PageCodec.readHeader(new DataInputStream(Channels.newInputStream(channel)));
+        } catch (IOException e) {
+            System.err.println(" Error reading " + filename + ": " + e.getMessage());
+            close();
+            return false;
+        }
+        if (!codec.matches(schema)) {
+            System.err.println(" Schema of " + filename + " does not match its table");
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the tuple at the given position of the page starting at the given offset
+     **/
+    public Tuple fetch(long offset, int slot) {
+        if (offset != pageOffset) {
+            try {
+                readPage(offset);
+            } catch (IOException e) {
+                System.err.println("TableReader: Error reading " + filename);
+                System.exit(1);
+            }
+        }
+        return page[slot];
+    }
+
+    private void readPage(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PageCodec.PAGE_HEADER_SIZE);
+        readFully(header, offset);
+        int numTuples = header.getInt();
+        int length = header.getInt();
+        ByteBuffer data = ByteBuffer.allocate(length);
+        readFully(data, offset + PageCodec.PAGE_HEADER_SIZE);
+        page = new Tuple[numTuples];
+        for (int i = 0; i < numTuples; i++) {
+            page[i] = codec.decode(data);
+        }
+        pageOffset = offset;
+        numPageReads++;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("truncated table file");
+            }
+        }
+        buffer.flip();
+    }
+
+    public boolean close() {
+        page = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("TableReader: Error closing " + filename);
+                return false;
+            } finally {
+                channel = null;
+            }
+        }
+        return true;
+    }
+
+}
@@ -9,25 +9,129 @@ import java.io.*;
 import java.lang.StringBuilder;
 
 /**
- * Tuple - a simple object which holds an ArrayList of data
+ * Tuple - holds the values of a row in a layout specialized by type:
+ * * INT values, and REAL values as their float bits, are packed in an int array,
+ * * STRING (and TIME) values are kept in a String array. The types array is
+ * * shared by the tuples decoded from the same file.
  */
 public class Tuple implements Serializable {
 
-    public ArrayList<Object> _data;
+    /** Same as the serialVersionUID of the Tuple holding an ArrayList, so old table files can still be read **/
+    private static final long serialVersionUID = 2167457489284249932L;
+
+    /** Tuples were serialized as their ArrayList of values **/
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("_data", ArrayList.class)
+    };
+
+    int[] types;          // Type of each column: Attribute.INT, Attribute.REAL or Attribute.STRING
+    int[] values;         // Values of the INT and REAL columns
+    String[] strings;     // Values of the STRING columns, null if there is none
 
     public Tuple(ArrayList<Object> d) {
-        _data = d;
+        init(d);
+    }
+
+    /**
+     * Tuple built from its packed values, the arrays are not copied
+     **/
+    public Tuple(int[] types, int[] values, String[] strings) {
+        this.types = types;
+        this.values = values;
+        this.strings = strings;
+    }
+
+    private void init(ArrayList<Object> d) {
+        int numCols = d.size();
+        types = new int[numCols];
+        values = new int[numCols];
+        for (int i = 0; i < numCols; i++) {
+            Object data = d.get(i);
+            if (data instanceof Integer) {
+                types[i] = Attribute.INT;
+                values[i] = (Integer) data;
+            } else if (data instanceof Float) {
+                types[i] = Attribute.REAL;
+                values[i] = Float.floatToRawIntBits((Float) data);
+            } else {
+                types[i] = Attribute.STRING;
+                if (strings == null) {
+                    strings = new String[numCols];
+                }
+                strings[i] = (String) data;
+            }
+        }
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    /**
+     * Type of the value of the column, TIME values are STRING
+     **/
+    public int typeAt(int index) {
+        return types[index];
+    }
+
+    public int getInt(int index) {
+        return values[index];
+    }
+
+    public float getFloat(int index) {
+        return Float.intBitsToFloat(values[index]);
+    }
+
+    public String getString(int index) {
+        return strings[index];
     }
 
     /**
-     * Accessor for data
+     * Accessor for data, the values are boxed
      */
     public ArrayList<Object> data() {
-        return _data;
+        ArrayList<Object> data = new ArrayList<>(types.length);
+        for (int i = 0; i < types.length; i++) {
+            data.add(dataAt(i));
+        }
+        return data;
     }
 
+    /**
+     * Boxed value of the column, prefer the typed accessors
+     **/
     public Object dataAt(int index) {
-        return _data.get(index);
+        switch (types[index]) {
+            case Attribute.INT:
+                return values[index];
+            case Attribute.REAL:
+                return Float.intBitsToFloat(values[index]);
+            default:
+                return strings[index];
+        }
+    }
+
+    /**
+     * Checks whether the value of a column of this tuple equals the value of a column of another tuple
+     **/
+    public boolean equalsAt(int index, Tuple right, int rightindex) {
+        if (types[index] != right.types[rightindex]) {
+            return false;
+        }
+        if (types[index] == Attribute.STRING) {
+            return Objects.equals(strings[index], right.strings[rightindex]);
+        }
+        return values[index] == right.values[rightindex];
+    }
+
+    /**
+     * Hash of the value of a column, consistent with equalsAt
+     **/
+    public int hashAt(int index) {
+        if (types[index] == Attribute.STRING) {
+            return Objects.hashCode(strings[index]);
+        }
+        return values[index];
     }
 
     /**
@@ -35,12 +139,7 @@ public class Tuple implements Serializable {
      * * before performing actual join operation
      **/
     public boolean checkJoin(Tuple right, int leftindex, int rightindex) {
-        Object leftData = dataAt(leftindex);
-        Object rightData = right.dataAt(rightindex);
-        if (leftData.equals(rightData))
-            return true;
-        else
-            return false;
+        return equalsAt(leftindex, right, rightindex);
     }
 
     /**
@@ -51,9 +150,26 @@ public class Tuple implements Serializable {
         if (leftindex.size() != rightindex.size())
             return false;
         for (int i = 0; i < leftindex.size(); ++i) {
-            Object leftData = dataAt(leftindex.get(i));
-            Object rightData = right.dataAt(rightindex.get(i));
-            if (!leftData.equals(rightData)) {
+            if (!equalsAt(leftindex.get(i), right, rightindex.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the join conditions are satisfied, each condition comparing
+     * * its columns with its own comparison operator
+     **/
+    public boolean checkJoin(Tuple right, ArrayList<Integer> leftindex, ArrayList<Integer> rightindex,
+                             ArrayList<Integer> exprtypes) {
+        for (int i = 0; i < leftindex.size(); ++i) {
+            int exprtype = exprtypes.get(i);
+            if (exprtype == Condition.EQUAL) {
+                if (!equalsAt(leftindex.get(i), right, rightindex.get(i))) {
+                    return false;
+                }
+            } else if (!Predicate.satisfies(compareTuples(this, right, leftindex.get(i), rightindex.get(i)), exprtype)) {
                 return false;
             }
         }
@@ -64,9 +180,39 @@ public class Tuple implements Serializable {
      * Joining two tuples without duplicate column elimination
      **/
     public Tuple joinWith(Tuple right) {
-        ArrayList<Object> newData = new ArrayList<>(this.data());
-        newData.addAll(right.data());
-        return new Tuple(newData);
+        int numCols = types.length + right.types.length;
+        int[] newTypes = Arrays.copyOf(types, numCols);
+        System.arraycopy(right.types, 0, newTypes, types.length, right.types.length);
+        int[] newValues = Arrays.copyOf(values, numCols);
+        System.arraycopy(right.values, 0, newValues, types.length, right.types.length);
+        String[] newStrings = null;
+        if (strings != null || right.strings != null) {
+            newStrings = new String[numCols];
+            if (strings != null) {
+                System.arraycopy(strings, 0, newStrings, 0, types.length);
+            }
+            if (right.strings != null) {
+                System.arraycopy(right.strings, 0, newStrings, types.length, right.types.length);
+            }
+        }
+        return new Tuple(newTypes, newValues, newStrings);
+    }
+
+    /**
+     * Tuple made of the given columns of this tuple
+     **/
+    public Tuple project(int[] indexes) {
+        int[] newTypes = new int[indexes.length];
+        int[] newValues = new int[indexes.length];
+        String[] newStrings = strings == null ? null : new String[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            newTypes[i] = types[indexes[i]];
+            newValues[i] = values[indexes[i]];
+            if (strings != null) {
+                newStrings[i] = strings[indexes[i]];
+            }
+        }
+        return new Tuple(newTypes, newValues, newStrings);
     }
 
     /**
@@ -77,21 +223,21 @@ public class Tuple implements Serializable {
     }
 
     /**
-     * Comparing tuples in different tables, used for join condition checking
+     * Comparing tuples in different tables, used for join condition checking.
+     * * Operators comparing many tuples should use a TupleComparator built once per schema.
      **/
     public static int compareTuples(Tuple left, Tuple right, int leftIndex, int rightIndex) {
-        Object leftdata = left.dataAt(leftIndex);
-        Object rightdata = right.dataAt(rightIndex);
-        if (leftdata instanceof Integer) {
-            return ((Integer) leftdata).compareTo((Integer) rightdata);
-        } else if (leftdata instanceof String) {
-            return ((String) leftdata).compareTo((String) rightdata);
-        } else if (leftdata instanceof Float) {
-            return ((Float) leftdata).compareTo((Float) rightdata);
-        } else {
-            System.out.println("Tuple: Unknown comparison of the tuples");
-            System.exit(1);
-            return 0;
+        switch (left.types[leftIndex]) {
+            case Attribute.INT:
+                return Integer.compare(left.values[leftIndex], right.values[rightIndex]);
+            case Attribute.REAL:
+                return Float.compare(left.getFloat(leftIndex), right.getFloat(rightIndex));
+            case Attribute.STRING:
+                return left.strings[leftIndex].compareTo(right.strings[rightIndex]);
+            default:
+                System.out.println("Tuple: Unknown comparison of the tuples");
+                System.exit(1);
+                return 0;
         }
     }
 
@@ -107,9 +253,11 @@ public class Tuple implements Serializable {
         }
 
         Tuple t = (Tuple) obj;
-        for (int i = 0; i < _data.size(); i++) {
-            // TODO implement this
-            if (compareTuples(this, t, i) != 0) {
+        if (t.types.length != types.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (!equalsAt(i, t, i)) {
                 return false;
             }
         }
@@ -117,4 +265,25 @@ public class Tuple implements Serializable {
         return true;
 
     }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < types.length; i++) {
+            hash = 31 * hash + hashAt(i);
+        }
+        return hash;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_data", data());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        init((ArrayList<Object>) fields.get("_data", null));
+    }
 }
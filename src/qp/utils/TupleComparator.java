@@ -0,0 +1,57 @@
+/**
+ * Compares tuples on a list of attributes, specialized once for the types of the attributes
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+public class TupleComparator implements Comparator<Tuple> {
+
+    /** Compares one attribute of two tuples **/
+    interface KeyComparator {
+        int compare(Tuple left, Tuple right);
+    }
+
+    final KeyComparator[] keys;    // One comparator per attribute, in order of precedence
+
+    /**
+     * Comparator of tuples of the same schema on the given attributes
+     **/
+    public TupleComparator(Schema schema, ArrayList<Integer> indexes) {
+        this(schema, indexes, indexes);
+    }
+
+    /**
+     * Comparator of tuples of two schemas, the i-th left attribute is compared to the i-th right attribute
+     **/
+    public TupleComparator(Schema left, ArrayList<Integer> leftIndexes, ArrayList<Integer> rightIndexes) {
+        keys = new KeyComparator[leftIndexes.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyComparator(left.typeOf(leftIndexes.get(i)), leftIndexes.get(i), rightIndexes.get(i));
+        }
+    }
+
+    private static KeyComparator keyComparator(int type, int l, int r) {
+        switch (type) {
+            case Attribute.INT:
+                return (left, right) -> Integer.compare(left.values[l], right.values[r]);
+            case Attribute.REAL:
+                return (left, right) -> Float.compare(Float.intBitsToFloat(left.values[l]), Float.intBitsToFloat(right.values[r]));
+            default:
+                return (left, right) -> left.strings[l].compareTo(right.strings[r]);
+        }
+    }
+
+    public int compare(Tuple left, Tuple right) {
+        for (KeyComparator key : keys) {
+            int result = key.compare(left, right);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+}
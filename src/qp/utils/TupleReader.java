@@ -4,6 +4,7 @@
 
 package qp.utils;
 
+import qp.optimizer.BufferManager;
 import qp.utils.*;
 
 import java.util.*;
@@ -20,7 +21,8 @@ public class TupleReader {
     int numBatch = 0;                        // Number of batch read
     int numTuple = 0;                        // Number of tuples read
     Tuple peekTuple = null;            // The next tuple of the batch (if peeked)
-    ObjectInputStream in;                // Input file stream
+    DataInputStream in;                    // Input file stream
+    PageCodec codec;                        // Decodes the batches read
 
     // filename: Filename of the output file to read from
     // batchsize: Number of tuples per batch
@@ -54,7 +56,7 @@ public class TupleReader {
     // Opens the input file and initializes the class for reading
     public boolean open() {
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            in = new DataInputStream(BufferManager.openInputStream(filename));
         } catch (IOException io) {
             System.out.printf("%s:reading the temporary file error\n", filename);
             return false;
@@ -64,6 +66,15 @@ public class TupleReader {
         numTuple = 0;
         readCursor = 0;
         completed = false;
+        try {
+            codec = PageCodec.readHeader(in);
+        } catch (EOFException e) {
+            // Nothing was written to the file
+            close();
+        } catch (IOException io) {
+            System.out.printf("%s:reading the temporary file error\n", filename);
+            return false;
+        }
         return true;
     }
 
@@ -79,7 +90,7 @@ public class TupleReader {
         if (inBatch == null) {
             try {
                 while (true) {
-                    inBatch = (Batch) in.readObject();
+                    inBatch = codec.readPage(in);
                     numBatch++;
                     if (inBatch.size() > 0) break;
                 }
@@ -89,9 +100,6 @@ public class TupleReader {
                 completed = true;
                 this.close();
                 return null;
-            } catch (ClassNotFoundException c) {
-                System.out.printf("%s:Some error in deserialization\n", filename);
-                System.exit(1);
             } catch (IOException io) {
                 System.out.printf("%s:temporary file reading error\n", filename);
                 System.exit(1);
@@ -4,6 +4,7 @@
 
 package qp.utils;
 
+import qp.optimizer.BufferManager;
 import qp.utils.*;
 
 import java.util.*;
@@ -13,17 +14,25 @@ public class TupleWriter {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final Schema schema;        // Schema of the tuples, null if it is inferred from the first tuple
 
     Batch outBatch;
     int numBatch = 0;                        // Number of batch written
     int numTuple = 0;                        // Number of tuples added
-    ObjectOutputStream out;            // Output file stream
+    DataOutputStream out;                // Output file stream
+    PageCodec codec;                        // Encodes the batches written
 
     // filename: Filename of the output file to write to
     // batchsize: Number of tuples per batch
     public TupleWriter(String filename, int batchsize) {
+        this(filename, batchsize, null);
+    }
+
+    // schema: Schema of the tuples written
+    public TupleWriter(String filename, int batchsize, Schema schema) {
         this.filename = filename;
         this.batchsize = batchsize;
+        this.schema = schema;
     }
 
     public int getNumBatch() {
@@ -45,7 +54,12 @@ public class TupleWriter {
     // Opens the file and initializes the class for writing
     public boolean open() {
         try {
-            out = new ObjectOutputStream(new FileOutputStream(filename));
+            out = new DataOutputStream(BufferManager.openOutputStream(filename));
+            codec = null;
+            if (schema != null) {
+                codec = new PageCodec(schema);
+                codec.writeHeader(out);
+            }
         } catch (IOException io) {
             System.out.printf("%s:writing the temporary file error", filename);
             return false;
@@ -72,7 +86,11 @@ public class TupleWriter {
     // Helper method to write a single batch to the output file
     private void writeBatch() {
         try {
-            out.writeObject(outBatch);
+            if (codec == null) {
+                codec = PageCodec.forTuple(outBatch.get(0));
+                codec.writeHeader(out);
+            }
+            codec.writePage(out, outBatch);
             outBatch = null;        // deallocate output buffer --> saves memory
             ++numBatch;
         } catch (IOException io) {
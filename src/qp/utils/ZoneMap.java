@@ -0,0 +1,276 @@
+/**
+ * Smallest and largest value of every column in every page of a base table
+ **/
+
+package qp.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The zone map of the table tab is stored in the file tab.zm, written with
+ * * tab.tbl. A page whose range of values of a column cannot satisfy a select
+ * * condition on that column holds no tuple of the selection, so it need not be read.
+ * File layout:
+ * * header : magic (int), number of columns (int), type of each column (byte), number of pages (int)
+ * * page   : offset in the table file (long), length in bytes (int), number of tuples (int),
+ * *          then the smallest and the largest value of each column
+ * Values are encoded as in PageCodec. A STRING column with no value in the page
+ * has null bounds, and the page is never skipped on that column.
+ */
+public class ZoneMap {
+
+    public static final int MAGIC = 0x51505A4D;   // "QPZM"
+
+    final int[] types;        // Type of each column, TIME is STRING
+    int numPages;             // Number of pages of the table
+    long[] offsets;           // Offset of each page in the table file
+    int[] lengths;            // Number of bytes of each page, with the padding
+    int[] numTuples;          // Number of tuples of each page
+    int[][] mins;             // Smallest INT and REAL values, by column then page
+    int[][] maxs;             // Largest INT and REAL values, by column then page
+    String[][] minStrings;    // Smallest STRING values, by column then page
+    String[][] maxStrings;    // Largest STRING values, by column then page
+
+    public ZoneMap(int[] types) {
+        this.types = types;
+        numPages = 0;
+        offsets = new long[16];
+        lengths = new int[16];
+        numTuples = new int[16];
+        mins = new int[types.length][16];
+        maxs = new int[types.length][16];
+        minStrings = new String[types.length][16];
+        maxStrings = new String[types.length][16];
+    }
+
+    /**
+     * Name of the file of the zone map of the table
+     **/
+    public static String zoneMapFile(String tabname) {
+        return tabname + ".zm";
+    }
+
+    /**
+     * Whether the table has a zone map written after the table file was last written
+     **/
+    public static boolean hasZoneMap(String tabname) {
+        File zonemap = new File(zoneMapFile(tabname));
+        File table = new File(tabname + ".tbl");
+        return zonemap.isFile() && zonemap.lastModified() >= table.lastModified();
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    public long getOffset(int page) {
+        return offsets[page];
+    }
+
+    public int getLength(int page) {
+        return lengths[page];
+    }
+
+    public int getNumTuples(int page) {
+        return numTuples[page];
+    }
+
+    /**
+     * Records the bounds of the page written at the given offset of the table file
+     **/
+    public void addPage(long offset, int length, Batch page) {
+        ensureCapacity(numPages + 1);
+        offsets[numPages] = offset;
+        lengths[numPages] = length;
+        numTuples[numPages] = page.size();
+        for (int col = 0; col < types.length; col++) {
+            int min = 0;
+            int max = 0;
+            String minString = null;
+            String maxString = null;
+            for (int i = 0; i < page.size(); i++) {
+                Tuple t = page.get(i);
+                if (types[col] == Attribute.STRING) {
+                    String value = t.getString(col);
+                    if (value != null && (minString == null || value.compareTo(minString) < 0)) {
+                        minString = value;
+                    }
+                    if (value != null && (maxString == null || value.compareTo(maxString) > 0)) {
+                        maxString = value;
+                    }
+                } else {
+                    if (i == 0 || compare(col, t.values[col], min) < 0) {
+                        min = t.values[col];
+                    }
+                    if (i == 0 || compare(col, t.values[col], max) > 0) {
+                        max = t.values[col];
+                    }
+                }
+            }
+            mins[col][numPages] = min;
+            maxs[col][numPages] = max;
+            minStrings[col][numPages] = minString;
+            maxStrings[col][numPages] = maxString;
+        }
+        numPages++;
+    }
+
+    /**
+     * Whether some value of the column in the page may satisfy the comparison
+     * * with the constant, the first column of the tuple given
+     **/
+    public boolean mayMatch(int page, int col, int exprtype, Tuple constant) {
+        int toMin;   // Comparison of the smallest value with the constant
+        int toMax;   // Comparison of the largest value with the constant
+        if (types[col] == Attribute.STRING) {
+            if (minStrings[col][page] == null) {
+                return true;
+            }
+            toMin = minStrings[col][page].compareTo(constant.getString(0));
+            toMax = maxStrings[col][page].compareTo(constant.getString(0));
+        } else {
+            toMin = compare(col, mins[col][page], constant.values[0]);
+            toMax = compare(col, maxs[col][page], constant.values[0]);
+        }
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return toMin < 0;
+            case Condition.LTOE:
+                return toMin <= 0;
+            case Condition.GREATERTHAN:
+                return toMax > 0;
+            case Condition.GTOE:
+                return toMax >= 0;
+            case Condition.EQUAL:
+                return toMin <= 0 && toMax >= 0;
+            default:
+                return toMin != 0 || toMax != 0;
+        }
+    }
+
+    private int compare(int col, int a, int b) {
+        if (types[col] == Attribute.REAL) {
+            return Float.compare(Float.intBitsToFloat(a), Float.intBitsToFloat(b));
+        }
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * Builds the zone map of a table file already written
+     **/
+    public static void build(String tblfile, String zmfile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tblfile)));
+        PageCodec codec = PageCodec.readHeader(in);
+        ZoneMap zonemap = new ZoneMap(codec.types);
+        long offset = codec.headerSize();
+        while (true) {
+            Batch page;
+            try {
+                page = codec.readPage(in);
+            } catch (EOFException eof) {
+                break;
+            }
+            int length = codec.pageLength(codec.pageData().limit());
+            zonemap.addPage(offset, length, page);
+            offset += length;
+        }
+        in.close();
+        zonemap.write(zmfile);
+    }
+
+    public void write(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        out.writeInt(MAGIC);
+        out.writeInt(types.length);
+        for (int type : types) {
+            out.writeByte(type);
+        }
+        out.writeInt(numPages);
+        for (int page = 0; page < numPages; page++) {
+            out.writeLong(offsets[page]);
+            out.writeInt(lengths[page]);
+            out.writeInt(numTuples[page]);
+            for (int col = 0; col < types.length; col++) {
+                if (types[col] == Attribute.STRING) {
+                    writeString(out, minStrings[col][page]);
+                    writeString(out, maxStrings[col][page]);
+                } else {
+                    out.writeInt(mins[col][page]);
+                    out.writeInt(maxs[col][page]);
+                }
+            }
+        }
+        out.close();
+    }
+
+    public static ZoneMap read(String filename) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a zone map file");
+            }
+            int[] types = new int[in.readInt()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = in.readByte();
+            }
+            ZoneMap zonemap = new ZoneMap(types);
+            int numPages = in.readInt();
+            zonemap.ensureCapacity(numPages);
+            for (int page = 0; page < numPages; page++) {
+                zonemap.offsets[page] = in.readLong();
+                zonemap.lengths[page] = in.readInt();
+                zonemap.numTuples[page] = in.readInt();
+                for (int col = 0; col < types.length; col++) {
+                    if (types[col] == Attribute.STRING) {
+                        zonemap.minStrings[col][page] = readString(in);
+                        zonemap.maxStrings[col][page] = readString(in);
+                    } else {
+                        zonemap.mins[col][page] = in.readInt();
+                        zonemap.maxs[col][page] = in.readInt();
+                    }
+                }
+            }
+            zonemap.numPages = numPages;
+            return zonemap;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= offsets.length) {
+            return;
+        }
+        int size = Math.max(capacity, 2 * offsets.length);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        numTuples = Arrays.copyOf(numTuples, size);
+        for (int col = 0; col < types.length; col++) {
+            mins[col] = Arrays.copyOf(mins[col], size);
+            maxs[col] = Arrays.copyOf(maxs[col], size);
+            minStrings[col] = Arrays.copyOf(minStrings[col], size);
+            maxStrings[col] = Arrays.copyOf(maxStrings[col], size);
+        }
+    }
+
+}